@@ -0,0 +1,163 @@
+package tcb.pr0x79;
+
+import tcb.pr0x79.data.ClassAccessorData;
+import tcb.pr0x79.data.MethodInterceptorData;
+import tcb.pr0x79.mapping.identification.type.ClassIdentifier;
+
+import java.util.*;
+
+/**
+ * Maps the internal class names of static {@link ClassIdentifier}s to the
+ * accessors and interceptors that apply to them. Accessors and interceptors
+ * with dynamic class identifiers are kept in a separate candidate list that
+ * is appended to every lookup
+ */
+final class AccessorIndex {
+	private final Map<String, Candidates> staticCandidates;
+	private final Candidates dynamicCandidates;
+
+	private AccessorIndex(Map<String, Candidates> staticCandidates, Candidates dynamicCandidates) {
+		this.staticCandidates = staticCandidates;
+		this.dynamicCandidates = dynamicCandidates;
+	}
+
+	/**
+	 * Builds the index of the specified accessors
+	 *
+	 * @param accessors The registered class accessors
+	 * @return
+	 */
+	static AccessorIndex build(Collection<ClassAccessorData> accessors) {
+		Set<String> targets = new HashSet<>();
+		for (ClassAccessorData accessor : accessors) {
+			addTargets(accessor.getClassIdentifier(), targets);
+			for (MethodInterceptorData interceptor : accessor.getMethodInterceptors()) {
+				addTargets(interceptor.getClassIdentifier(), targets);
+			}
+		}
+
+		Map<String, Candidates> staticCandidates = new HashMap<>();
+		for (String target : targets) {
+			staticCandidates.put(target, collect(accessors, target));
+		}
+
+		return new AccessorIndex(staticCandidates, collect(accessors, null));
+	}
+
+	/**
+	 * Returns all accessors and interceptors of the specified accessors as candidates
+	 * without relying on an index. Used while the accessors are still being registered
+	 *
+	 * @param accessors The registered class accessors
+	 * @return
+	 */
+	static Candidates unindexed(Collection<ClassAccessorData> accessors) {
+		List<ClassAccessorData> accessorCandidates = new ArrayList<>();
+		List<MethodInterceptorData> interceptorCandidates = new ArrayList<>();
+
+		for (ClassAccessorData accessor : accessors) {
+			if (accessor.getClassIdentifier() != null) {
+				accessorCandidates.add(accessor);
+			}
+
+			for (MethodInterceptorData interceptor : accessor.getMethodInterceptors()) {
+				if (interceptor.getClassIdentifier() != null) {
+					interceptorCandidates.add(interceptor);
+				}
+			}
+		}
+
+		return new Candidates(accessorCandidates, interceptorCandidates, false);
+	}
+
+	/**
+	 * Returns all accessors and interceptors in registration order that either
+	 * have a dynamic class identifier or a static class identifier that contains the target
+	 *
+	 * @param accessors The registered class accessors
+	 * @param target    The internal class name, or null to only collect dynamic candidates
+	 * @return
+	 */
+	private static Candidates collect(Collection<ClassAccessorData> accessors, String target) {
+		List<ClassAccessorData> accessorCandidates = new ArrayList<>();
+		List<MethodInterceptorData> interceptorCandidates = new ArrayList<>();
+
+		for (ClassAccessorData accessor : accessors) {
+			if (isCandidate(accessor.getClassIdentifier(), target)) {
+				accessorCandidates.add(accessor);
+			}
+
+			for (MethodInterceptorData interceptor : accessor.getMethodInterceptors()) {
+				if (isCandidate(interceptor.getClassIdentifier(), target)) {
+					interceptorCandidates.add(interceptor);
+				}
+			}
+		}
+
+		return new Candidates(accessorCandidates, interceptorCandidates, true);
+	}
+
+	private static boolean isCandidate(ClassIdentifier identifier, String target) {
+		return identifier != null && (!identifier.isStatic() || (target != null && identifier.getData().contains(target)));
+	}
+
+	private static void addTargets(ClassIdentifier identifier, Set<String> targets) {
+		if (identifier != null && identifier.isStatic()) {
+			targets.addAll(identifier.getData());
+		}
+	}
+
+	/**
+	 * Returns the accessors and interceptors that may apply to the specified class.
+	 * Candidates with a static class identifier are guaranteed to apply, candidates
+	 * with a dynamic class identifier still need to be checked
+	 *
+	 * @param cls The internal class name
+	 * @return
+	 */
+	Candidates getCandidates(String cls) {
+		Candidates candidates = cls != null ? this.staticCandidates.get(cls) : null;
+		return candidates != null ? candidates : this.dynamicCandidates;
+	}
+
+	/**
+	 * Returns the internal names of all classes identified by static class identifiers
+	 *
+	 * @return
+	 */
+	Set<String> getStaticTargets() {
+		return Collections.unmodifiableSet(this.staticCandidates.keySet());
+	}
+
+	/**
+	 * Returns whether any accessor or interceptor has a dynamic class identifier
+	 *
+	 * @return
+	 */
+	boolean hasDynamicCandidates() {
+		return !this.dynamicCandidates.accessors.isEmpty() || !this.dynamicCandidates.interceptors.isEmpty();
+	}
+
+	static final class Candidates {
+		final List<ClassAccessorData> accessors;
+		final List<MethodInterceptorData> interceptors;
+		private final boolean indexed;
+
+		private Candidates(List<ClassAccessorData> accessors, List<MethodInterceptorData> interceptors, boolean indexed) {
+			this.accessors = accessors;
+			this.interceptors = interceptors;
+			this.indexed = indexed;
+		}
+
+		/**
+		 * Returns whether a candidate with the specified class identifier is known
+		 * to apply without having to check the class identifier
+		 *
+		 * @param identifier The class identifier of the candidate
+		 * @return
+		 */
+		boolean isIdentified(ClassIdentifier identifier) {
+			return this.indexed && identifier.isStatic();
+		}
+	}
+}
@@ -1,18 +1,26 @@
 package tcb.pr0x79;
 
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 import tcb.pr0x79.accessor.Accessor;
 import tcb.pr0x79.accessor.ClassAccessor;
 import tcb.pr0x79.data.ClassAccessorData;
 import tcb.pr0x79.exception.InstrumentorException;
 import tcb.pr0x79.mapping.MapperRegistry;
+import tcb.pr0x79.mapping.locator.ClassLocator;
 import tcb.pr0x79.mapping.locator.ClassLocatorRegistry;
 
+import java.io.IOException;
 import java.lang.instrument.Instrumentation;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 public enum Bootstrapper {
 	INSTANCE;
@@ -25,9 +33,36 @@ public enum Bootstrapper {
 	//Contains all accessor classes that were loaded through the class transformer
 	private final ClassHierarchy hierarchy;
 
+	//All exceptions before the IInstrumentors have been registered go into this list and are later redirected to the IInstrumentors after initialization
+	private final List<Exception> initExceptions = Collections.synchronizedList(new ArrayList<>());
+
 	private Set<Instrumentor> instrumentors;
 	private boolean initializing = true;
 
+	//Rejects classes that are neither accessors nor targets, null while initializing
+	private volatile ClassPreFilter preFilter;
+
+	private Path classCacheDirectory;
+	private final List<String> classCacheFingerprints = new ArrayList<>();
+	//Persistent cache of transformed classes, null while initializing or if disabled
+	private volatile ClassCache classCache;
+
+	//ClassLoader#defineClass, used to define the generated classes at runtime. Null if not accessible or if weaving offline
+	private volatile Method defineClass;
+
+	//Classes generated while weaving offline, null if not weaving offline
+	private volatile Map<String, byte[]> offlineGeneratedClasses;
+	//Classes that could not be transformed while weaving offline, null if not weaving offline
+	private volatile Map<String, Exception> offlineFailedClasses;
+
+	private boolean skipWovenClasses;
+	//Internal names and hashes of the classes that were woven by the OfflineWeaver, null while initializing or if disabled
+	private volatile Map<String, String> wovenClasses;
+
+	//Number of classes that were loaded before the class transformer was attached and added to the hierarchy
+	private volatile int loadedClassCount;
+	private volatile long loadedClassNanos;
+
 	Bootstrapper() {
 		this.mapperRegistry = new MapperRegistry(this);
 		this.classLocatorRegistry = new ClassLocatorRegistry(this);
@@ -72,83 +107,43 @@ public enum Bootstrapper {
 	}
 
 
+	/**
+	 * Initializes the bootstrapper without a live {@link Instrumentation}, called from the {@link OfflineWeaver}.
+	 * Classes are then only transformed through {@link #transform(ClassLoader, String, byte[])}
+	 *
+	 * @param instrumentorClasses The instrumentor class names
+	 * @param locator             Locates the classes of the woven jars
+	 */
+	static void initializeOffline(String[] instrumentorClasses, ClassLocator locator) {
+		if (!INSTANCE.isInitializing()) {
+			throw new RuntimeException("Bootstrapper can only be initialized once");
+		}
+
+		INSTANCE.offlineGeneratedClasses = new ConcurrentHashMap<>();
+		INSTANCE.offlineFailedClasses = new ConcurrentHashMap<>();
+		INSTANCE.classLocatorRegistry.registerClassLocator("offline_weaver", locator);
+		INSTANCE.init(instrumentorClasses, null);
+	}
+
 	/**
 	 * Initializes the bootstrapper
 	 *
 	 * @param instrumentorClasses The instrumentor class names
-	 * @param inst                The bytecode instrumentation
+	 * @param inst                The bytecode instrumentation, null if the classes are woven offline
 	 */
 	private void init(String[] instrumentorClasses, Instrumentation inst) {
-		//All exceptions before the IInstrumentors have been registered go into this list and are later redirected to the IInstrumentors after initialization
-		List<Exception> bootstrapperInitExceptions = Collections.synchronizedList(new ArrayList<>());
-
-		inst.addTransformer((loader, className, classBeingRedefined, protectionDoman, bytes) -> {
+		if (inst != null) {
 			try {
-				boolean modified = false;
-
-				final int structureFlags = ClassReader.SKIP_FRAMES | ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG;
-				ClassReader classReader = new ClassReader(bytes);
-				ClassNode clsNode = new ClassNode();
-				classReader.accept(clsNode, structureFlags);
-
-				hierarchy.addClass(loader, clsNode);
-
-				final String classIdentifier = BytecodeInstrumentation.getAnnotationValue(clsNode.visibleAnnotations, ClassAccessor.class, BytecodeInstrumentation.getInternal(ClassAccessor.class, "class_identifier", Class::getDeclaredMethods).getName(), String.class, null, null);
-
-				if (classIdentifier != null) {
-					clsNode = new ClassNode();
-					classReader.accept(clsNode, ClassReader.SKIP_FRAMES);
-					if (instrumentor.instrumentAccessorClass(clsNode, this)) {
-						modified = true;
-					}
-				}
-
-				final ClassNode acceptsClassNode = clsNode;
-				if (className != null && instrumentor.acceptsClass(clsNode, classIdentifier != null ? ClassReader.SKIP_FRAMES : structureFlags, flags -> {
-					if ((classIdentifier != null && flags == ClassReader.SKIP_FRAMES) || (classIdentifier == null && flags == structureFlags)) {
-						return acceptsClassNode;
-					}
-
-					ClassNode newNode = new ClassNode();
-					classReader.accept(newNode, flags);
-					return newNode;
-				})) {
-					if (classIdentifier == null) {
-						clsNode = new ClassNode();
-						classReader.accept(clsNode, ClassReader.SKIP_FRAMES);
-					}
-
-					final ClassNode instrumentClassNode = clsNode;
-					instrumentor.instrumentClass(loader, clsNode, ClassReader.SKIP_FRAMES, flags -> {
-						if (flags == ClassReader.SKIP_FRAMES) {
-							return instrumentClassNode;
-						}
-
-						ClassNode newNode = new ClassNode();
-						classReader.accept(newNode, flags);
-						return newNode;
-					});
-
-					modified = true;
-				}
-
-				if (modified) {
-					ClassWriter classWriter = new InstrumentationClassWriter(hierarchy, loader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-					clsNode.accept(classWriter);
-					return classWriter.toByteArray();
-				}
-			} catch (Exception ex) {
-				if (!isInitializing()) {
-					onBootstrapperException(ex);
-				} else {
-					synchronized (bootstrapperInitExceptions) {
-						bootstrapperInitExceptions.add(ex);
-					}
-				}
+				this.defineClass = getDefineClass(inst);
+			} catch (InstrumentorException ex) {
+				this.initExceptions.add(ex);
 			}
 
-			return bytes;
-		});
+			inst.addTransformer((loader, className, classBeingRedefined, protectionDomain, bytes) -> this.transform(loader, className, bytes));
+
+			//Classes that were loaded before the transformer was attached never reach the transformer
+			this.addLoadedClasses(inst);
+		}
 
 		List<Instrumentor> instrumentorInstances = new ArrayList<>();
 		for (String instrumentorClass : instrumentorClasses) {
@@ -157,7 +152,7 @@ public enum Bootstrapper {
 				instrumentorInstances.add(instrumentor);
 			} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | IllegalArgumentException
 					| InvocationTargetException | NoSuchMethodException | SecurityException ex) {
-				bootstrapperInitExceptions.add(ex);
+				this.initExceptions.add(ex);
 			}
 		}
 
@@ -168,28 +163,56 @@ public enum Bootstrapper {
 			try {
 				instrumentor.initBootstrapper(this);
 			} catch (Exception ex) {
-				bootstrapperInitExceptions.add(ex);
+				this.initExceptions.add(ex);
 			}
 		}
 
-		for (ClassAccessorData accessor : this.accessors.getClassAccessors()) {
-			if (this.hierarchy.getClass(Bootstrapper.class.getClassLoader(), accessor.getAccessorClass().replace(".", "/"), false, null) != null) {
-				throw new InstrumentorException(String.format("Accessor class %s was already loaded before or during the bootstrapper initialization!", accessor.getAccessorClass()));
+		//Offline the accessor classes are woven from the input like any other class
+		if (inst != null) {
+			for (ClassAccessorData accessor : this.accessors.getClassAccessors()) {
+				if (this.hierarchy.getClass(Bootstrapper.class.getClassLoader(), accessor.getAccessorClass().replace(".", "/"), false, null) != null) {
+					throw new InstrumentorException(String.format("Accessor class %s was already loaded before or during the bootstrapper initialization!", accessor.getAccessorClass()));
+				}
+			}
+
+			for (ClassAccessorData accessor : this.accessors.getClassAccessors()) {
+				try {
+					@SuppressWarnings("unchecked")
+					Class<Accessor> accessorCls = (Class<Accessor>) Bootstrapper.class
+							.getClassLoader()
+							.loadClass(accessor.getAccessorClass());
+
+					if (this.hierarchy.getClass(Bootstrapper.class.getClassLoader(), accessorCls.getName().replace(".", "/"), false, null) == null) {
+						throw new InstrumentorException(String.format("Accessor class %s could not be loaded properly!", accessorCls.getName()));
+					}
+				} catch (ClassNotFoundException e) {
+					this.initExceptions.add(e);
+				}
 			}
 		}
 
-		for (ClassAccessorData accessor : this.accessors.getClassAccessors()) {
-			try {
-				@SuppressWarnings("unchecked")
-				Class<Accessor> accessorCls = (Class<Accessor>) Bootstrapper.class
-						.getClassLoader()
-						.loadClass(accessor.getAccessorClass());
+		this.preFilter = ClassPreFilter.build(this.instrumentor.indexAccessors());
 
-				if (this.hierarchy.getClass(Bootstrapper.class.getClassLoader(), accessorCls.getName().replace(".", "/"), false, null) == null) {
-					throw new InstrumentorException(String.format("Accessor class %s could not be loaded properly!", accessorCls.getName()));
+		synchronized (this) {
+			if (this.classCacheDirectory != null) {
+				try {
+					this.classCache = ClassCache.open(this.classCacheDirectory, this.getFingerprint((name, hash) -> hash));
+				} catch (IOException ex) {
+					this.initExceptions.add(ex);
+				}
+			}
+		}
+
+		synchronized (this) {
+			if (this.skipWovenClasses) {
+				try {
+					List<OfflineWeaver.WovenManifest> manifests = OfflineWeaver.readWovenManifests(Bootstrapper.class.getClassLoader());
+					//The accessor and pr0x79 classes may have been woven as well, the fingerprint covers their original bytes
+					String fingerprint = this.getFingerprint((name, hash) -> hash != null ? OfflineWeaver.getOriginalHash(manifests, name, hash) : null);
+					this.wovenClasses = OfflineWeaver.getWovenClasses(manifests, fingerprint);
+				} catch (IOException ex) {
+					this.initExceptions.add(ex);
 				}
-			} catch (ClassNotFoundException e) {
-				bootstrapperInitExceptions.add(e);
 			}
 		}
 
@@ -197,8 +220,8 @@ public enum Bootstrapper {
 			this.initializing = false;
 		}
 
-		synchronized (bootstrapperInitExceptions) {
-			for (Exception ex : bootstrapperInitExceptions) {
+		synchronized (this.initExceptions) {
+			for (Exception ex : this.initExceptions) {
 				this.onBootstrapperException(ex);
 			}
 		}
@@ -220,6 +243,253 @@ public enum Bootstrapper {
 		}
 	}
 
+	/**
+	 * Adds all classes that are already loaded to the class hierarchy, so that the hierarchy doesn't have
+	 * to read their class files
+	 *
+	 * @param inst The bytecode instrumentation
+	 */
+	private void addLoadedClasses(Instrumentation inst) {
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		try {
+			this.loadedClassCount = this.hierarchy.addLoadedClasses(inst.getAllLoadedClasses(), pool);
+		} catch (InterruptedException | ExecutionException ex) {
+			this.initExceptions.add(ex);
+		} finally {
+			pool.shutdown();
+		}
+		this.loadedClassNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Returns the fingerprint of the instrumentation. It covers pr0x79, the registered accessors and their identifiers,
+	 * the mapping sources, the fingerprints of {@link #setClassCache(Path, String...)} and the outlining thresholds
+	 *
+	 * @param hashes Returns the hashes of the original pr0x79 and accessor classes
+	 * @return
+	 * @throws IOException
+	 */
+	String getFingerprint(ClassCache.ClassHashes hashes) throws IOException {
+		List<String> fingerprints;
+		synchronized (this) {
+			fingerprints = new ArrayList<>(this.classCacheFingerprints);
+		}
+		for (Map.Entry<String, String> source : this.mapperRegistry.getMappingSources().entrySet()) {
+			fingerprints.add(source.getKey());
+			fingerprints.add(source.getValue());
+		}
+		//The outlining thresholds change the instrumented classes
+		fingerprints.add(this.instrumentor.getOutliner().getFingerprint());
+		return ClassCache.getFingerprint(fingerprints, this.accessors.getClassAccessors(), hashes);
+	}
+
+	/**
+	 * Transforms a class according to the registered {@link Accessor}s
+	 *
+	 * @param loader    The class loader that is loading the class
+	 * @param className The internal name of the class, may be null
+	 * @param bytes     The class bytes
+	 * @return The transformed class bytes, or the specified bytes if the class was not modified
+	 */
+	byte[] transform(ClassLoader loader, String className, byte[] bytes) {
+		try {
+			boolean modified = false;
+
+			ClassReader classReader = new ClassReader(bytes);
+
+			Map<String, String> woven = this.wovenClasses;
+			if (woven != null && className != null) {
+				String hash = woven.get(className);
+				if (hash != null && hash.equals(OfflineWeaver.hash(bytes))) {
+					hierarchy.addClass(loader, classReader);
+					return bytes;
+				}
+			}
+
+			ClassPreFilter filter = this.preFilter;
+			if (filter != null && !filter.accepts(classReader, className)) {
+				hierarchy.addClass(loader, classReader);
+				return bytes;
+			}
+
+			final ClassCache cache = this.classCache;
+			String cacheKey = null;
+			//The generated classes of accessors must be defined again by the next JVM, so accessors are never cached
+			if (cache != null && !ClassPreFilter.mayBeAccessor(classReader)) {
+				cacheKey = cache.getKey(className, bytes, classReader, hierarchy, loader);
+				byte[] cached = cache.get(cacheKey);
+				if (cached != null) {
+					hierarchy.addClass(loader, classReader);
+					return cached.length == 0 ? bytes : cached;
+				}
+			}
+
+			final int structureFlags = ClassReader.SKIP_FRAMES | ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG;
+			ClassParseCache nodes = new ClassParseCache(classReader);
+
+			if (filter != null && filter.isPrecise()) {
+				//Classes that pass a precise filter are instrumented in almost all cases,
+				//so the class is parsed fully right away and the structure is derived from that node
+				nodes.get(ClassReader.SKIP_FRAMES);
+			}
+
+			ClassNode clsNode = nodes.get(structureFlags);
+			Set<MethodNode> modifiedMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+			Map<String, byte[]> generatedClasses = new HashMap<>();
+
+			hierarchy.addClass(loader, clsNode);
+
+			final String classIdentifier = BytecodeInstrumentation.getAnnotationValue(clsNode.visibleAnnotations, ClassAccessor.class, BytecodeInstrumentation.getInternal(ClassAccessor.class, "class_identifier", Class::getDeclaredMethods).getName(), String.class, null, null);
+
+			if (classIdentifier != null) {
+				clsNode = nodes.get(ClassReader.SKIP_FRAMES);
+				if (instrumentor.instrumentAccessorClass(clsNode, this, modifiedMethods, generatedClasses)) {
+					modified = true;
+				}
+
+				this.defineGeneratedClasses(loader, generatedClasses);
+			}
+
+			if (className != null && instrumentor.acceptsClass(loader, clsNode, classIdentifier != null ? ClassReader.SKIP_FRAMES : structureFlags, nodes)) {
+				clsNode = nodes.get(ClassReader.SKIP_FRAMES);
+				instrumentor.instrumentClass(loader, clsNode, ClassReader.SKIP_FRAMES, nodes, modifiedMethods);
+
+				modified = true;
+			}
+
+			if (modified) {
+				byte[] transformed = InstrumentationClassWriter.write(classReader, clsNode, modifiedMethods, hierarchy, loader);
+				if (cacheKey != null) {
+					cache.put(cacheKey, transformed);
+				}
+				return transformed;
+			}
+
+			if (cacheKey != null) {
+				cache.put(cacheKey, new byte[0]);
+			}
+		} catch (Exception ex) {
+			Map<String, Exception> failedClasses = this.offlineFailedClasses;
+			if (failedClasses != null) {
+				failedClasses.put(String.valueOf(className), ex);
+			}
+
+			if (!isInitializing()) {
+				onBootstrapperException(ex);
+			} else {
+				this.initExceptions.add(ex);
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Defines the classes that were generated for an accessor in the class loader of the accessor.
+	 * When weaving offline the classes are collected instead, see {@link #takeGeneratedClasses()}
+	 *
+	 * @param loader           The class loader of the accessor
+	 * @param generatedClasses The generated classes by internal name
+	 */
+	private void defineGeneratedClasses(ClassLoader loader, Map<String, byte[]> generatedClasses) {
+		if (this.offlineGeneratedClasses != null) {
+			this.offlineGeneratedClasses.putAll(generatedClasses);
+			return;
+		}
+
+		if (generatedClasses.isEmpty()) {
+			return;
+		}
+
+		if (loader == null) {
+			throw new InstrumentorException(String.format("Cannot define generated classes %s in the bootstrap class loader", generatedClasses.keySet()));
+		}
+
+		Method defineClass = this.defineClass;
+		if (defineClass == null) {
+			throw new InstrumentorException(String.format("Cannot define generated classes %s, ClassLoader#defineClass is not accessible", generatedClasses.keySet()));
+		}
+
+		for (Map.Entry<String, byte[]> generatedClass : generatedClasses.entrySet()) {
+			try {
+				defineClass.invoke(loader, generatedClass.getKey().replace('/', '.'), generatedClass.getValue(), 0, generatedClass.getValue().length);
+			} catch (IllegalAccessException | InvocationTargetException ex) {
+				throw new InstrumentorException(String.format("Failed defining generated class %s", generatedClass.getKey()), ex);
+			}
+		}
+	}
+
+	/**
+	 * Returns the accessible ClassLoader#defineClass method. On Java 9 and later java.lang is opened to
+	 * the module of the bootstrapper first, otherwise the method can't be made accessible on Java 16 and later
+	 * and prints an illegal access warning on Java 9 to 15
+	 *
+	 * @param inst The bytecode instrumentation
+	 * @return
+	 */
+	private static Method getDefineClass(Instrumentation inst) {
+		try {
+			Method getModule;
+			try {
+				getModule = Class.class.getMethod("getModule");
+			} catch (NoSuchMethodException ex) {
+				//Java 8, no modules
+				getModule = null;
+			}
+
+			if (getModule != null) {
+				Object javaBase = getModule.invoke(ClassLoader.class);
+				Object module = getModule.invoke(Bootstrapper.class);
+				Method redefineModule = Instrumentation.class.getMethod("redefineModule", getModule.getReturnType(), Set.class, Map.class, Map.class, Set.class, Map.class);
+				redefineModule.invoke(inst, javaBase, Collections.emptySet(), Collections.emptyMap(),
+						Collections.singletonMap(ClassLoader.class.getPackage().getName(), Collections.singleton(module)), Collections.emptySet(), Collections.emptyMap());
+			}
+
+			Method defineClass = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class, int.class, int.class);
+			defineClass.setAccessible(true);
+			return defineClass;
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			throw new InstrumentorException("Failed making ClassLoader#defineClass accessible", ex);
+		}
+	}
+
+	/**
+	 * Returns and removes all classes that were generated while weaving offline
+	 *
+	 * @return The generated classes by internal name
+	 */
+	Map<String, byte[]> takeGeneratedClasses() {
+		Map<String, byte[]> generatedClasses = new HashMap<>();
+		if (this.offlineGeneratedClasses != null) {
+			for (String name : new ArrayList<>(this.offlineGeneratedClasses.keySet())) {
+				byte[] bytes = this.offlineGeneratedClasses.remove(name);
+				if (bytes != null) {
+					generatedClasses.put(name, bytes);
+				}
+			}
+		}
+		return generatedClasses;
+	}
+
+	/**
+	 * Returns and removes all classes that could not be transformed while weaving offline
+	 *
+	 * @return The exceptions by internal class name
+	 */
+	Map<String, Exception> takeFailedClasses() {
+		Map<String, Exception> failedClasses = new TreeMap<>();
+		if (this.offlineFailedClasses != null) {
+			for (String name : new ArrayList<>(this.offlineFailedClasses.keySet())) {
+				Exception ex = this.offlineFailedClasses.remove(name);
+				if (ex != null) {
+					failedClasses.put(name, ex);
+				}
+			}
+		}
+		return failedClasses;
+	}
+
 	/**
 	 * Creates a new instance of
 	 * the specified instrumentor class
@@ -267,6 +537,123 @@ public enum Bootstrapper {
 		return this.classLocatorRegistry;
 	}
 
+	/**
+	 * Enables the persistent cache of transformed classes. On a cache hit the transformed
+	 * class is returned without parsing or instrumenting it again. The accessor classes, the static and pattern
+	 * identifiers and the mapping sources of the {@link MapperRegistry} are part of the cache key,
+	 * anything else dynamic identifiers depend on must be passed in as fingerprint.
+	 * Of the other classes a transformed class depends on only the headers of its supertypes are part of the cache key.
+	 * Changes of other classes, e.g. of the classes whose common superclass is computed for the stack map frames,
+	 * are not detected, so the cache directory must be cleared when such classes change without changing the instrumented classes.
+	 * Must be called during the bootstrapper initialization
+	 *
+	 * @param directory    The cache directory. Can be shared by multiple JVMs
+	 * @param fingerprints Additional data that invalidates the cache when changed
+	 */
+	public synchronized void setClassCache(Path directory, String... fingerprints) {
+		if (!this.initializing) {
+			throw new RuntimeException("Class cache must be set during the bootstrap initialization");
+		}
+
+		this.classCacheDirectory = directory;
+		this.classCacheFingerprints.clear();
+		this.classCacheFingerprints.addAll(Arrays.asList(fingerprints));
+	}
+
+	/**
+	 * Skips the transformation of classes that were already woven by the {@link OfflineWeaver}.
+	 * A class is only skipped if its bytes are exactly the bytes listed in a woven manifest and the manifest was
+	 * woven with the same accessors, identifiers and mappings, see {@link #getFingerprint(ClassCache.ClassHashes)}.
+	 * Otherwise it is transformed as usual. Must be called during the bootstrapper initialization
+	 */
+	public synchronized void skipWovenClasses() {
+		if (!this.initializing) {
+			throw new RuntimeException("Woven classes must be skipped during the bootstrap initialization");
+		}
+
+		this.skipWovenClasses = true;
+	}
+
+	/**
+	 * Sets the bytecode sizes that intercepted methods must not cross due to the interceptors.
+	 * If a method crosses a threshold, its interceptor calls are moved into helper methods.
+	 * Defaults to the HotSpot defaults of <code>FreqInlineSize</code> (325) and <code>HugeMethodLimit</code> (8000).
+	 * Must be called during the bootstrapper initialization
+	 *
+	 * @param inliningThreshold   The maximum size of methods the JIT inlines
+	 * @param hugeMethodThreshold The maximum size of methods the JIT compiles
+	 */
+	public synchronized void setOutliningThresholds(int inliningThreshold, int hugeMethodThreshold) {
+		if (!this.initializing) {
+			throw new RuntimeException("Outlining thresholds must be set during the bootstrap initialization");
+		}
+
+		this.instrumentor.getOutliner().setThresholds(inliningThreshold, hugeMethodThreshold);
+	}
+
+	/**
+	 * Returns the report of all intercepted methods that crossed an outlining threshold,
+	 * see {@link #setOutliningThresholds(int, int)}
+	 *
+	 * @return
+	 */
+	public MethodSizeReport getMethodSizeReport() {
+		return this.instrumentor.getOutliner().getReport();
+	}
+
+	/**
+	 * Returns the number of classes that were already loaded when the bootstrapper was initialized
+	 * and were added to the class hierarchy without reading their class files
+	 *
+	 * @return
+	 */
+	public int getLoadedClassCount() {
+		return this.loadedClassCount;
+	}
+
+	/**
+	 * Returns the time in nanoseconds it took to add the classes that were already loaded when the
+	 * bootstrapper was initialized to the class hierarchy, see {@link #getLoadedClassCount()}
+	 *
+	 * @return
+	 */
+	public long getLoadedClassTime() {
+		return this.loadedClassNanos;
+	}
+
+	/**
+	 * Disables the interceptor with the specified ID. A disabled interceptor is not called anymore
+	 * and its interception sites are compiled to no-ops. Only affects classes that were compiled for Java 7 or newer,
+	 * older classes always call their interceptors
+	 *
+	 * @param interceptorId The interceptor ID, see {@link tcb.pr0x79.data.MethodInterceptorData#getId()}
+	 */
+	public void disableInterceptor(String interceptorId) {
+		InterceptorLinker.setEnabled(interceptorId, false);
+	}
+
+	/**
+	 * Enables the interceptor with the specified ID again, see {@link #disableInterceptor(String)}
+	 *
+	 * @param interceptorId The interceptor ID, see {@link tcb.pr0x79.data.MethodInterceptorData#getId()}
+	 */
+	public void enableInterceptor(String interceptorId) {
+		InterceptorLinker.setEnabled(interceptorId, true);
+	}
+
+	/**
+	 * Swaps the interceptor with the specified ID for the specified {@link MethodHandle}.
+	 * The handle receives the accessor instance followed by the interceptor parameters and
+	 * must not return a value. The instrumented method only handles the context operations and
+	 * local variable writes of the original interceptor, so the replacement must not rely on any other
+	 *
+	 * @param interceptorId The interceptor ID, see {@link tcb.pr0x79.data.MethodInterceptorData#getId()}
+	 * @param replacement   The replacement, or null to restore the original interceptor
+	 */
+	public void swapInterceptor(String interceptorId, MethodHandle replacement) {
+		InterceptorLinker.setReplacement(interceptorId, replacement);
+	}
+
 	/**
 	 * Returns whether the bootstrapper is in the initialization phase
 	 *
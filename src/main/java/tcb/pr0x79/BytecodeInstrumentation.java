@@ -1,6 +1,7 @@
 package tcb.pr0x79;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -8,7 +9,6 @@ import org.objectweb.asm.signature.SignatureWriter;
 import org.objectweb.asm.tree.*;
 import org.objectweb.asm.tree.analysis.*;
 import tcb.pr0x79.accessor.Accessor;
-import tcb.pr0x79.accessor.InterceptorContext;
 import tcb.pr0x79.data.ClassAccessorData;
 import tcb.pr0x79.data.ElementAccessorData;
 import tcb.pr0x79.data.LocalVarData;
@@ -33,6 +33,8 @@ import tcb.pr0x79.mapping.identification.AnnotatedElementDescription;
 import tcb.pr0x79.mapping.identification.BytecodeIdentifier;
 import tcb.pr0x79.mapping.identification.type.ClassIdentifier;
 import tcb.pr0x79.mapping.identification.type.FieldIdentifier;
+import tcb.pr0x79.mapping.identification.type.InstructionIdentification;
+import tcb.pr0x79.mapping.identification.type.InstructionTypeIdentifier;
 import tcb.pr0x79.mapping.identification.type.MethodIdentifier;
 import tcb.pr0x79.mapping.locator.ClassLocatorRegistry;
 import tcb.pr0x79.signature.AccessorAwareSignatureChecker;
@@ -53,9 +55,14 @@ import java.util.function.Function;
  * Instruments classes using the registered {@link Accessor}s
  */
 public final class BytecodeInstrumentation {
+	private static final Handle INTERCEPTOR_LINKER_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(InterceptorLinker.class), "bootstrap",
+			"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false);
+
 	private final ClassHierarchy hierarchy;
 	private final ClassLocatorRegistry locators;
 	private Accessors accessors;
+	private volatile AccessorIndex index;
+	private final InterceptorOutliner outliner = new InterceptorOutliner();
 
 	BytecodeInstrumentation(ClassHierarchy hierarchy, ClassLocatorRegistry locators) {
 		this.hierarchy = hierarchy;
@@ -64,97 +71,60 @@ public final class BytecodeInstrumentation {
 
 
 	/**
-	 * Checks whether the specified method is identified by the interceptor
+	 * Checks whether the specified method is identified by the interceptor.
+	 * Results of dynamic method identifiers are memoized per class loader and method
 	 *
 	 * @param interceptor The interceptor
+	 * @param loader      The class loader of the class that declares the method
+	 * @param owner       The internal name of the class that declares the method
 	 * @param methodNode  The {@link MethodNode}
 	 * @return
 	 */
-	public static boolean isIdentifiedMethod(MethodInterceptorData interceptor, MethodNode methodNode) {
-		AnnotatedElementDescription identified = interceptor.getIdentifiedMethod();
-		if (identified != null && identified.getName().equals(methodNode.name) && identified.getDescriptor().equals(methodNode.desc)) {
-			return true;
-		}
-
+	public static boolean isIdentifiedMethod(MethodInterceptorData interceptor, ClassLoader loader, String owner, MethodNode methodNode) {
 		MethodIdentifier identifier = interceptor.getMethodIdentifier();
-		AnnotatedElementDescription desc = AnnotatedElementDescription.methodDescription(methodNode.name, methodNode.desc);
 		if (identifier.isStatic()) {
-			if (identifier.getData().contains(desc)) {
-				interceptor.setIdentifiedMethod(desc);
-				return true;
-			}
-		} else {
-			if (identifier.isIdentifiedMethod(methodNode)) {
-				interceptor.setIdentifiedMethod(desc);
-				return true;
-			}
+			return identifier.isInData(methodNode);
 		}
-		return false;
+
+		return interceptor.getMethodIdentification().isIdentified(loader, owner + '.' + methodNode.name + methodNode.desc, () -> identifier.isIdentifiedMethod(methodNode));
 	}
 
 	/**
-	 * Checks whether the specified class is identified by the accessor
+	 * Checks whether the specified class is identified by the accessor.
+	 * Results of dynamic class identifiers are memoized per class loader and class
 	 *
 	 * @param accessor The accessor
+	 * @param loader   The class loader of the class
 	 * @param cls      The internal class name
 	 * @param reader   Allows getting a {@link ClassNode} with specific flags
 	 * @return
 	 */
-	public static boolean isIdentifiedClass(ClassAccessorData accessor, String cls, Function<Integer, ClassNode> reader) {
-		String identified = accessor.getIdentifiedClass();
-		if (identified != null && identified.equals(cls)) {
-			return true;
-		}
-
-		ClassIdentifier identifier = accessor.getClassIdentifier();
-		if (identifier.isStatic()) {
-			if (identifier.getData().contains(cls)) {
-				accessor.setIdentifiedClass(cls);
-				return true;
-			}
-		} else {
-			if (identifier.isIdentifiedClass(reader.apply(
-					ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES),
-					ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES, reader)
-			) {
-				accessor.setIdentifiedClass(cls);
-				return true;
-			}
-		}
-
-		return false;
+	public static boolean isIdentifiedClass(ClassAccessorData accessor, ClassLoader loader, String cls, Function<Integer, ClassNode> reader) {
+		return isIdentifiedClass(accessor.getClassIdentifier(), accessor.getClassIdentification(), loader, cls, reader);
 	}
 
 	/**
-	 * Checks whether the specified class is identified by the interceptor
+	 * Checks whether the specified class is identified by the interceptor.
+	 * Results of dynamic class identifiers are memoized per class loader and class
 	 *
 	 * @param interceptor The interceptor
+	 * @param loader      The class loader of the class
 	 * @param cls         The internal class name
 	 * @param reader      Allows getting a {@link ClassNode} with specific flags
 	 * @return
 	 */
-	public static boolean isIdentifiedClass(MethodInterceptorData interceptor, String cls, Function<Integer, ClassNode> reader) {
-		String identified = interceptor.getIdentifiedClass();
-		if (identified != null && identified.equals(cls)) {
-			return true;
-		}
+	public static boolean isIdentifiedClass(MethodInterceptorData interceptor, ClassLoader loader, String cls, Function<Integer, ClassNode> reader) {
+		return isIdentifiedClass(interceptor.getClassIdentifier(), interceptor.getClassIdentification(), loader, cls, reader);
+	}
 
-		ClassIdentifier identifier = interceptor.getClassIdentifier();
+	private static boolean isIdentifiedClass(ClassIdentifier identifier, IdentificationMemo identification, ClassLoader loader, String cls, Function<Integer, ClassNode> reader) {
 		if (identifier.isStatic()) {
-			if (identifier.getData().contains(cls)) {
-				interceptor.setIdentifiedClass(cls);
-				return true;
-			}
-		} else {
-			if (identifier.isIdentifiedClass(reader.apply(
-					ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES),
-					ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES, reader)
-			) {
-				interceptor.setIdentifiedClass(cls);
-				return true;
-			}
+			return identifier.getData().contains(cls);
 		}
-		return false;
+
+		return identification.isIdentified(loader, cls, () -> identifier.isIdentifiedClass(reader.apply(
+				ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES),
+				ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES, reader));
 	}
 
 	/**
@@ -238,17 +208,13 @@ public final class BytecodeInstrumentation {
 		throw new RuntimeException(String.format("Internal element of class %s with id %s was not found", cls.getName(), id));
 	}
 
-	private boolean isIdentifiedElement(ElementAccessorData accessor, Object elementNode, String name, String descr) {
-		AnnotatedElementDescription identified = accessor.getIdentifiedDescription();
-		if (identified != null && identified.getName().equals(name) && identified.getDescriptor().equals(descr)) {
-			return true;
+	private boolean isIdentifiedElement(ElementAccessorData accessor, ClassLoader loader, String owner, Object elementNode, String name, String descr) {
+		BytecodeIdentifier identifier = (BytecodeIdentifier) accessor.getIdentifier();
+		if (identifier.isStatic()) {
+			return identifier.getData().contains(AnnotatedElementDescription.fieldDescription(name, descr));
 		}
 
-		BytecodeIdentifier identifier = (BytecodeIdentifier) accessor.getIdentifier();
-		AnnotatedElementDescription desc = AnnotatedElementDescription.fieldDescription(name, descr);
-		return identifier.isStatic()
-				? (identifier.getData().contains(desc) && accessor.setIdentifiedDescription(desc))
-				: (identifier.isIdentified(elementNode) && accessor.setIdentifiedDescription(desc));
+		return accessor.getIdentification().isIdentified(loader, owner + '.' + name + descr, () -> identifier.isIdentified(elementNode));
 	}
 
 	/**
@@ -260,22 +226,52 @@ public final class BytecodeInstrumentation {
 		this.accessors = accessors;
 	}
 
+	/**
+	 * Builds the dispatch index of the registered accessors. Must only
+	 * be called once no more accessors can be registered
+	 *
+	 * @return
+	 */
+	AccessorIndex indexAccessors() {
+		AccessorIndex index = AccessorIndex.build(this.accessors.getClassAccessors());
+		this.index = index;
+		return index;
+	}
+
+	/**
+	 * Returns the accessors and interceptors that may apply to the specified class
+	 *
+	 * @param cls The internal class name
+	 * @return
+	 */
+	private AccessorIndex.Candidates getCandidates(String cls) {
+		AccessorIndex index = this.index;
+		if (index != null) {
+			return index.getCandidates(cls);
+		}
+
+		return AccessorIndex.unindexed(this.accessors.getClassAccessors());
+	}
+
 	/**
 	 * Returns whether the specified class is accepted and has to be instrumented
 	 *
+	 * @param loader
 	 * @param cls
 	 * @return
 	 */
-	boolean acceptsClass(ClassNode cls, int flags, Function<Integer, ClassNode> reader) {
-		for (ClassAccessorData accessor : this.accessors.getClassAccessors()) {
-			if (accessor.getClassIdentifier() != null && isIdentifiedClass(accessor, cls.name, clsFlags -> clsFlags == flags ? cls : reader.apply(clsFlags))) {
+	boolean acceptsClass(ClassLoader loader, ClassNode cls, int flags, Function<Integer, ClassNode> reader) {
+		AccessorIndex.Candidates candidates = this.getCandidates(cls.name);
+
+		for (ClassAccessorData accessor : candidates.accessors) {
+			if (candidates.isIdentified(accessor.getClassIdentifier()) || isIdentifiedClass(accessor, loader, cls.name, clsFlags -> clsFlags == flags ? cls : reader.apply(clsFlags))) {
 				return true;
 			}
+		}
 
-			for (MethodInterceptorData interceptor : accessor.getMethodInterceptors()) {
-				if (interceptor.getClassIdentifier() != null && isIdentifiedClass(interceptor, cls.name, clsFlags -> clsFlags == flags ? cls : reader.apply(clsFlags))) {
-					return true;
-				}
+		for (MethodInterceptorData interceptor : candidates.interceptors) {
+			if (candidates.isIdentified(interceptor.getClassIdentifier()) || isIdentifiedClass(interceptor, loader, cls.name, clsFlags -> clsFlags == flags ? cls : reader.apply(clsFlags))) {
+				return true;
 			}
 		}
 
@@ -288,18 +284,28 @@ public final class BytecodeInstrumentation {
 	 *
 	 * @param clsNode
 	 * @param bootstrapper
+	 * @param modifiedMethods  Collects all existing methods that were modified
+	 * @param generatedClasses Collects the classes that were generated for the accessor by internal name
 	 * @return True if modified
 	 */
-	boolean instrumentAccessorClass(ClassNode clsNode, Bootstrapper bootstrapper) {
+	boolean instrumentAccessorClass(ClassNode clsNode, Bootstrapper bootstrapper, Set<MethodNode> modifiedMethods, Map<String, byte[]> generatedClasses) {
 		ClassAccessorData accessor = this.accessors.getAccessorByClassName(Type.getObjectType(clsNode.name).getClassName());
 
 		if (accessor != null) {
 			boolean modified = false;
 			for (MethodInterceptorData interceptor : accessor.getMethodInterceptors()) {
+				String contextClass = InterceptorContextGenerator.getContextClass(accessor, interceptor);
+				generatedClasses.put(contextClass, InterceptorContextGenerator.generate(contextClass, interceptor));
+
 				for (MethodNode method : clsNode.methods) {
 					if (interceptor.getInterceptorMethod().equals(method.name) && interceptor.getInterceptorMethodDesc().equals(method.desc)) {
 						Type[] params = Type.getArgumentTypes(method.desc);
 						if (params.length > 1) {
+							int contextIndex = 1;
+							for (int i = 0; i < interceptor.getContextParameter(); i++) {
+								contextIndex += params[i].getSize();
+							}
+
 							Map<AbstractInsnNode, InsnList> insertionPoints = new HashMap<>();
 							Iterator<AbstractInsnNode> insnIT = method.instructions.iterator();
 							while (insnIT.hasNext()) {
@@ -314,49 +320,24 @@ public final class BytecodeInstrumentation {
 
 									InsnList insertions = new InsnList();
 
+									//Store the local variables in the typed fields of the context
 									int stackIndex = 1;
-
-									LabelNode contextLocalsVarScopeStart = new LabelNode();
-									LabelNode contextLocalsVarScopeEnd = new LabelNode();
-
-									insertions.add(contextLocalsVarScopeStart);
-
-									LocalVariableNode contextLocalVarsNode = this.generateLocalVariable(Type.getDescriptor(Object[].class), null, contextLocalsVarScopeStart, contextLocalsVarScopeEnd, method);
-
-									Method contextLocalsGetter = getInternal(InterceptorContext.class, "get_local_variables", AnnotatedElementDescription.DEFAULT_METHOD_COLLECTOR);
-
-									for (int i = 0; i < params.length; i++) {
-										Type paramType = params[i];
-										if (i == interceptor.getContextParameter()) {
-											//Load and store contex local variables in contextLocalVarsNode
-											insertions.add(new VarInsnNode(Opcodes.ALOAD, stackIndex));
-											insertions.add(new TypeInsnNode(Opcodes.CHECKCAST, Type.getInternalName(MethodInterceptorData.InterceptorContext.class)));
-											insertions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodInterceptorData.InterceptorContext.class), contextLocalsGetter.getName(), Type.getMethodDescriptor(contextLocalsGetter), false));
-											insertions.add(new VarInsnNode(Opcodes.ASTORE, contextLocalVarsNode.index));
-											break;
-										}
-										stackIndex += paramType.getSize();
-									}
-
-									stackIndex = 1;
 									int localVarIndex = 0;
 									for (int i = 0; i < params.length; i++) {
 										Type paramType = params[i];
 
 										if (i != interceptor.getContextParameter()) {
-											//Load context local variables and push insertion index onto stack
-											insertions.add(new VarInsnNode(Opcodes.ALOAD, contextLocalVarsNode.index));
-											insertions.add(this.instrumentOptimizedIntegerPush(localVarIndex));
-
-											//Load local variable and autobox
-											insertions.add(new VarInsnNode(paramType.getOpcode(Opcodes.ILOAD), stackIndex));
-											if (paramType.getSort() != Type.OBJECT && paramType.getSort() != Type.ARRAY) {
-												//Primitive needs to be boxed
-												insertions.add(this.instrumentTypeBoxing(paramType));
+											//Local variables that are neither written nor read through the context don't need to be stored
+											if (!interceptor.isLocalVarWritten(localVarIndex) && !interceptor.isLocalVariablesUsed()) {
+												localVarIndex++;
+												stackIndex += paramType.getSize();
+												continue;
 											}
 
-											//Set value in array
-											insertions.add(new InsnNode(Opcodes.AASTORE));
+											insertions.add(new VarInsnNode(Opcodes.ALOAD, contextIndex));
+											insertions.add(new TypeInsnNode(Opcodes.CHECKCAST, contextClass));
+											insertions.add(new VarInsnNode(paramType.getOpcode(Opcodes.ILOAD), stackIndex));
+											insertions.add(new FieldInsnNode(Opcodes.PUTFIELD, contextClass, InterceptorContextGenerator.getLocalField(localVarIndex), paramType.getDescriptor()));
 
 											localVarIndex++;
 										}
@@ -364,14 +345,13 @@ public final class BytecodeInstrumentation {
 										stackIndex += paramType.getSize();
 									}
 
-									insertions.add(contextLocalsVarScopeEnd);
-
 									insertionPoints.put(node, insertions);
 								}
 							}
 
 							for (Entry<AbstractInsnNode, InsnList> insertion : insertionPoints.entrySet()) {
 								method.instructions.insertBefore(insertion.getKey(), insertion.getValue());
+								modifiedMethods.add(method);
 								modified = true;
 							}
 						}
@@ -391,15 +371,25 @@ public final class BytecodeInstrumentation {
 	 *
 	 * @param loader
 	 * @param clsNode
+	 * @param modifiedMethods Collects all existing methods that were modified
 	 */
-	void instrumentClass(ClassLoader loader, ClassNode clsNode, int flags, Function<Integer, ClassNode> reader) {
+	void instrumentClass(ClassLoader loader, ClassNode clsNode, int flags, Function<Integer, ClassNode> reader, Set<MethodNode> modifiedMethods) {
+		AccessorIndex.Candidates candidates = this.getCandidates(clsNode.name);
+
 		List<ClassAccessorData> classAccessors = new ArrayList<>();
-		for (ClassAccessorData accessor : this.accessors.getClassAccessors()) {
-			if (isIdentifiedClass(accessor, clsNode.name, clsFlags -> clsFlags == flags ? clsNode : reader.apply(clsFlags))) {
+		for (ClassAccessorData accessor : candidates.accessors) {
+			if (candidates.isIdentified(accessor.getClassIdentifier()) || isIdentifiedClass(accessor, loader, clsNode.name, clsFlags -> clsFlags == flags ? clsNode : reader.apply(clsFlags))) {
 				classAccessors.add(accessor);
 			}
 		}
 
+		List<MethodInterceptorData> classInterceptors = new ArrayList<>();
+		for (MethodInterceptorData interceptor : candidates.interceptors) {
+			if (candidates.isIdentified(interceptor.getClassIdentifier()) || isIdentifiedClass(interceptor, loader, clsNode.name, clsFlags -> clsFlags == flags ? clsNode : reader.apply(clsFlags))) {
+				classInterceptors.add(interceptor);
+			}
+		}
+
 		//Instrument class body
 		String[] interfaces = new String[classAccessors.size()];
 		int i = 0;
@@ -411,12 +401,27 @@ public final class BytecodeInstrumentation {
 		clsNode.visit(clsNode.version, clsNode.access, clsNode.name, clsNode.signature, clsNode.superName, interfaces);
 
 		//Instrument accessor and interceptor methods
+		InterceptorOutliner.Interceptions interceptions = new InterceptorOutliner.Interceptions();
+		MethodAnalysisCache analyses = new MethodAnalysisCache(clsNode.name);
+		MemberIndex members = new MemberIndex(clsNode);
 		for (ClassAccessorData classAccessor : classAccessors) {
-			this.instrumentFieldAccessors(loader, clsNode, classAccessor);
-			this.instrumentFieldGenerators(loader, clsNode, classAccessor);
-			this.instrumentMethodAccessors(loader, clsNode, classAccessor);
-			this.instrumentMethodInterceptors(loader, clsNode, classAccessor, flags, reader);
+			this.instrumentFieldAccessors(loader, clsNode, classAccessor, members);
+			this.instrumentFieldGenerators(loader, clsNode, classAccessor, members);
+			this.instrumentMethodAccessors(loader, clsNode, classAccessor, members);
+			this.instrumentMethodInterceptors(loader, clsNode, classAccessor, classInterceptors, modifiedMethods, interceptions, analyses, members);
 		}
+
+		//Keep the intercepted methods below the JIT size thresholds
+		this.outliner.outline(clsNode, interceptions, modifiedMethods);
+	}
+
+	/**
+	 * Returns the outliner that keeps intercepted methods below the JIT size thresholds
+	 *
+	 * @return
+	 */
+	InterceptorOutliner getOutliner() {
+		return this.outliner;
 	}
 
 	/**
@@ -425,10 +430,11 @@ public final class BytecodeInstrumentation {
 	 * @param loader
 	 * @param clsNode
 	 * @param classAccessor
+	 * @param members       The member index of the class
 	 */
-	private void instrumentFieldAccessors(ClassLoader loader, ClassNode clsNode, ClassAccessorData classAccessor) {
+	private void instrumentFieldAccessors(ClassLoader loader, ClassNode clsNode, ClassAccessorData classAccessor, MemberIndex members) {
 		for (ElementAccessorData<MethodNode, FieldIdentifier> fieldAccessor : classAccessor.getFieldAccessors()) {
-			this.instrumentFieldAccessor(loader, fieldAccessor, clsNode, classAccessor.getAccessorClass());
+			this.instrumentFieldAccessor(loader, fieldAccessor, clsNode, classAccessor.getAccessorClass(), members);
 		}
 	}
 
@@ -439,21 +445,20 @@ public final class BytecodeInstrumentation {
 	 * @param fieldAccessor
 	 * @param clsNode
 	 * @param accessorClass
+	 * @param members       The member index of the class
 	 */
-	private void instrumentFieldAccessor(ClassLoader loader, ElementAccessorData<MethodNode, FieldIdentifier> fieldAccessor, ClassNode clsNode, String accessorClass) {
+	private void instrumentFieldAccessor(ClassLoader loader, ElementAccessorData<MethodNode, FieldIdentifier> fieldAccessor, ClassNode clsNode, String accessorClass, MemberIndex members) {
 		MethodNode accessorMethod = fieldAccessor.getAccessorNode();
 		String accessorMethodDesc = accessorMethod.desc;
 		Type[] accessorParams = Type.getArgumentTypes(accessorMethodDesc);
 		Type accessorReturnType = Type.getReturnType(accessorMethodDesc);
-		for (MethodNode methodNode : clsNode.methods) {
-			if (methodNode.name.equals(accessorMethod.name) && methodNode.desc.equals(accessorMethodDesc)) {
-				throw new FieldAccessorTakenException(String.format("Method for field accessor %s#%s is already taken", accessorClass, accessorMethod.name + accessorMethodDesc), accessorClass, AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethod.desc));
-			}
+		if (members.getMethod(accessorMethod.name, accessorMethodDesc) != null) {
+			throw new FieldAccessorTakenException(String.format("Method for field accessor %s#%s is already taken", accessorClass, accessorMethod.name + accessorMethodDesc), accessorClass, AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethod.desc));
 		}
 
 		FieldNode targetField = null;
-		for (FieldNode fieldNode : clsNode.fields) {
-			if (isIdentifiedElement(fieldAccessor, fieldNode, fieldNode.name, fieldNode.desc)) {
+		for (FieldNode fieldNode : members.getFieldCandidates(fieldAccessor.getIdentifier())) {
+			if (isIdentifiedElement(fieldAccessor, loader, clsNode.name, fieldNode, fieldNode.name, fieldNode.desc)) {
 				if (targetField != null) {
 					throw new MultipleFieldsIdentifiedException(accessorClass, AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethodDesc), fieldAccessor.getIdentifierId(), fieldAccessor.getIdentifier());
 				}
@@ -493,10 +498,11 @@ public final class BytecodeInstrumentation {
 	 * @param loader
 	 * @param clsNode
 	 * @param classAccessor
+	 * @param members       The member index of the class
 	 */
-	private void instrumentFieldGenerators(ClassLoader loader, ClassNode clsNode, ClassAccessorData classAccessor) {
+	private void instrumentFieldGenerators(ClassLoader loader, ClassNode clsNode, ClassAccessorData classAccessor, MemberIndex members) {
 		for (ElementAccessorData<MethodNode, Type> fieldGenerator : classAccessor.getFieldGenerators()) {
-			this.instrumentFieldGenerator(loader, fieldGenerator, clsNode, classAccessor.getAccessorClass());
+			this.instrumentFieldGenerator(loader, fieldGenerator, clsNode, classAccessor.getAccessorClass(), members);
 		}
 	}
 
@@ -507,29 +513,26 @@ public final class BytecodeInstrumentation {
 	 * @param fieldGenerator
 	 * @param clsNode
 	 * @param accessorClass
+	 * @param members       The member index of the class
 	 */
-	private void instrumentFieldGenerator(ClassLoader loader, ElementAccessorData<MethodNode, Type> fieldGenerator, ClassNode clsNode, String accessorClass) {
+	private void instrumentFieldGenerator(ClassLoader loader, ElementAccessorData<MethodNode, Type> fieldGenerator, ClassNode clsNode, String accessorClass, MemberIndex members) {
 		MethodNode accessorMethod = fieldGenerator.getAccessorNode();
 		String accessorMethodDesc = accessorMethod.desc;
 		Type accessorReturnType = Type.getReturnType(accessorMethodDesc);
-		for (MethodNode methodNode : clsNode.methods) {
-			if (methodNode.name.equals(accessorMethod.name) && methodNode.desc.equals(accessorMethodDesc)) {
-				throw new FieldAccessorTakenException(String.format("Method for field generator %s#%s is already taken", accessorClass, accessorMethod.name + accessorMethod.desc), accessorClass, AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethod.desc));
-			}
+		if (members.getMethod(accessorMethod.name, accessorMethodDesc) != null) {
+			throw new FieldAccessorTakenException(String.format("Method for field generator %s#%s is already taken", accessorClass, accessorMethod.name + accessorMethod.desc), accessorClass, AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethod.desc));
 		}
 
 		Type fieldType = fieldGenerator.getIdentifier();
 		String fieldName = fieldGenerator.getIdentifierId();
 
 		boolean generate = true;
-		for (FieldNode field : clsNode.fields) {
-			if (field.name.equals(fieldName)) {
-				if (!this.isTypeInstanceof(loader, Type.getType(field.desc), fieldType)) {
-					throw new FieldGeneratorTakenException(String.format("Field %s for field generator %s#%s is already taken", fieldName, accessorClass, accessorMethod.name + accessorMethod.desc), accessorClass, AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethod.desc), fieldName);
-				}
-
-				generate = false;
+		for (FieldNode field : members.getFields(fieldName)) {
+			if (!this.isTypeInstanceof(loader, Type.getType(field.desc), fieldType)) {
+				throw new FieldGeneratorTakenException(String.format("Field %s for field generator %s#%s is already taken", fieldName, accessorClass, accessorMethod.name + accessorMethod.desc), accessorClass, AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethod.desc), fieldName);
 			}
+
+			generate = false;
 		}
 
 		String fieldDesc = fieldType.getDescriptor();
@@ -554,19 +557,18 @@ public final class BytecodeInstrumentation {
 	 * @param loader
 	 * @param clsNode
 	 * @param classAccessor
+	 * @param members       The member index of the class
 	 */
-	private void instrumentMethodAccessors(ClassLoader loader, ClassNode clsNode, ClassAccessorData classAccessor) {
+	private void instrumentMethodAccessors(ClassLoader loader, ClassNode clsNode, ClassAccessorData classAccessor, MemberIndex members) {
 		for (ElementAccessorData<MethodNode, MethodIdentifier> methodAccessor : classAccessor.getMethodAccessors()) {
 			MethodNode accessorMethod = methodAccessor.getAccessorNode();
 			MethodNode targetMethod = null;
-			for (MethodNode methodNode : clsNode.methods) {
-				if (methodNode.name.equals(accessorMethod.name)) {
-					throw new MethodAccessorTakenException(String.format("Method for method accessor %s#%s is already taken", classAccessor.getAccessorClass(), accessorMethod.name + accessorMethod.desc), classAccessor.getAccessorClass(), AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethod.desc));
-				}
+			if (members.hasMethod(accessorMethod.name)) {
+				throw new MethodAccessorTakenException(String.format("Method for method accessor %s#%s is already taken", classAccessor.getAccessorClass(), accessorMethod.name + accessorMethod.desc), classAccessor.getAccessorClass(), AnnotatedElementDescription.methodDescription(accessorMethod.name, accessorMethod.desc));
 			}
 
-			for (MethodNode methodNode : clsNode.methods) {
-				if (isIdentifiedElement(methodAccessor, methodNode, methodNode.name, methodNode.desc)) {
+			for (MethodNode methodNode : members.getMethodCandidates(methodAccessor.getIdentifier())) {
+				if (isIdentifiedElement(methodAccessor, loader, clsNode.name, methodNode, methodNode.name, methodNode.desc)) {
 					if (targetMethod != null) {
 						throw new MultipleMethodsIdentifiedException(classAccessor.getAccessorClass(), AnnotatedElementDescription.methodDescription(methodAccessor.getAccessorNode().name, accessorMethod.desc), methodAccessor.getIdentifierId(), methodAccessor.getIdentifier());
 					}
@@ -604,7 +606,7 @@ public final class BytecodeInstrumentation {
 	 * @param type Primitive symbol to box
 	 * @return
 	 */
-	private InsnList instrumentTypeBoxing(Type type) {
+	static InsnList instrumentTypeBoxing(Type type) {
 		InsnList lst = new InsnList();
 		switch (type.getDescriptor().charAt(0)) {
 			case 'I':
@@ -644,7 +646,7 @@ public final class BytecodeInstrumentation {
 	 * @param cast Whether a cast needs to be done
 	 * @return
 	 */
-	private InsnList instrumentTypeUnboxing(Type type, boolean cast) {
+	static InsnList instrumentTypeUnboxing(Type type, boolean cast) {
 		InsnList lst = new InsnList();
 		switch (type.getDescriptor().charAt(0)) {
 			case 'I':
@@ -725,7 +727,7 @@ public final class BytecodeInstrumentation {
 	 * @param val The value to push
 	 * @return
 	 */
-	private AbstractInsnNode instrumentOptimizedIntegerPush(int val) {
+	static AbstractInsnNode instrumentOptimizedIntegerPush(int val) {
 		if (val == -1) {
 			return new InsnNode(Opcodes.ICONST_M1);
 		} else if (val >= 0 && val <= 5) {
@@ -790,30 +792,30 @@ public final class BytecodeInstrumentation {
 	 * Instruments all interceptors
 	 *
 	 * @param loader
-	 * @param classAccessor
 	 * @param clsNode
+	 * @param classAccessor
+	 * @param identifiedInterceptors All interceptors that identified the class
+	 * @param modifiedMethods        Collects all existing methods that were modified
+	 * @param interceptions          Collects the interceptions for the {@link InterceptorOutliner}
+	 * @param analyses               The analyses of the methods of the class
+	 * @param members                The member index of the class
 	 */
-	private void instrumentMethodInterceptors(ClassLoader loader, ClassNode clsNode, ClassAccessorData classAccessor, int flags, Function<Integer, ClassNode> reader) {
+	private void instrumentMethodInterceptors(ClassLoader loader, ClassNode clsNode, ClassAccessorData classAccessor, List<MethodInterceptorData> identifiedInterceptors, Set<MethodNode> modifiedMethods, InterceptorOutliner.Interceptions interceptions, MethodAnalysisCache analyses, MemberIndex members) {
 		List<MethodInterceptorData> classInterceptors = new ArrayList<>();
-		for (MethodInterceptorData interceptor : classAccessor.getMethodInterceptors()) {
-			if (isIdentifiedClass(interceptor, clsNode.name, clsFlags -> {
-				if (clsFlags == flags) {
-					return clsNode;
-				}
-
-				return reader.apply(clsFlags);
-			})) {
+		for (MethodInterceptorData interceptor : identifiedInterceptors) {
+			if (interceptor.getAccessorClass().equals(classAccessor.getAccessorClass())) {
 				classInterceptors.add(interceptor);
 			}
 		}
 
 		Map<MethodInterceptorData, Object[]> interceptorInsertions = new HashMap<>();
 
-		//Find insertion nodes for the interceptors
+		//Find target methods for the interceptors
+		Map<MethodInterceptorData, MethodNode> targetMethods = new HashMap<>();
 		for (MethodInterceptorData interceptor : classInterceptors) {
 			MethodNode targetMethod = null;
-			for (MethodNode method : clsNode.methods) {
-				if (isIdentifiedMethod(interceptor, method)) {
+			for (MethodNode method : members.getMethodCandidates(interceptor.getMethodIdentifier())) {
+				if (isIdentifiedMethod(interceptor, loader, clsNode.name, method)) {
 					if (targetMethod != null) {
 						throw new MultipleMethodsIdentifiedException(interceptor.getAccessorClass(), AnnotatedElementDescription.methodDescription(interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc()), interceptor.getMethodIdentifierId(), interceptor.getMethodIdentifier());
 					}
@@ -825,7 +827,22 @@ public final class BytecodeInstrumentation {
 				throw new MethodNotFoundException(interceptor.getAccessorClass(), AnnotatedElementDescription.methodDescription(interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc()), interceptor.getMethodIdentifierId(), interceptor.getMethodIdentifier());
 			}
 
-			int instructionIndex = interceptor.getInstructionIdentifier().identify(targetMethod);
+			targetMethods.put(interceptor, targetMethod);
+
+			//Pattern identifiers of the same method are evaluated together in one pass
+			InstructionIdentification identification = analyses.getIdentification(targetMethod);
+			identification.add(interceptor.getInstructionIdentifier());
+			for (InstructionTypeIdentifier exitInstructionIdentifier : interceptor.getExitInstructionIdentifiers()) {
+				identification.add(exitInstructionIdentifier);
+			}
+		}
+
+		//Find insertion nodes for the interceptors
+		for (MethodInterceptorData interceptor : classInterceptors) {
+			MethodNode targetMethod = targetMethods.get(interceptor);
+			InstructionIdentification identification = analyses.getIdentification(targetMethod);
+
+			int instructionIndex = identification.identify(interceptor.getInstructionIdentifier());
 			if (instructionIndex == -1) {
 				throw new InstructionNotFoundException(interceptor.getAccessorClass(), AnnotatedElementDescription.methodDescription(interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc()), interceptor.getInstructionIdentifierId(), interceptor.getInstructionIdentifier());
 			} else if (instructionIndex < 0 || instructionIndex >= targetMethod.instructions.size()) {
@@ -834,7 +851,7 @@ public final class BytecodeInstrumentation {
 
 			AbstractInsnNode[] exitNodes = new AbstractInsnNode[interceptor.getExitInstructionIdentifiers().length];
 			for (int i = 0; i < interceptor.getExitInstructionIdentifiers().length; i++) {
-				int exitInstructionIndex = interceptor.getExitInstructionIdentifiers()[i].identify(targetMethod);
+				int exitInstructionIndex = identification.identify(interceptor.getExitInstructionIdentifiers()[i]);
 				if (exitInstructionIndex == -1) {
 					throw new ExitInstructionNotFoundException(clsNode.name, AnnotatedElementDescription.methodDescription(targetMethod.name, targetMethod.desc), interceptor.getExitInstructionIdentifierIds()[i], interceptor.getExitInstructionIdentifiers()[i]);
 				} else if (exitInstructionIndex < 0 || exitInstructionIndex >= targetMethod.instructions.size()) {
@@ -844,6 +861,11 @@ public final class BytecodeInstrumentation {
 				}
 
 				exitNodes[i] = targetMethod.instructions.get(exitInstructionIndex);
+
+				if (interceptor.isExitUsed()) {
+					//Exit targets are validated before any interceptor is inserted so that all interceptors and exits of the method share one analysis
+					this.checkExitTarget(clsNode, targetMethod, interceptor, i, exitInstructionIndex, analyses);
+				}
 			}
 
 			interceptorInsertions.put(interceptor, new Object[]{targetMethod, targetMethod.instructions.get(instructionIndex), exitNodes});
@@ -856,6 +878,8 @@ public final class BytecodeInstrumentation {
 			AbstractInsnNode insertionNode = (AbstractInsnNode) interceptorInsertion.getValue()[1];
 			AbstractInsnNode[] exitNodes = (AbstractInsnNode[]) interceptorInsertion.getValue()[2];
 
+			interceptions.addMethod(targetMethod);
+
 			InsnList insertions = new InsnList();
 
 			LabelNode interceptionScopeStart = new LabelNode();
@@ -905,147 +929,107 @@ public final class BytecodeInstrumentation {
 				contextVarSig = sigWriter.toString();
 			}
 
-			LocalVariableNode contextVarNode = this.generateLocalVariable(Type.getDescriptor(MethodInterceptorData.InterceptorContext.class), contextVarSig, interceptionScopeStart, interceptionScopeEnd, targetMethod);
-
-			insertions.add(interceptionScopeStart);
+			String contextClass = InterceptorContextGenerator.getContextClass(classAccessor, interceptor);
+			Type[] contextLocalTypes = InterceptorContextGenerator.getLocalTypes(interceptor);
 
-			insertions.add(new VarInsnNode(Opcodes.ALOAD, 0));
-
-			//Load local variables
-			int localVarParamIndex = 0;
-			for (int i = 0; i < interceptor.getLocalVars().size() + 1; i++) {
-				if (i == interceptor.getContextParameter()) {
-					//Create context parameter
-					insertions.add(new TypeInsnNode(Opcodes.NEW, Type.getInternalName(MethodInterceptorData.InterceptorContext.class)));
-					insertions.add(new InsnNode(Opcodes.DUP));
-					insertions.add(new InsnNode(Opcodes.DUP));
-					insertions.add(this.instrumentOptimizedIntegerPush(interceptor.getLocalVars().size()));
-					Constructor<?> interceptorCtr = getInternal(MethodInterceptorData.InterceptorContext.class, "ctor", Class::getDeclaredConstructors);
-					insertions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, Type.getInternalName(MethodInterceptorData.InterceptorContext.class), "<init>", Type.getConstructorDescriptor(interceptorCtr), false));
-					insertions.add(new VarInsnNode(Opcodes.ASTORE, contextVarNode.index));
-				} else {
-					LocalVarData localVarData = interceptor.getLocalVars().get(localVarParamIndex);
-					int identifiedLocalVarIndex = localVarData.getInstructionIdentifier().identify(targetMethod);
-					LocalVariableNode localVariable = null;
-					for (LocalVariableNode targetLocalVar : targetMethod.localVariables) {
-						if (targetLocalVar.index == identifiedLocalVarIndex) {
-							localVariable = targetLocalVar;
-						}
-					}
-
-					if (localVariable == null) {
-						throw new LocalVarInstructionNotFoundException(localVarData.getParameterIndex(), interceptor.getAccessorClass(), AnnotatedElementDescription.methodDescription(interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc()), localVarData.getInstructionIdentifierId(), localVarData.getInstructionIdentifier());
-					}
-
-					Type localVarType = Type.getType(localVariable.desc);
-					Type paramType = Type.getArgumentTypes(interceptor.getInterceptorMethodDesc())[localVarData.getParameterIndex()];
-					ClassAccessorData paramAsAccessor = this.accessors.getAccessorByClassName(paramType.getClassName());
-					if ((paramAsAccessor != null && !this.isTypeInstanceof(loader, localVarType, Type.getObjectType(paramAsAccessor.getAccessorClass().replace('.', '/')))) || (paramAsAccessor == null && !paramType.equals(localVarType))) {
-						throw new InvalidParameterTypeException(String.format("@LocalVar parameter %d of method %s#%s does not match. Current: %s, Expected: %s, or an accessor of that class. Local variable index: %d. Local variable identifier: %s", localVarData.getParameterIndex(), interceptor.getAccessorClass(), interceptor.getInterceptorMethod() + interceptor.getInterceptorMethodDesc(), paramType.getClassName(), Type.getType(localVariable.desc).getClassName(), localVariable.index, localVarData.getInstructionIdentifierId()), interceptor.getAccessorClass(), AnnotatedElementDescription.methodDescription(interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc()), localVarData.getParameterIndex(), paramType.getClassName(), Type.getType(localVariable.desc).getClassName());
+			//Resolve the local variables passed to the interceptor
+			LocalVariableNode[] targetLocalVars = new LocalVariableNode[interceptor.getLocalVars().size()];
+			for (int i = 0; i < targetLocalVars.length; i++) {
+				LocalVarData localVarData = interceptor.getLocalVars().get(i);
+				int identifiedLocalVarIndex = analyses.getIdentification(targetMethod).identify(localVarData.getInstructionIdentifier());
+				LocalVariableNode localVariable = null;
+				for (LocalVariableNode targetLocalVar : targetMethod.localVariables) {
+					if (targetLocalVar.index == identifiedLocalVarIndex) {
+						localVariable = targetLocalVar;
 					}
+				}
 
-					insertions.add(new VarInsnNode(paramType.getOpcode(Opcodes.ILOAD), localVariable.index));
-					localVarParamIndex++;
+				if (localVariable == null) {
+					throw new LocalVarInstructionNotFoundException(localVarData.getParameterIndex(), interceptor.getAccessorClass(), AnnotatedElementDescription.methodDescription(interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc()), localVarData.getInstructionIdentifierId(), localVarData.getInstructionIdentifier());
 				}
-			}
 
-			//Call interceptor method
-			insertions.add(new MethodInsnNode(Opcodes.INVOKEINTERFACE, interceptor.getAccessorClass().replace('.', '/'), interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc(), true));
+				Type localVarType = Type.getType(localVariable.desc);
+				Type paramType = Type.getArgumentTypes(interceptor.getInterceptorMethodDesc())[localVarData.getParameterIndex()];
+				ClassAccessorData paramAsAccessor = this.accessors.getAccessorByClassName(paramType.getClassName());
+				if ((paramAsAccessor != null && !this.isTypeInstanceof(loader, localVarType, Type.getObjectType(paramAsAccessor.getAccessorClass().replace('.', '/')))) || (paramAsAccessor == null && !paramType.equals(localVarType))) {
+					throw new InvalidParameterTypeException(String.format("@LocalVar parameter %d of method %s#%s does not match. Current: %s, Expected: %s, or an accessor of that class. Local variable index: %d. Local variable identifier: %s", localVarData.getParameterIndex(), interceptor.getAccessorClass(), interceptor.getInterceptorMethod() + interceptor.getInterceptorMethodDesc(), paramType.getClassName(), Type.getType(localVariable.desc).getClassName(), localVariable.index, localVarData.getInstructionIdentifierId()), interceptor.getAccessorClass(), AnnotatedElementDescription.methodDescription(interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc()), localVarData.getParameterIndex(), paramType.getClassName(), Type.getType(localVariable.desc).getClassName());
+				}
 
-			//Get interception return value and return with value if it is set
-			insertions.add(new VarInsnNode(Opcodes.ALOAD, contextVarNode.index));
-			Method isReturningMethod = getInternal(InterceptorContext.class, "is_returning", AnnotatedElementDescription.DEFAULT_METHOD_COLLECTOR);
-			insertions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodInterceptorData.InterceptorContext.class), isReturningMethod.getName(), Type.getMethodDescriptor(isReturningMethod), false));
-			LabelNode skipReturnTarget = new LabelNode();
-			insertions.add(new JumpInsnNode(Opcodes.IFEQ, skipReturnTarget));
-			insertions.add(new VarInsnNode(Opcodes.ALOAD, contextVarNode.index));
-			Method getReturnMethod = getInternal(InterceptorContext.class, "get_return", AnnotatedElementDescription.DEFAULT_METHOD_COLLECTOR);
-			insertions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodInterceptorData.InterceptorContext.class), getReturnMethod.getName(), Type.getMethodDescriptor(getReturnMethod), false));
-			Type returnType = Type.getReturnType(targetMethod.desc);
-			if (returnType.getSort() == Type.OBJECT) {
-				insertions.add(new TypeInsnNode(Opcodes.CHECKCAST, returnType.getDescriptor()));
-			} else if (returnType.getSort() != Type.ARRAY && returnType.getSort() != Type.VOID) {
-				//Unbox primitive
-				insertions.add(this.instrumentTypeUnboxing(returnType, true));
+				targetLocalVars[i] = localVariable;
 			}
-			insertions.add(new InsnNode(Type.getReturnType(targetMethod.desc).getOpcode(Opcodes.IRETURN)));
-			insertions.add(skipReturnTarget);
 
-			LabelNode contextLocalVarsScopeStart = new LabelNode();
-			LabelNode contextLocalVarsScopeEnd = new LabelNode();
+			insertions.add(interceptionScopeStart);
 
-			LocalVariableNode contextLocalVarsNode = this.generateLocalVariable(Type.getDescriptor(Object[].class), null, contextLocalVarsScopeStart, contextLocalVarsScopeEnd, targetMethod);
+			//Inlined interceptors keep the context state in local variables of the target method instead of a context object.
+			//The inlined body may use Java 8 instructions such as static interface calls
+			int[] targetLocalSlots = new int[targetLocalVars.length];
+			for (int i = 0; i < targetLocalVars.length; i++) {
+				targetLocalSlots[i] = targetLocalVars[i].index;
+			}
 
-			insertions.add(contextLocalVarsScopeStart);
+			InterceptorInliner inliner = null;
+			int contextVar = -1;
+			if (interceptor.getInlinedMethod() != null && (clsNode.version & 0xFFFF) >= Opcodes.V1_8) {
+				inliner = new InterceptorInliner(interceptor, targetMethod);
+				insertions.add(inliner.inline(targetMethod, targetLocalSlots));
+			} else {
+				contextVar = this.generateLocalVariable(Type.getObjectType(contextClass).getDescriptor(), contextVarSig, interceptionScopeStart, interceptionScopeEnd, targetMethod).index;
+
+				//Interceptors are linked through invokedynamic so that they can be disabled or swapped at runtime, see InterceptorLinker.
+				//Older class files can't contain invokedynamic and call the interceptor directly
+				boolean linkDynamically = (clsNode.version & 0xFFFF) >= Opcodes.V1_7;
+
+				InsnList call = instrumentInterceptorCall(interceptor, contextClass, linkDynamically, targetLocalSlots, contextVar);
+				interceptions.addSite(targetMethod, new InterceptorOutliner.Site(interceptor, contextClass, linkDynamically, targetLocalSlots, contextVar, call));
+				insertions.add(call);
+			}
 
-			//Load and store context local variables in contextLocalVarsNode
-			insertions.add(new VarInsnNode(Opcodes.ALOAD, contextVarNode.index));
-			Method contextLocalsGetter = getInternal(InterceptorContext.class, "get_local_variables", AnnotatedElementDescription.DEFAULT_METHOD_COLLECTOR);
-			insertions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodInterceptorData.InterceptorContext.class), contextLocalsGetter.getName(), Type.getMethodDescriptor(contextLocalsGetter), false));
-			insertions.add(new VarInsnNode(Opcodes.ASTORE, contextLocalVarsNode.index));
+			//The epilogue only contains the context operations the interceptor can reach, see MethodInterceptorData#isReturnUsed(),
+			//MethodInterceptorData#isExitUsed() and MethodInterceptorData#isLocalVarWritten(int)
 
-			//Store local variables
-			int contextLocalVarIndex = 0;
-			for (LocalVarData localVarData : interceptor.getLocalVars()) {
-				int localVarIndex = localVarData.getInstructionIdentifier().identify(targetMethod);
-				LocalVariableNode localVar = null;
-				for (LocalVariableNode targetLocalVar : targetMethod.localVariables) {
-					if (targetLocalVar.index == localVarIndex) {
-						localVar = targetLocalVar;
+			//Get interception return value and return with value if it is set
+			if (interceptor.isReturnUsed()) {
+				insertions.add(loadContextState(inliner, contextVar, contextClass, InterceptorContextGenerator.FIELD_RETURNING, "Z"));
+				LabelNode skipReturnTarget = new LabelNode();
+				insertions.add(new JumpInsnNode(Opcodes.IFEQ, skipReturnTarget));
+				Type returnType = Type.getReturnType(targetMethod.desc);
+				if (returnType.getSort() != Type.VOID) {
+					insertions.add(loadContextState(inliner, contextVar, contextClass, InterceptorContextGenerator.FIELD_RETURN, "Ljava/lang/Object;"));
+					if (returnType.getSort() == Type.OBJECT || returnType.getSort() == Type.ARRAY) {
+						insertions.add(new TypeInsnNode(Opcodes.CHECKCAST, returnType.getInternalName()));
+					} else {
+						//Unbox primitive
+						insertions.add(instrumentTypeUnboxing(returnType, true));
 					}
 				}
+				insertions.add(new InsnNode(returnType.getOpcode(Opcodes.IRETURN)));
+				insertions.add(skipReturnTarget);
+			}
 
-				if (localVar == null) {
-					throw new LocalVarInstructionNotFoundException(localVarData.getParameterIndex(), interceptor.getAccessorClass(), AnnotatedElementDescription.methodDescription(interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc()), localVarData.getInstructionIdentifierId(), localVarData.getInstructionIdentifier());
+			//Store local variables
+			for (int i = 0; i < targetLocalVars.length; i++) {
+				if (!interceptor.isLocalVarWritten(i)) {
+					continue;
 				}
 
-				Type localVarType = Type.getType(localVar.desc);
-				Type paramType = Type.getArgumentTypes(localVarData.getInterceptorMethodDesc())[localVarData.getParameterIndex()];
+				Type localVarType = Type.getType(targetLocalVars[i].desc);
+				Type fieldType = contextLocalTypes[i];
 
-				insertions.add(new VarInsnNode(Opcodes.ALOAD, contextLocalVarsNode.index));
-				insertions.add(this.instrumentOptimizedIntegerPush(contextLocalVarIndex));
-				insertions.add(new InsnNode(Opcodes.AALOAD));
-				if (localVarType.getSort() != Type.OBJECT && localVarType.getSort() != Type.ARRAY) {
-					//Unbox to primitive symbol
-					insertions.add(this.instrumentTypeUnboxing(localVarType, true));
+				insertions.add(loadContextState(inliner, contextVar, contextClass, InterceptorContextGenerator.getLocalField(i), fieldType.getDescriptor()));
+				if (!fieldType.equals(localVarType)) {
+					//Parameter is an accessor of the local variable type
+					insertions.add(new TypeInsnNode(Opcodes.CHECKCAST, localVarType.getInternalName()));
 				}
-				insertions.add(new TypeInsnNode(Opcodes.CHECKCAST, localVarType.getInternalName()));
-				insertions.add(new VarInsnNode(paramType.getOpcode(Opcodes.ISTORE), localVar.index));
-
-				contextLocalVarIndex++;
+				insertions.add(new VarInsnNode(localVarType.getOpcode(Opcodes.ISTORE), targetLocalVars[i].index));
 			}
 
-			insertions.add(contextLocalVarsScopeEnd);
-
-			if (exitNodes.length != 0) {
+			if (exitNodes.length != 0 && interceptor.isExitUsed()) {
 				//Find exit targets
 				LabelNode[] exitTargets = new LabelNode[exitNodes.length];
 				for (int i = 0; i < exitNodes.length; i++) {
 					AbstractInsnNode exitNode = exitNodes[i];
 					LabelNode exitTarget = new LabelNode();
 
-					int exitNodeIndex = targetMethod.instructions.indexOf(exitNode);
-
-					Analyzer<BasicValue> a = new Analyzer<>(new BasicInterpreter());
-					try {
-						Frame<BasicValue>[] frames = a.analyze(clsNode.name, targetMethod);
-						Frame<BasicValue> stackFrame = frames[exitNodeIndex];
-						if (stackFrame.getStackSize() > 0) {
-							StringBuilder stackStr = new StringBuilder();
-							stackStr.append("[");
-							for (int s = 0; s < stackFrame.getStackSize(); s++) {
-								stackStr.append(stackFrame.getStack(s).getType().getClassName());
-								if (s != stackFrame.getStackSize() - 1) {
-									stackStr.append(", ");
-								}
-							}
-							stackStr.append("]");
-							throw new InvalidExitTargetException(String.format("Cannot insert exit target of %s#%s[%s] at index %d. Stack must be empty. Current stack: %s", clsNode.name, targetMethod.name + targetMethod.desc, interceptorInsertion.getKey().getExitInstructionIdentifierIds()[i], exitNodeIndex, stackStr.toString()), exitNodeIndex, clsNode.name, AnnotatedElementDescription.methodDescription(targetMethod.name, targetMethod.desc), interceptorInsertion.getKey().getExitInstructionIdentifierIds()[i], interceptorInsertion.getKey().getExitInstructionIdentifiers()[i]);
-						}
-					} catch (AnalyzerException ex) {
-						throw new InvalidExitTargetException(String.format("Cannot insert exit target of %s#%s[%s] at index %d due to an unknown reason", clsNode.name, targetMethod.name + targetMethod.desc, interceptorInsertion.getKey().getExitInstructionIdentifierIds()[i], exitNodeIndex), ex, exitNodeIndex, clsNode.name, AnnotatedElementDescription.methodDescription(targetMethod.name, targetMethod.desc), interceptorInsertion.getKey().getExitInstructionIdentifierIds()[i], interceptorInsertion.getKey().getExitInstructionIdentifiers()[i]);
-					}
-
 					//Insert exit target
 					targetMethod.instructions.insertBefore(exitNode, exitTarget);
 
@@ -1053,13 +1037,9 @@ public final class BytecodeInstrumentation {
 				}
 
 				LabelNode skipExitLabel = new LabelNode();
-				Method isExitingMethod = getInternal(InterceptorContext.class, "is_exiting", AnnotatedElementDescription.DEFAULT_METHOD_COLLECTOR);
-				insertions.add(new VarInsnNode(Opcodes.ALOAD, contextVarNode.index));
-				insertions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodInterceptorData.InterceptorContext.class), isExitingMethod.getName(), Type.getMethodDescriptor(isExitingMethod), false));
+				insertions.add(loadContextState(inliner, contextVar, contextClass, InterceptorContextGenerator.FIELD_EXITING, "Z"));
 				insertions.add(new JumpInsnNode(Opcodes.IFEQ, skipExitLabel));
-				Method getExitMethod = getInternal(InterceptorContext.class, "get_exit", AnnotatedElementDescription.DEFAULT_METHOD_COLLECTOR);
-				insertions.add(new VarInsnNode(Opcodes.ALOAD, contextVarNode.index));
-				insertions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodInterceptorData.InterceptorContext.class), getExitMethod.getName(), Type.getMethodDescriptor(getExitMethod), false));
+				insertions.add(loadContextState(inliner, contextVar, contextClass, InterceptorContextGenerator.FIELD_EXIT, "I"));
 				LabelNode invalidExitLabel = new LabelNode();
 				LabelNode[] switchEntryLabels = new LabelNode[exitTargets.length];
 				for (int i = 0; i < exitTargets.length; i++) {
@@ -1070,8 +1050,7 @@ public final class BytecodeInstrumentation {
 				insertions.add(invalidExitLabel);
 				insertions.add(new TypeInsnNode(Opcodes.NEW, Type.getInternalName(InvalidInterceptionExitException.class)));
 				insertions.add(new InsnNode(Opcodes.DUP));
-				insertions.add(new VarInsnNode(Opcodes.ALOAD, contextVarNode.index));
-				insertions.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MethodInterceptorData.InterceptorContext.class), getExitMethod.getName(), Type.getMethodDescriptor(getExitMethod), false));
+				insertions.add(loadContextState(inliner, contextVar, contextClass, InterceptorContextGenerator.FIELD_EXIT, "I"));
 				Constructor<?> exceptionCtor = getInternal(InvalidInterceptionExitException.class, "ctor", Class::getDeclaredConstructors);
 				insertions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, Type.getInternalName(InvalidInterceptionExitException.class), "<init>", Type.getConstructorDescriptor(exceptionCtor), false));
 				insertions.add(new InsnNode(Opcodes.ATHROW));
@@ -1087,12 +1066,132 @@ public final class BytecodeInstrumentation {
 
 			//Insert instructions
 			targetMethod.instructions.insertBefore(insertionNode, insertions);
+			analyses.invalidate(targetMethod);
+			modifiedMethods.add(targetMethod);
+		}
+	}
+
+	/**
+	 * Checks that the stack is empty at the specified exit instruction, so that the interceptor can jump there
+	 *
+	 * @param clsNode       The class of the intercepted method
+	 * @param targetMethod  The intercepted method
+	 * @param interceptor   The interceptor
+	 * @param exit          The index of the exit instruction identifier
+	 * @param exitNodeIndex The index of the exit instruction
+	 * @param analyses      The analyses of the methods of the class
+	 */
+	private void checkExitTarget(ClassNode clsNode, MethodNode targetMethod, MethodInterceptorData interceptor, int exit, int exitNodeIndex, MethodAnalysisCache analyses) {
+		String exitId = interceptor.getExitInstructionIdentifierIds()[exit];
+		InstructionTypeIdentifier exitIdentifier = interceptor.getExitInstructionIdentifiers()[exit];
+		try {
+			int stackHeight = analyses.getStackHeight(targetMethod, exitNodeIndex);
+			if (stackHeight == -1) {
+				throw new InvalidExitTargetException(String.format("Cannot insert exit target of %s#%s[%s] at index %d. Instruction is unreachable", clsNode.name, targetMethod.name + targetMethod.desc, exitId, exitNodeIndex), exitNodeIndex, clsNode.name, AnnotatedElementDescription.methodDescription(targetMethod.name, targetMethod.desc), exitId, exitIdentifier);
+			} else if (stackHeight > 0) {
+				//Only the error message needs the types on the stack
+				Frame<BasicValue> stackFrame = analyses.getFrame(targetMethod, exitNodeIndex);
+				StringBuilder stackStr = new StringBuilder();
+				stackStr.append("[");
+				for (int s = 0; s < stackFrame.getStackSize(); s++) {
+					stackStr.append(stackFrame.getStack(s).getType().getClassName());
+					if (s != stackFrame.getStackSize() - 1) {
+						stackStr.append(", ");
+					}
+				}
+				stackStr.append("]");
+				throw new InvalidExitTargetException(String.format("Cannot insert exit target of %s#%s[%s] at index %d. Stack must be empty. Current stack: %s", clsNode.name, targetMethod.name + targetMethod.desc, exitId, exitNodeIndex, stackStr.toString()), exitNodeIndex, clsNode.name, AnnotatedElementDescription.methodDescription(targetMethod.name, targetMethod.desc), exitId, exitIdentifier);
+			}
+		} catch (AnalyzerException ex) {
+			throw new InvalidExitTargetException(String.format("Cannot insert exit target of %s#%s[%s] at index %d due to an unknown reason", clsNode.name, targetMethod.name + targetMethod.desc, exitId, exitNodeIndex), ex, exitNodeIndex, clsNode.name, AnnotatedElementDescription.methodDescription(targetMethod.name, targetMethod.desc), exitId, exitIdentifier);
+		}
+	}
+
+	/**
+	 * Returns the instructions that create the context of an interceptor,
+	 * pass the local variables and call the interceptor
+	 *
+	 * @param interceptor     The interceptor
+	 * @param contextClass    The internal name of the generated context class
+	 * @param linkDynamically Whether the interceptor is called through invokedynamic, see {@link InterceptorLinker}
+	 * @param localSlots      The local variable indices of the local variables passed to the interceptor
+	 * @param contextVar      The local variable index the context is stored in
+	 * @return
+	 */
+	static InsnList instrumentInterceptorCall(MethodInterceptorData interceptor, String contextClass, boolean linkDynamically, int[] localSlots, int contextVar) {
+		Type[] localTypes = InterceptorContextGenerator.getLocalTypes(interceptor);
+
+		InsnList insns = new InsnList();
+
+		//Create context
+		insns.add(new TypeInsnNode(Opcodes.NEW, contextClass));
+		insns.add(new InsnNode(Opcodes.DUP));
+		insns.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, contextClass, "<init>", "()V", false));
+		insns.add(new VarInsnNode(Opcodes.ASTORE, contextVar));
+
+		InsnList arguments = new InsnList();
+		arguments.add(new VarInsnNode(Opcodes.ALOAD, 0));
+
+		//Load local variables
+		int localVarParamIndex = 0;
+		for (int i = 0; i < localTypes.length + 1; i++) {
+			if (i == interceptor.getContextParameter()) {
+				arguments.add(new VarInsnNode(Opcodes.ALOAD, contextVar));
+			} else {
+				Type paramType = localTypes[localVarParamIndex];
+
+				if (linkDynamically && interceptor.isLocalVarWritten(localVarParamIndex)) {
+					//The local variables are stored back from the context, so they must keep their values if the interceptor is disabled
+					insns.add(new VarInsnNode(Opcodes.ALOAD, contextVar));
+					insns.add(new VarInsnNode(paramType.getOpcode(Opcodes.ILOAD), localSlots[localVarParamIndex]));
+					insns.add(new FieldInsnNode(Opcodes.PUTFIELD, contextClass, InterceptorContextGenerator.getLocalField(localVarParamIndex), paramType.getDescriptor()));
+				}
+
+				arguments.add(new VarInsnNode(paramType.getOpcode(Opcodes.ILOAD), localSlots[localVarParamIndex]));
+				localVarParamIndex++;
+			}
 		}
+
+		insns.add(arguments);
+
+		//Call interceptor method
+		String accessorInternalName = interceptor.getAccessorClass().replace('.', '/');
+		if (linkDynamically) {
+			String siteDesc = "(" + Type.getObjectType(accessorInternalName).getDescriptor() + interceptor.getInterceptorMethodDesc().substring(1);
+			insns.add(new InvokeDynamicInsnNode(interceptor.getInterceptorMethod(), siteDesc, INTERCEPTOR_LINKER_BOOTSTRAP, interceptor.getId()));
+		} else {
+			insns.add(new MethodInsnNode(Opcodes.INVOKEINTERFACE, accessorInternalName, interceptor.getInterceptorMethod(), interceptor.getInterceptorMethodDesc(), true));
+		}
+
+		return insns;
+	}
+
+	/**
+	 * Returns the instructions that load the specified state of an interceptor context,
+	 * either from the context object or from the local variables of an inlined interceptor
+	 *
+	 * @param inliner      The inliner of the interceptor, or null if the interceptor is called
+	 * @param contextVar   The local variable index of the context object
+	 * @param contextClass The internal name of the generated context class
+	 * @param field        The field of the state in the generated context class
+	 * @param desc         The descriptor of the field
+	 * @return
+	 */
+	private static InsnList loadContextState(InterceptorInliner inliner, int contextVar, String contextClass, String field, String desc) {
+		InsnList insns = new InsnList();
+		if (inliner != null) {
+			insns.add(inliner.load(field, desc));
+		} else {
+			insns.add(new VarInsnNode(Opcodes.ALOAD, contextVar));
+			insns.add(new FieldInsnNode(Opcodes.GETFIELD, contextClass, field, desc));
+		}
+		return insns;
 	}
 
 	/**
 	 * Generates and adds a local variable to the method.
-	 * Uses a unique index and a unique name provided by the name generator.
+	 * Uses a unique name provided by the name generator and the next free slot behind {@link MethodNode#maxLocals},
+	 * which is increased accordingly. Inlined interceptors reserve their slots the same way, see {@link InterceptorInliner}
 	 *
 	 * @param desc       Descriptor of the local variable
 	 * @param sig        Signature of the local variable
@@ -1110,17 +1209,10 @@ public final class BytecodeInstrumentation {
 		String contextVarName = getUniqueName(methodLocalVarNames);
 		methodLocalVarNames.add(contextVarName);
 
-		int contextVarIndex = 1; //0 is always 'this'
-		loop:
-		while (true) {
-			for (LocalVariableNode localVar : owner.localVariables) {
-				if (localVar.index == contextVarIndex) {
-					contextVarIndex++;
-					continue loop;
-				}
-			}
-			break;
-		}
+		//Gaps in the local variable table are not necessarily free slots, e.g. without debug information
+		//or for the second slot of long and double variables
+		int contextVarIndex = owner.maxLocals;
+		owner.maxLocals += Type.getType(desc).getSize();
 
 		LocalVariableNode variable = new LocalVariableNode(contextVarName, desc, sig, scopeStart, scopeEnd, contextVarIndex);
 		owner.localVariables.add(variable);
@@ -1220,7 +1312,7 @@ public final class BytecodeInstrumentation {
 				return relation.traverseHierarchy(type.getInternalName(), (cls, itf, clsNode, clsFlags) -> {
 					if (accessorInstance != null) {
 						//Check if accessor is an accessor of this (super-)class/interface
-						return isIdentifiedClass(accessorInstance, cls, flags -> (clsNode != null && flags == clsFlags)
+						return isIdentifiedClass(accessorInstance, loader, cls, flags -> (clsNode != null && flags == clsFlags)
 												? clsNode
 												: this.locators.getClass(loader, cls, flags));
 					}
@@ -1233,7 +1325,7 @@ public final class BytecodeInstrumentation {
 			}
 
 			//If resolver fails, try to directly check if otherType is an accessor of symbol
-			if (accessorInstance != null && isIdentifiedClass(accessorInstance, clsName, flags -> this.locators.getClass(loader, clsName, flags))) {
+			if (accessorInstance != null && isIdentifiedClass(accessorInstance, loader, clsName, flags -> this.locators.getClass(loader, clsName, flags))) {
 				return true;
 			}
 
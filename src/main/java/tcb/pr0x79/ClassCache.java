@@ -0,0 +1,454 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.MethodNode;
+import tcb.pr0x79.data.ClassAccessorData;
+import tcb.pr0x79.data.ElementAccessorData;
+import tcb.pr0x79.data.LocalVarData;
+import tcb.pr0x79.data.MethodInterceptorData;
+import tcb.pr0x79.mapping.identification.AnnotatedElementDescription;
+import tcb.pr0x79.mapping.identification.BytecodeIdentifier;
+import tcb.pr0x79.mapping.identification.pattern.SequenceInstructionIdentifier;
+import tcb.pr0x79.mapping.identification.type.InstructionPattern;
+import tcb.pr0x79.mapping.identification.type.InstructionTypeIdentifier;
+import tcb.pr0x79.mapping.identification.type.PatternInstructionIdentifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent, content-addressed cache of transformed class bytes.
+ * The key of an entry is a hash of the original class bytes, the headers of its supertypes and a fingerprint of
+ * pr0x79, the registered accessors and their identifiers. Each entry is stored in its own
+ * file which is written to a temporary file first and then atomically moved into place,
+ * so multiple JVMs can share the same directory without any locking.
+ * <p>
+ * An entry with no bytes marks a class that was not modified by the transformation
+ */
+final class ClassCache {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final String ENTRY_SUFFIX = ".class";
+	private static final String PACKAGE_DIRECTORY = "tcb/pr0x79/";
+
+	private final Path directory;
+	private final String fingerprint;
+
+	private ClassCache(Path directory, String fingerprint) {
+		this.directory = directory;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Maps the hashes of the classes that are visible to pr0x79 to the hashes of their original class bytes,
+	 * e.g. of classes that were woven by the {@link OfflineWeaver}. See {@link OfflineWeaver#hash(byte[])}
+	 */
+	@FunctionalInterface
+	interface ClassHashes {
+		/**
+		 * Returns the hash of the original class bytes
+		 *
+		 * @param internalName The internal name of the class
+		 * @param hash         The hash of the class bytes that are visible to the class loader of pr0x79, or null if the class is not visible
+		 * @return The hash of the original class bytes or null if the class could not be found or has no original bytes
+		 */
+		String get(String internalName, String hash);
+	}
+
+	/**
+	 * Opens the cache in the specified directory
+	 *
+	 * @param directory   The cache directory, created if it does not exist yet
+	 * @param fingerprint The fingerprint of the instrumentation, see {@link #getFingerprint(List, Collection, ClassHashes)}
+	 * @return
+	 * @throws IOException
+	 */
+	static ClassCache open(Path directory, String fingerprint) throws IOException {
+		Files.createDirectories(directory);
+		return new ClassCache(directory, fingerprint);
+	}
+
+	/**
+	 * Returns the fingerprint of pr0x79, the registered accessors and their identifiers.
+	 * Classes that were transformed with a different fingerprint must be transformed again
+	 *
+	 * @param fingerprints Additional fingerprints, e.g. the contents of the mapping files
+	 * @param accessors    The registered accessors
+	 * @param hashes       Returns the hashes of the original pr0x79 and accessor classes
+	 * @return
+	 * @throws IOException
+	 */
+	static String getFingerprint(List<String> fingerprints, Collection<ClassAccessorData> accessors, ClassHashes hashes) throws IOException {
+		MessageDigest digest = newDigest();
+		update(digest, getVersion(hashes));
+		for (String fingerprint : fingerprints) {
+			update(digest, fingerprint);
+		}
+
+		//Hashes of the identifier classes, many identifiers share their class
+		Map<Class<?>, String> identifierHashes = new HashMap<>();
+
+		List<ClassAccessorData> sortedAccessors = new ArrayList<>(accessors);
+		sortedAccessors.sort(Comparator.comparing(ClassAccessorData::getAccessorClass));
+		for (ClassAccessorData accessor : sortedAccessors) {
+			update(digest, accessor.getAccessorClass());
+			String accessorName = accessor.getAccessorClass().replace('.', '/');
+			String accessorHash = hashes.get(accessorName, hashClass(accessorName));
+			if (accessorHash == null) {
+				throw new IOException(String.format("Class %s could not be read", accessorName));
+			}
+			update(digest, accessorHash);
+
+			update(digest, accessor.getIdentifierId());
+			updateIdentifier(digest, accessor.getClassIdentifier(), hashes, identifierHashes);
+			for (ElementAccessorData<MethodNode, ?> element : accessor.getMethodAccessors()) {
+				update(digest, element.getIdentifierId());
+				updateIdentifier(digest, element.getIdentifier(), hashes, identifierHashes);
+			}
+			for (ElementAccessorData<MethodNode, ?> element : accessor.getFieldAccessors()) {
+				update(digest, element.getIdentifierId());
+				updateIdentifier(digest, element.getIdentifier(), hashes, identifierHashes);
+			}
+			for (ElementAccessorData<MethodNode, ?> element : accessor.getFieldGenerators()) {
+				update(digest, element.getIdentifierId());
+				update(digest, String.valueOf(element.getIdentifier()));
+			}
+			for (MethodInterceptorData interceptor : accessor.getMethodInterceptors()) {
+				update(digest, interceptor.getClassIdentifierId());
+				updateIdentifier(digest, interceptor.getClassIdentifier(), hashes, identifierHashes);
+				update(digest, interceptor.getMethodIdentifierId());
+				updateIdentifier(digest, interceptor.getMethodIdentifier(), hashes, identifierHashes);
+				update(digest, interceptor.getInstructionIdentifierId());
+				updateIdentifier(digest, interceptor.getInstructionIdentifier(), hashes, identifierHashes);
+				for (int i = 0; i < interceptor.getExitInstructionIdentifiers().length; i++) {
+					update(digest, interceptor.getExitInstructionIdentifierIds()[i]);
+					updateIdentifier(digest, interceptor.getExitInstructionIdentifiers()[i], hashes, identifierHashes);
+				}
+				for (LocalVarData localVar : interceptor.getLocalVars()) {
+					update(digest, localVar.getInstructionIdentifierId());
+					updateIdentifier(digest, localVar.getInstructionIdentifier(), hashes, identifierHashes);
+				}
+			}
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns the hash of the class bytes of the specified class as they are
+	 * visible to the class loader of pr0x79
+	 *
+	 * @param internalName The internal name of the class
+	 * @return The hash or null if the class is not visible
+	 * @throws IOException
+	 */
+	private static String hashClass(String internalName) throws IOException {
+		ClassLoader loader = ClassCache.class.getClassLoader();
+		String resource = internalName + ".class";
+		try (InputStream stream = loader != null ? loader.getResourceAsStream(resource) : ClassLoader.getSystemResourceAsStream(resource)) {
+			return stream != null ? OfflineWeaver.hash(readFully(stream)) : null;
+		}
+	}
+
+	/**
+	 * Returns the cache key of a class. Besides the class bytes the key contains the headers of all supertypes
+	 * of the class, so the class is transformed again if one of its supertypes changes
+	 *
+	 * @param className The internal name of the class, may be null
+	 * @param bytes     The original class bytes
+	 * @param reader    The reader of the original class bytes
+	 * @param hierarchy The class hierarchy the supertypes are resolved from
+	 * @param loader    The class loader that is loading the class
+	 * @return
+	 */
+	String getKey(String className, byte[] bytes, ClassReader reader, ClassHierarchy hierarchy, ClassLoader loader) {
+		MessageDigest digest = newDigest();
+		update(digest, this.fingerprint);
+		update(digest, String.valueOf(className));
+		digest.update(bytes);
+
+		Deque<String> supertypes = new ArrayDeque<>();
+		if (reader.getSuperName() != null) {
+			supertypes.add(reader.getSuperName());
+		}
+		supertypes.addAll(Arrays.asList(reader.getInterfaces()));
+
+		Set<String> visited = new HashSet<>();
+		while (!supertypes.isEmpty()) {
+			String supertype = supertypes.poll();
+			if (!visited.add(supertype)) {
+				continue;
+			}
+
+			ClassHierarchy.ClassData cls = hierarchy.getClass(loader, supertype, null);
+			update(digest, supertype);
+			if (cls == null) {
+				update(digest, "missing");
+				continue;
+			}
+			update(digest, String.valueOf(cls.superclass));
+			update(digest, String.valueOf(cls.access));
+			for (String itf : cls.interfaces) {
+				update(digest, itf);
+			}
+
+			if (cls.superclass != null) {
+				supertypes.add(cls.superclass);
+			}
+			supertypes.addAll(cls.interfaces);
+		}
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns the cached transformed class bytes, an empty array if the class
+	 * was not modified or null if the class is not cached
+	 *
+	 * @param key The cache key
+	 * @return
+	 */
+	byte[] get(String key) {
+		try {
+			return Files.readAllBytes(this.getEntry(key));
+		} catch (IOException ignored) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the transformed class bytes. Failures are ignored
+	 * since the class can always be transformed again
+	 *
+	 * @param key   The cache key
+	 * @param bytes The transformed class bytes, or an empty array if the class was not modified
+	 */
+	void put(String key, byte[] bytes) {
+		Path entry = this.getEntry(key);
+		if (Files.exists(entry)) {
+			return;
+		}
+
+		Path temp = null;
+		try {
+			Files.createDirectories(entry.getParent());
+			temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+			Files.write(temp, bytes);
+			Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ignored) {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException ignored2) {
+				}
+			}
+		}
+	}
+
+	private Path getEntry(String key) {
+		return this.directory.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+	}
+
+	/**
+	 * Returns the version of pr0x79. If the manifest has no version, e.g. for
+	 * development builds, the hash of all pr0x79 classes of the code source is used instead
+	 *
+	 * @param hashes Returns the hashes of the original classes
+	 * @return
+	 * @throws IOException
+	 */
+	private static String getVersion(ClassHashes hashes) throws IOException {
+		String version = ClassCache.class.getPackage() != null ? ClassCache.class.getPackage().getImplementationVersion() : null;
+		if (version != null) {
+			return version;
+		}
+
+		CodeSource source = ClassCache.class.getProtectionDomain().getCodeSource();
+		if (source == null || source.getLocation() == null) {
+			throw new IOException("The code source of pr0x79 could not be located");
+		}
+
+		Path location;
+		try {
+			location = Paths.get(source.getLocation().toURI());
+		} catch (URISyntaxException | IllegalArgumentException ex) {
+			throw new IOException(String.format("The code source %s of pr0x79 is not a file", source.getLocation()), ex);
+		}
+
+		//Sorted by name so that the hash doesn't depend on the order of the jar entries or the file system
+		SortedMap<String, byte[]> classes = new TreeMap<>();
+		if (Files.isDirectory(location)) {
+			Path root = location.resolve(PACKAGE_DIRECTORY);
+			if (Files.isDirectory(root)) {
+				List<Path> files;
+				try (Stream<Path> stream = Files.walk(root)) {
+					files = stream.filter(file -> file.toString().endsWith(ENTRY_SUFFIX)).collect(Collectors.toList());
+				}
+				for (Path file : files) {
+					classes.put(location.relativize(file).toString().replace('\\', '/'), Files.readAllBytes(file));
+				}
+			}
+		} else {
+			try (JarFile jar = new JarFile(location.toFile())) {
+				Enumeration<JarEntry> entries = jar.entries();
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+					if (entry.getName().startsWith(PACKAGE_DIRECTORY) && entry.getName().endsWith(ENTRY_SUFFIX)) {
+						try (InputStream stream = jar.getInputStream(entry)) {
+							classes.put(entry.getName(), readFully(stream));
+						}
+					}
+				}
+			}
+		}
+
+		if (classes.isEmpty()) {
+			throw new IOException(String.format("No pr0x79 classes were found in the code source %s", location));
+		}
+
+		MessageDigest digest = newDigest();
+		for (Map.Entry<String, byte[]> cls : classes.entrySet()) {
+			String name = cls.getKey().substring(0, cls.getKey().length() - ENTRY_SUFFIX.length());
+			String hash = hashes.get(name, OfflineWeaver.hash(cls.getValue()));
+			//Classes generated by the OfflineWeaver are not part of pr0x79
+			if (hash != null) {
+				update(digest, name);
+				update(digest, hash);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Returns the hash of the original class bytes of the specified identifier class. The code of lambda
+	 * classes is contained in the class that declares them
+	 *
+	 * @param cls    The class
+	 * @param hashes Returns the hashes of the original classes
+	 * @return The hash or null if the class bytes could not be found
+	 * @throws IOException
+	 */
+	private static String hashClass(Class<?> cls, ClassHashes hashes) throws IOException {
+		String internalName = cls.getName().replace('.', '/');
+		int lambda = internalName.indexOf("$$Lambda$");
+		if (lambda >= 0) {
+			internalName = internalName.substring(0, lambda);
+		}
+
+		ClassLoader loader = cls.getClassLoader();
+		String resource = internalName + ".class";
+		try (InputStream stream = loader != null ? loader.getResourceAsStream(resource) : ClassLoader.getSystemResourceAsStream(resource)) {
+			return hashes.get(internalName, stream != null ? OfflineWeaver.hash(readFully(stream)) : null);
+		}
+	}
+
+	private static byte[] readFully(InputStream stream) throws IOException {
+		byte[] buffer = new byte[4096];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int read;
+		while ((read = stream.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Adds an identifier to the fingerprint. Static identifiers contribute their data and
+	 * pattern instruction identifiers their patterns. The logic of dynamic identifiers is part of their implementation,
+	 * so they contribute the class bytes of their implementation class and its superclasses except for the JDK classes.
+	 * Their mapping sources are added through {@link tcb.pr0x79.mapping.MapperRegistry#registerMappingSource(String, String)}
+	 *
+	 * @param digest
+	 * @param identifier
+	 * @param hashes           Returns the hashes of the original identifier classes
+	 * @param identifierHashes The hashes of the identifier classes that were already read
+	 * @throws IOException
+	 */
+	private static void updateIdentifier(MessageDigest digest, Object identifier, ClassHashes hashes, Map<Class<?>, String> identifierHashes) throws IOException {
+		if (identifier == null) {
+			update(digest, "null");
+			return;
+		}
+
+		update(digest, identifier.getClass().getName());
+
+		boolean isStatic = identifier instanceof BytecodeIdentifier && ((BytecodeIdentifier<?, ?>) identifier).isStatic();
+		if (!isStatic) {
+			for (Class<?> cls = identifier.getClass(); cls != null && cls.getClassLoader() != null; cls = cls.getSuperclass()) {
+				String hash = identifierHashes.get(cls);
+				if (hash == null) {
+					hash = String.valueOf(hashClass(cls, hashes));
+					identifierHashes.put(cls, hash);
+				}
+				update(digest, hash);
+			}
+		}
+
+		if (isStatic) {
+			List<String> data = new ArrayList<>();
+			for (Object element : ((BytecodeIdentifier<?, ?>) identifier).getData()) {
+				if (element instanceof AnnotatedElementDescription) {
+					data.add(((AnnotatedElementDescription<?>) element).getName() + ((AnnotatedElementDescription<?>) element).getDescriptor());
+				} else {
+					data.add(String.valueOf(element));
+				}
+			}
+			Collections.sort(data);
+			for (String element : data) {
+				update(digest, element);
+			}
+		} else if (identifier instanceof InstructionTypeIdentifier) {
+			update(digest, ((InstructionTypeIdentifier) identifier).getType().name());
+
+			if (identifier instanceof SequenceInstructionIdentifier) {
+				SequenceInstructionIdentifier sequence = (SequenceInstructionIdentifier) identifier;
+				update(digest, sequence.getAutomaton().getPattern(sequence.getPattern()));
+			} else if (identifier instanceof PatternInstructionIdentifier) {
+				PatternInstructionIdentifier pattern = (PatternInstructionIdentifier) identifier;
+				update(digest, String.valueOf(pattern.isLastMatch()));
+				update(digest, String.valueOf(pattern.getOffset()));
+				for (InstructionPattern element : pattern.getPatterns()) {
+					update(digest, element.toString());
+				}
+			}
+		}
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+		digest.update((byte) (bytes.length >>> 24));
+		digest.update((byte) (bytes.length >>> 16));
+		digest.update((byte) (bytes.length >>> 8));
+		digest.update((byte) bytes.length);
+		digest.update(bytes);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,141 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The header and class attributes of a class file that are stored in the {@link ClassHierarchy}.
+ * The header is read directly from the class file bytes of a {@link ClassReader}, without visiting the class.
+ * Fields and methods are skipped by their length, so no member names, descriptors or annotations are read.
+ * The generic signature is not read, it is resolved on demand, see {@link ClassHierarchy#getSignature(ClassLoader, String)}
+ */
+final class ClassFileHeader {
+	private static final String[] NO_INNER_CLASSES = new String[0];
+	//The buffer is as long as the longest string of the class file, which is often larger than the header itself
+	private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[256]);
+
+	final String name;
+	final String superName;
+	final List<String> interfaces;
+	final String outerClass;
+	final int access;
+	//Pairs of inner class names and the names of their outer classes, only contains member classes
+	final String[] innerClasses;
+
+	private ClassFileHeader(String name, String superName, List<String> interfaces, String outerClass, int access, String[] innerClasses) {
+		this.name = name;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.outerClass = outerClass;
+		this.access = access;
+		this.innerClasses = innerClasses;
+	}
+
+	/**
+	 * Reads the header of the class of the specified reader. The access flags include the
+	 * {@link Opcodes#ACC_SYNTHETIC} and {@link Opcodes#ACC_DEPRECATED} attributes like {@link ClassReader#accept(org.objectweb.asm.ClassVisitor, int)}
+	 *
+	 * @param reader The class reader
+	 * @return
+	 */
+	static ClassFileHeader read(ClassReader reader) {
+		char[] buffer = BUFFER.get();
+		if (buffer.length < reader.getMaxStringLength()) {
+			BUFFER.set(buffer = new char[reader.getMaxStringLength()]);
+		}
+
+		int offset = reader.header;
+		int access = reader.readUnsignedShort(offset);
+		String name = reader.readClass(offset + 2, buffer);
+		String superName = reader.readClass(offset + 4, buffer);
+
+		int interfaceCount = reader.readUnsignedShort(offset + 6);
+		List<String> interfaces;
+		if (interfaceCount == 0) {
+			interfaces = Collections.emptyList();
+		} else {
+			String[] names = new String[interfaceCount];
+			for (int i = 0; i < interfaceCount; i++) {
+				names[i] = reader.readClass(offset + 8 + i * 2, buffer);
+			}
+			interfaces = Arrays.asList(names);
+		}
+		offset += 8 + interfaceCount * 2;
+
+		//Fields and methods: access, name, descriptor, attributes
+		for (int table = 0; table < 2; table++) {
+			int memberCount = reader.readUnsignedShort(offset);
+			offset += 2;
+			for (int i = 0; i < memberCount; i++) {
+				offset = skipAttributes(reader, offset + 6);
+			}
+		}
+
+		String outerClass = null;
+		String[] innerClasses = NO_INNER_CLASSES;
+
+		int attributeCount = reader.readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < attributeCount; i++) {
+			String attributeName = reader.readUTF8(offset, buffer);
+			int length = reader.readInt(offset + 2);
+			int start = offset + 6;
+
+			switch (attributeName) {
+				case "EnclosingMethod":
+					outerClass = reader.readClass(start, buffer);
+					break;
+				case "InnerClasses": {
+					int classCount = reader.readUnsignedShort(start);
+					int memberClasses = 0;
+					for (int j = 0; j < classCount; j++) {
+						if (reader.readUnsignedShort(start + 4 + j * 8) != 0) {
+							memberClasses++;
+						}
+					}
+					if (memberClasses != 0) {
+						innerClasses = new String[memberClasses * 2];
+						for (int j = 0, k = 0; j < classCount; j++) {
+							int entry = start + 2 + j * 8;
+							if (reader.readUnsignedShort(entry + 2) != 0) {
+								innerClasses[k++] = reader.readClass(entry, buffer);
+								innerClasses[k++] = reader.readClass(entry + 2, buffer);
+							}
+						}
+					}
+					break;
+				}
+				case "Synthetic":
+					access |= Opcodes.ACC_SYNTHETIC;
+					break;
+				case "Deprecated":
+					access |= Opcodes.ACC_DEPRECATED;
+					break;
+				default:
+					break;
+			}
+
+			offset = start + length;
+		}
+
+		return new ClassFileHeader(name, superName, interfaces, outerClass, access, innerClasses);
+	}
+
+	/**
+	 * Skips the attribute table at the specified offset
+	 *
+	 * @return The offset after the attribute table
+	 */
+	private static int skipAttributes(ClassReader reader, int offset) {
+		int attributeCount = reader.readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < attributeCount; i++) {
+			offset += 6 + reader.readInt(offset + 2);
+		}
+		return offset;
+	}
+}
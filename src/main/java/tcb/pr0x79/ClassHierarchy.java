@@ -1,43 +1,167 @@
 package tcb.pr0x79;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InnerClassNode;
+import tcb.pr0x79.mapping.locator.ClassHeader;
 import tcb.pr0x79.mapping.locator.ClassLocatorRegistry;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 
 public class ClassHierarchy {
+	//Maximum number of classes per class loader that are cached after being read by the class file fallback
+	private static final int MAX_FALLBACK_ENTRIES = 4096;
+	//Marks a class that could not be found by the class file fallback
+	private static final ClassEntry MISSING = new ClassEntry(ClassSymbols.NONE, ClassSymbols.NONE, ClassSymbols.NO_IDS, ClassSymbols.NONE, 0);
+	//Stored in the signature map for classes that have no generic signature
+	private static final String NO_SIGNATURE = "";
+
 	private final ClassLocatorRegistry locators;
-	//TODO Replace ClassNode with extends, implements and signature structure only?
-	private final Map<ClassLoader, Map<String, ClassData>> classes = new WeakHashMap<>();
-	private final Map<ClassLoader, Map<String, String>> outerClassNames = new WeakHashMap<>();
+	private final ClassSymbols symbols = new ClassSymbols();
+	//No global lock, classes of a loader are stored in concurrent maps that are dropped with the loader
+	private final ClassLoaderMap<LoaderClasses> loaders = new ClassLoaderMap<>(LoaderClasses::new);
+
+	private final SupertypeClosures supertypes = new SupertypeClosures(this, this.symbols);
+
+	private final LongAdder fallbackHits = new LongAdder();
+	private final LongAdder fallbackMisses = new LongAdder();
+	private final LongAdder fallbackHeaders = new LongAdder();
 
 	public ClassHierarchy(ClassLocatorRegistry locators) {
 		this.locators = locators;
 	}
 
 	/**
-	 * Adds a class to the hierarchy
+	 * Adds a class to the hierarchy. Classes are added with a {@link ClassNode} if they may be instrumented,
+	 * so their generic signature is stored as well, see {@link #getSignature(ClassLoader, String)}
 	 *
 	 * @param loader The class loader that loaded the class
 	 * @param cls    The class to add
 	 */
-	public synchronized void addClass(ClassLoader loader, ClassNode cls) {
-		Map<String, ClassData> map = this.classes.computeIfAbsent(loader, k -> new HashMap<>());
-		map.put(cls.name, new ClassData(cls.name, cls.signature, cls.superName, cls.interfaces, cls.outerClass, cls.access));
+	public void addClass(ClassLoader loader, ClassNode cls) {
+		LoaderClasses classes = this.loaders.getOrCreate(loader);
+
+		for (InnerClassNode innerCls : cls.innerClasses) {
+			if (innerCls.outerName != null) {
+				classes.outerClassNames.put(this.symbols.intern(innerCls.name), this.symbols.intern(innerCls.outerName));
+			}
+		}
+
+		ClassEntry entry = this.createEntry(cls.name, cls.superName, cls.interfaces, cls.outerClass, cls.access);
+		classes.classes.put(this.symbols.getName(entry.name), entry);
+		classes.signatures.put(this.symbols.getName(entry.name), cls.signature != null ? cls.signature : NO_SIGNATURE);
+	}
 
-		if (!cls.innerClasses.isEmpty()) {
-			Map<String, String> outerMap = this.outerClassNames.computeIfAbsent(loader, k -> new HashMap<>());
+	/**
+	 * Adds a class to the hierarchy without creating a {@link ClassNode}.
+	 * Only the header and class attributes are read, fields and methods are skipped, see {@link ClassFileHeader}
+	 *
+	 * @param loader The class loader that loaded the class
+	 * @param reader The reader of the class to add
+	 */
+	public void addClass(ClassLoader loader, ClassReader reader) {
+		ClassFileHeader header = ClassFileHeader.read(reader);
+
+		LoaderClasses classes = this.loaders.getOrCreate(loader);
+
+		for (int i = 0; i < header.innerClasses.length; i += 2) {
+			classes.outerClassNames.put(this.symbols.intern(header.innerClasses[i]), this.symbols.intern(header.innerClasses[i + 1]));
+		}
 
-			for (InnerClassNode innerCls : cls.innerClasses) {
-				outerMap.put(innerCls.name, innerCls.outerName);
+		ClassEntry entry = this.createEntry(header.name, header.superName, header.interfaces, header.outerClass, header.access);
+		classes.classes.put(this.symbols.getName(entry.name), entry);
+	}
+
+	/**
+	 * Adds classes that were already loaded to the hierarchy, e.g. the classes that were loaded before the
+	 * class transformer was attached. The class data is derived from the {@link Class} objects, so no class files are read.
+	 * Only data that doesn't load other classes is read: the generic signatures are resolved on demand, see {@link #getSignature(ClassLoader, String)},
+	 * and nested classes are skipped unless their possible outer classes are loaded as well. Classes loaded from here would never be instrumented.
+	 * Classes that are already in the hierarchy are not replaced. Arrays, primitives and classes that don't have a
+	 * class file name, e.g. lambda classes, are skipped. Skipped classes are read by the class file fallback instead
+	 *
+	 * @param classes The loaded classes
+	 * @param pool    The pool the classes are added on in parallel
+	 * @return The number of classes that were added
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public int addLoadedClasses(Class<?>[] classes, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		Set<String> loadedNames = new HashSet<>(classes.length * 2);
+		for (Class<?> cls : classes) {
+			loadedNames.add(cls.getName());
+		}
+		return pool.submit(() -> (int) Arrays.stream(classes).parallel().filter(cls -> this.addLoadedClass(cls, loadedNames)).count()).get();
+	}
+
+	private boolean addLoadedClass(Class<?> cls, Set<String> loadedNames) {
+		if (cls.isArray() || cls.isPrimitive() || cls.getName().indexOf('/') != -1) {
+			return false;
+		}
+
+		//The declaring and enclosing classes are resolved from the constant pool, which loads them if they are not loaded yet
+		String className = cls.getName();
+		for (int i = className.indexOf('$', className.lastIndexOf('.') + 2); i != -1; i = className.indexOf('$', i + 1)) {
+			if (!loadedNames.contains(className.substring(0, i))) {
+				return false;
 			}
 		}
+
+		ClassLoader loader;
+		Class<?> declaringCls, enclosingCls;
+		try {
+			loader = cls.getClassLoader();
+			declaringCls = cls.getDeclaringClass();
+			enclosingCls = declaringCls == null ? cls.getEnclosingClass() : null;
+		} catch (RuntimeException | LinkageError ex) {
+			//Malformed or unresolvable attributes, the class is read by the class file fallback instead
+			return false;
+		}
+
+		String name = cls.getName().replace('.', '/');
+		String superName;
+		if (cls.isInterface()) {
+			superName = "java/lang/Object";
+		} else {
+			superName = cls.getSuperclass() != null ? cls.getSuperclass().getName().replace('.', '/') : null;
+		}
+		Class<?>[] itfs = cls.getInterfaces();
+		List<String> interfaces = new ArrayList<>(itfs.length);
+		for (Class<?> itf : itfs) {
+			interfaces.add(itf.getName().replace('.', '/'));
+		}
+
+		//The modifiers of member classes are the inner class flags, which are mapped back to the class flags.
+		//Flags that only exist in the class file, e.g. ACC_FINAL of anonymous classes, can't be recovered
+		int modifiers = cls.getModifiers();
+		int access = modifiers & ~(Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED | Opcodes.ACC_STATIC);
+		if ((modifiers & Opcodes.ACC_PROTECTED) != 0) {
+			access |= Opcodes.ACC_PUBLIC;
+		}
+		if (!cls.isInterface()) {
+			access |= Opcodes.ACC_SUPER;
+		}
+
+		LoaderClasses classes = this.loaders.getOrCreate(loader);
+
+		if (declaringCls != null) {
+			classes.outerClassNames.putIfAbsent(this.symbols.intern(name), this.symbols.intern(declaringCls.getName().replace('.', '/')));
+		}
+
+		ClassEntry entry = this.createEntry(name, superName, interfaces, enclosingCls != null ? enclosingCls.getName().replace('.', '/') : null, access);
+		return classes.classes.putIfAbsent(this.symbols.getName(entry.name), entry) == null;
 	}
 
 	/**
@@ -48,7 +172,7 @@ public class ClassHierarchy {
 	 * @param onFallback Called when a class had to be loaded from stream with parameters {@link ClassNode} and {@link ClassReader} flags
 	 * @return
 	 */
-	public synchronized ClassData getOuterClass(ClassLoader loader, String name, BiConsumer<ClassNode, Integer> onFallback) {
+	public ClassData getOuterClass(ClassLoader loader, String name, BiConsumer<ClassNode, Integer> onFallback) {
 		return getOuterClass(loader, name, true, onFallback);
 	}
 
@@ -60,7 +184,7 @@ public class ClassHierarchy {
 	 * @param onFallback Called when a class had to be loaded from stream with parameters {@link ClassNode} and {@link ClassReader} flags
 	 * @return
 	 */
-	public synchronized ClassData getClass(ClassLoader loader, String name, BiConsumer<ClassNode, Integer> onFallback) {
+	public ClassData getClass(ClassLoader loader, String name, BiConsumer<ClassNode, Integer> onFallback) {
 		return this.getClass(loader, name, true, onFallback);
 	}
 
@@ -73,12 +197,11 @@ public class ClassHierarchy {
 	 * @param onFallback        Called when a class had to be loaded from stream with parameters {@link ClassNode} and {@link ClassReader} flags
 	 * @return
 	 */
-	private synchronized ClassData getOuterClass(ClassLoader loader, String name, boolean classFileFallback, BiConsumer<ClassNode, Integer> onFallback) {
-		ClassLoader l = loader;
-		do {
-			Map<String, String> map = this.outerClassNames.get(l);
-			if (map != null) {
-				String outerName = map.get(name);
+	private ClassData getOuterClass(ClassLoader loader, String name, boolean classFileFallback, BiConsumer<ClassNode, Integer> onFallback) {
+		for (ClassLoader l = loader; ; l = l.getParent()) {
+			LoaderClasses classes = this.loaders.get(l);
+			if (classes != null) {
+				String outerName = classes.outerClassNames.get(name);
 				if (outerName != null) {
 					ClassData outer = this.getClass(loader, outerName, classFileFallback, onFallback);
 					if (outer != null) {
@@ -86,8 +209,11 @@ public class ClassHierarchy {
 					}
 				}
 			}
-			l = l.getParent();
-		} while (l != null);
+
+			if (l == null) {
+				break;
+			}
+		}
 
 		ClassData data = this.getClass(loader, name, classFileFallback, onFallback);
 		if (data != null && data.outerclass != null) {
@@ -106,52 +232,211 @@ public class ClassHierarchy {
 	 * @param onFallback        Called when a class had to be loaded from stream with parameters {@link ClassNode} and {@link ClassReader} flags
 	 * @return
 	 */
-	public synchronized ClassData getClass(ClassLoader loader, String name, boolean classFileFallback, BiConsumer<ClassNode, Integer> onFallback) {
+	public ClassData getClass(ClassLoader loader, String name, boolean classFileFallback, BiConsumer<ClassNode, Integer> onFallback) {
 		//Try to get class from loaded hierarchy first. Speeds up lookup and
 		//works for special custom class loaders unlike getResourceAsStream
-		ClassLoader l = loader;
-		do {
-			Map<String, ClassData> map = this.classes.get(l);
-			if (map != null) {
-				ClassData cls = map.get(name);
+		for (ClassLoader l = loader; ; l = l.getParent()) {
+			LoaderClasses classes = this.loaders.get(l);
+			if (classes != null) {
+				ClassEntry cls = classes.classes.get(name);
 				if (cls != null) {
-					return cls;
+					return new ClassData(this, loader, cls);
 				}
 			}
-			l = l.getParent();
-		} while (l != null);
+
+			if (l == null) {
+				break;
+			}
+		}
 
 		if (classFileFallback) {
-			//Class was not found, probably loaded before the class transformer was attached
+			//Class was not found, probably loaded before the class transformer was attached.
+			//The result is cached, including classes that can't be found, so the class file is read only once
+			Map<String, ClassEntry> fallback = this.loaders.getOrCreate(loader).fallback;
+
+			ClassEntry cached = fallback.get(name);
+			if (cached != null) {
+				this.fallbackHits.increment();
+				return cached != MISSING ? new ClassData(this, loader, cached) : null;
+			}
+
 			int flags = ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG;
-			ClassNode node = this.locators.getClass(loader, name, flags);
-			if (node != null) {
-				if (onFallback != null) {
+			ClassNode node = null;
+			ClassEntry entry;
+
+			//Locators that know the header of the class, e.g. from a snapshot, don't need to read the class file
+			ClassHeader header = this.locators.getClassHeader(loader, name);
+			if (header != null) {
+				this.fallbackHeaders.increment();
+				entry = this.createEntry(header.name, header.superName, header.interfaces, header.outerClass, header.access);
+			} else {
+				this.fallbackMisses.increment();
+				node = this.locators.getClass(loader, name, flags);
+				entry = node != null ? this.createEntry(node.name, node.superName, node.interfaces, node.outerClass, node.access) : MISSING;
+			}
+			if (fallback.size() >= MAX_FALLBACK_ENTRIES) {
+				//Evicts an arbitrary entry, the cache only needs to stay bounded
+				Iterator<String> it = fallback.keySet().iterator();
+				if (it.hasNext()) {
+					it.next();
+					it.remove();
+				}
+			}
+			fallback.put(this.symbols.intern(name), entry);
+
+			if (entry != MISSING) {
+				if (node != null && onFallback != null) {
 					onFallback.accept(node, flags);
 				}
 
-				return new ClassData(node.name, node.signature, node.superName, node.interfaces, node.outerClass, node.access);
+				return new ClassData(this, loader, entry);
 			}
 		}
 
 		return null;
 	}
 
+	/**
+	 * Returns the generic signature of the specified class. Signatures are only kept for classes that may be
+	 * instrumented, other signatures are read on demand from the class header of a locator or the class file
+	 * and then kept for the specified class loader
+	 *
+	 * @param loader The class loader that loaded the specified class
+	 * @param name   The internal name of the class
+	 * @return The signature or null if the class is not generic or can't be found
+	 */
+	public String getSignature(ClassLoader loader, String name) {
+		for (ClassLoader l = loader; ; l = l.getParent()) {
+			LoaderClasses classes = this.loaders.get(l);
+			if (classes != null) {
+				String signature = classes.signatures.get(name);
+				if (signature != null) {
+					return signature.isEmpty() ? null : signature;
+				}
+			}
+
+			if (l == null) {
+				break;
+			}
+		}
+
+		String signature;
+		ClassHeader header = this.locators.getClassHeader(loader, name);
+		if (header != null) {
+			signature = header.signature;
+		} else {
+			ClassNode node = this.locators.getClass(loader, name, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+			signature = node != null ? node.signature : null;
+		}
+		this.loaders.getOrCreate(loader).signatures.put(this.symbols.intern(name), signature != null ? signature : NO_SIGNATURE);
+		return signature;
+	}
+
+	/**
+	 * Returns the number of class file fallback lookups that were answered from the cache,
+	 * including lookups of classes that were cached as not found
+	 *
+	 * @return
+	 */
+	public long getFallbackHits() {
+		return this.fallbackHits.sum();
+	}
+
+	/**
+	 * Returns the number of class file fallback lookups that had to read the class file
+	 *
+	 * @return
+	 */
+	public long getFallbackMisses() {
+		return this.fallbackMisses.sum();
+	}
+
+	/**
+	 * Returns the number of class file fallback lookups that were answered with a class header
+	 * of a locator without reading the class file, see {@link ClassLocatorRegistry#getClassHeader(ClassLoader, String)}
+	 *
+	 * @return
+	 */
+	public long getFallbackHeaders() {
+		return this.fallbackHeaders.sum();
+	}
+
+	private ClassEntry createEntry(String name, String superName, List<String> interfaces, String outerClass, int access) {
+		return new ClassEntry(this.symbols.getId(name), this.symbols.getId(superName), this.symbols.getIds(interfaces), this.symbols.getId(outerClass), access);
+	}
+
+	/**
+	 * Returns the cached supertype closures of the classes in the hierarchy
+	 *
+	 * @return
+	 */
+	SupertypeClosures getSupertypes() {
+		return this.supertypes;
+	}
+
+	/**
+	 * The classes that were added for a single class loader
+	 */
+	private static final class LoaderClasses {
+		private final Map<String, ClassEntry> classes = new ConcurrentHashMap<>();
+		private final Map<String, String> outerClassNames = new ConcurrentHashMap<>();
+		//Classes read by the class file fallback for this class loader
+		private final Map<String, ClassEntry> fallback = new ConcurrentHashMap<>();
+		//Generic signatures of the classes that may be instrumented and of the classes whose signature was requested
+		private final Map<String, String> signatures = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Compact representation of a class in the hierarchy. Class names are stored as {@link ClassSymbols} IDs,
+	 * generic signatures are stored separately, see {@link #getSignature(ClassLoader, String)}
+	 */
+	static final class ClassEntry {
+		final int name;
+		final int superclass;
+		final int[] interfaces;
+		final int outerclass;
+		final int access;
+
+		private ClassEntry(int name, int superclass, int[] interfaces, int outerclass, int access) {
+			this.name = name;
+			this.superclass = superclass;
+			this.interfaces = interfaces;
+			this.outerclass = outerclass;
+			this.access = access;
+		}
+	}
+
+	/**
+	 * View of a class in the hierarchy
+	 */
 	public static class ClassData {
 		public final String name;
-		public final String signature;
 		public final String superclass;
 		public final List<String> interfaces;
 		public final String outerclass;
 		public final int access;
 
-		private ClassData(String name, String signature, String superclass, List<String> interfaces, String outerclass, int access) {
-			this.name = name;
-			this.signature = signature;
-			this.superclass = superclass;
-			this.interfaces = interfaces;
-			this.outerclass = outerclass;
-			this.access = access;
+		private final ClassHierarchy hierarchy;
+		private final ClassLoader loader;
+
+		private ClassData(ClassHierarchy hierarchy, ClassLoader loader, ClassEntry entry) {
+			ClassSymbols symbols = hierarchy.symbols;
+			this.hierarchy = hierarchy;
+			this.loader = loader;
+			this.name = symbols.getName(entry.name);
+			this.superclass = symbols.getName(entry.superclass);
+			this.interfaces = symbols.getNames(entry.interfaces);
+			this.outerclass = symbols.getName(entry.outerclass);
+			this.access = entry.access;
+		}
+
+		/**
+		 * Returns the generic signature of the class, see {@link ClassHierarchy#getSignature(ClassLoader, String)}
+		 *
+		 * @return The signature or null if the class is not generic
+		 */
+		public String getSignature() {
+			return this.hierarchy.getSignature(this.loader, this.name);
 		}
 	}
 }
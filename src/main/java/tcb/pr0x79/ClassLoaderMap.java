@@ -0,0 +1,121 @@
+package tcb.pr0x79;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Concurrent map with weak {@link ClassLoader} keys that are compared by identity.
+ * Entries of collected class loaders are expunged on the next insertion.
+ * The bootstrap class loader is represented by <code>null</code> and is never expunged
+ *
+ * @param <V> The value type
+ */
+final class ClassLoaderMap<V> {
+	private final ConcurrentHashMap<Object, V> values = new ConcurrentHashMap<>();
+	private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<>();
+	private final AtomicReference<V> bootstrapValue = new AtomicReference<>();
+	private final Supplier<V> factory;
+
+	/**
+	 * @param factory Creates the value of a class loader that is not in the map yet
+	 */
+	ClassLoaderMap(Supplier<V> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Returns the value of the specified class loader or null if there is none
+	 *
+	 * @param loader The class loader, null for the bootstrap class loader
+	 * @return
+	 */
+	V get(ClassLoader loader) {
+		if (loader == null) {
+			return this.bootstrapValue.get();
+		}
+
+		return this.values.get(new Lookup(loader));
+	}
+
+	/**
+	 * Returns the value of the specified class loader and creates it if there is none
+	 *
+	 * @param loader The class loader, null for the bootstrap class loader
+	 * @return
+	 */
+	V getOrCreate(ClassLoader loader) {
+		V value = this.get(loader);
+		if (value != null) {
+			return value;
+		}
+
+		if (loader == null) {
+			this.bootstrapValue.compareAndSet(null, this.factory.get());
+			return this.bootstrapValue.get();
+		}
+
+		this.expunge();
+
+		value = this.factory.get();
+		V previous = this.values.putIfAbsent(new Key(loader, this.queue), value);
+		return previous != null ? previous : value;
+	}
+
+	private void expunge() {
+		Reference<? extends ClassLoader> ref;
+		while ((ref = this.queue.poll()) != null) {
+			this.values.remove(ref);
+		}
+	}
+
+	private static final class Key extends WeakReference<ClassLoader> {
+		private final int hash;
+
+		private Key(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+			super(loader, queue);
+			this.hash = System.identityHashCode(loader);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (obj instanceof Key) {
+				ClassLoader loader = this.get();
+				return loader != null && loader == ((Key) obj).get();
+			}
+			return obj instanceof Lookup && ((Lookup) obj).loader == this.get();
+		}
+	}
+
+	/**
+	 * Strong key used for lookups so that no {@link WeakReference} has to be allocated
+	 */
+	private static final class Lookup {
+		private final ClassLoader loader;
+
+		private Lookup(ClassLoader loader) {
+			this.loader = loader;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.loader);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).get() == this.loader;
+		}
+	}
+}
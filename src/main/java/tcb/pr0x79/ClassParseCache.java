@@ -0,0 +1,61 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Parses a class at most once per set of {@link ClassReader} flags during a single transformation.
+ * A request for flags that skip more than an already parsed {@link ClassNode} is answered
+ * with that node instead of parsing the class again, e.g. a structure-only view is derived
+ * from a node that also contains the code.
+ * <p><b>Note: Nodes are shared, so modifications to a node are visible to all later requests that receive it</b>
+ */
+final class ClassParseCache implements Function<Integer, ClassNode> {
+	private static final int SKIP_FLAGS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+	private final ClassReader reader;
+	private final Map<Integer, ClassNode> nodes = new HashMap<>(4);
+
+	/**
+	 * @param reader The reader of the class that is being transformed
+	 */
+	ClassParseCache(ClassReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Returns a {@link ClassNode} that satisfies the specified {@link ClassReader} flags.
+	 * The returned node may have been parsed with less {@link ClassReader#SKIP_CODE}, {@link ClassReader#SKIP_DEBUG}
+	 * or {@link ClassReader#SKIP_FRAMES} flags, {@link ClassReader#EXPAND_FRAMES} is always respected
+	 *
+	 * @param flags The {@link ClassReader} flags
+	 * @return
+	 */
+	ClassNode get(int flags) {
+		ClassNode node = this.nodes.get(flags);
+		if (node != null) {
+			return node;
+		}
+
+		for (Map.Entry<Integer, ClassNode> entry : this.nodes.entrySet()) {
+			int parsedFlags = entry.getKey();
+			if ((parsedFlags & ~SKIP_FLAGS) == (flags & ~SKIP_FLAGS) && (parsedFlags & SKIP_FLAGS & ~flags) == 0) {
+				return entry.getValue();
+			}
+		}
+
+		node = new ClassNode();
+		this.reader.accept(node, flags);
+		this.nodes.put(flags, node);
+		return node;
+	}
+
+	@Override
+	public ClassNode apply(Integer flags) {
+		return this.get(flags);
+	}
+}
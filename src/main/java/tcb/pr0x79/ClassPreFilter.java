@@ -0,0 +1,116 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import tcb.pr0x79.accessor.ClassAccessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Decides from the constant pool and header of a class file alone whether
+ * a class can possibly be an {@link ClassAccessor} or a class to be instrumented.
+ * Classes that are rejected do not need to be parsed into a tree.
+ */
+final class ClassPreFilter {
+	private static final int CONSTANT_UTF8 = 1;
+
+	private static final byte[] CLASS_ACCESSOR_DESC = Type.getDescriptor(ClassAccessor.class).getBytes(StandardCharsets.UTF_8);
+
+	private final Set<String> targets;
+	private final boolean acceptAll;
+
+	private ClassPreFilter(Set<String> targets, boolean acceptAll) {
+		this.targets = targets;
+		this.acceptAll = acceptAll;
+	}
+
+	/**
+	 * Creates a filter that accepts the static targets of the specified index.
+	 * If any accessor or interceptor has a dynamic class identifier the filter
+	 * accepts every class
+	 *
+	 * @param index The accessor index
+	 * @return
+	 */
+	static ClassPreFilter build(AccessorIndex index) {
+		return new ClassPreFilter(index.getStaticTargets(), index.hasDynamicCandidates());
+	}
+
+	/**
+	 * Returns whether the filter only accepts accessors and
+	 * classes identified by static class identifiers
+	 *
+	 * @return
+	 */
+	boolean isPrecise() {
+		return !this.acceptAll;
+	}
+
+	/**
+	 * Returns whether the specified class may be an accessor or a class to be instrumented
+	 *
+	 * @param reader    The reader of the class. Only the constant pool and header are read
+	 * @param className The internal name of the class, may be null
+	 * @return
+	 */
+	boolean accepts(ClassReader reader, String className) {
+		if (this.acceptAll) {
+			return true;
+		}
+
+		if (this.targets.contains(className != null ? className : reader.getClassName())) {
+			return true;
+		}
+
+		return hasUtf8Constant(reader, CLASS_ACCESSOR_DESC);
+	}
+
+	/**
+	 * Returns whether the specified class may be an {@link ClassAccessor}, i.e. whether
+	 * its constant pool references the {@link ClassAccessor} annotation
+	 *
+	 * @param reader The reader of the class. Only the constant pool is read
+	 * @return
+	 */
+	static boolean mayBeAccessor(ClassReader reader) {
+		return hasUtf8Constant(reader, CLASS_ACCESSOR_DESC);
+	}
+
+	/**
+	 * Returns whether the constant pool of the class contains the specified UTF8 constant.
+	 * The constant pool entries are compared byte by byte without decoding them
+	 *
+	 * @param reader The reader of the class
+	 * @param value  The (modified) UTF8 encoded value
+	 * @return
+	 */
+	private static boolean hasUtf8Constant(ClassReader reader, byte[] value) {
+		int itemCount = reader.getItemCount();
+
+		loop:
+		for (int i = 1; i < itemCount; i++) {
+			int offset = reader.getItem(i);
+
+			//Second slot of long and double constants
+			if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_UTF8) {
+				continue;
+			}
+
+			if (reader.readUnsignedShort(offset) != value.length) {
+				continue;
+			}
+
+			int start = offset + 2;
+			for (int j = 0; j < value.length; j++) {
+				if (reader.readByte(start + j) != (value[j] & 0xFF)) {
+					continue loop;
+				}
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,140 @@
+package tcb.pr0x79;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Symbol table that interns internal class names and assigns each name a dense int ID.
+ * IDs are never reused, so they can be stored instead of the names and compared directly
+ */
+final class ClassSymbols {
+	/**
+	 * ID of a missing name, e.g. the superclass of <code>java/lang/Object</code>
+	 */
+	static final int NONE = -1;
+
+	static final int[] NO_IDS = new int[0];
+
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+	//Names by ID in fixed size chunks so that existing chunks never have to be copied
+	private volatile String[][] chunks = new String[16][];
+	private int size;
+
+	/**
+	 * Returns the ID of the specified internal class name and interns it if necessary
+	 *
+	 * @param name The internal class name, may be null
+	 * @return The ID or {@link #NONE} if the name is null
+	 */
+	int getId(String name) {
+		if (name == null) {
+			return NONE;
+		}
+
+		Integer id = this.ids.get(name);
+		if (id != null) {
+			return id;
+		}
+
+		return this.ids.computeIfAbsent(name, this::add);
+	}
+
+	/**
+	 * Returns the IDs of the specified internal class names
+	 *
+	 * @param names The internal class names, may be null
+	 * @return
+	 */
+	int[] getIds(List<String> names) {
+		if (names == null || names.isEmpty()) {
+			return NO_IDS;
+		}
+
+		int[] ids = new int[names.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = this.getId(names.get(i));
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the interned internal class name of the specified ID
+	 *
+	 * @param id The ID
+	 * @return The name or null if the ID is {@link #NONE}
+	 */
+	String getName(int id) {
+		if (id == NONE) {
+			return null;
+		}
+
+		return this.chunks[id >>> CHUNK_BITS][id & CHUNK_MASK];
+	}
+
+	/**
+	 * Returns the interned instance of the specified internal class name
+	 *
+	 * @param name The internal class name, may be null
+	 * @return
+	 */
+	String intern(String name) {
+		return this.getName(this.getId(name));
+	}
+
+	/**
+	 * Returns an unmodifiable list view of the names of the specified IDs
+	 *
+	 * @param ids The IDs
+	 * @return
+	 */
+	List<String> getNames(int[] ids) {
+		return new NameList(this, ids);
+	}
+
+	private synchronized int add(String name) {
+		int id = this.size;
+
+		String[][] chunks = this.chunks;
+		int chunk = id >>> CHUNK_BITS;
+		if (chunk == chunks.length) {
+			String[][] grown = new String[chunks.length * 2][];
+			System.arraycopy(chunks, 0, grown, 0, chunks.length);
+			chunks = grown;
+		}
+		if (chunks[chunk] == null) {
+			chunks[chunk] = new String[CHUNK_SIZE];
+		}
+		chunks[chunk][id & CHUNK_MASK] = name;
+
+		this.chunks = chunks;
+		this.size = id + 1;
+		return id;
+	}
+
+	private static final class NameList extends AbstractList<String> implements RandomAccess {
+		private final ClassSymbols symbols;
+		private final int[] ids;
+
+		private NameList(ClassSymbols symbols, int[] ids) {
+			this.symbols = symbols;
+			this.ids = ids;
+		}
+
+		@Override
+		public String get(int index) {
+			return this.symbols.getName(this.ids[index]);
+		}
+
+		@Override
+		public int size() {
+			return this.ids.length;
+		}
+	}
+}
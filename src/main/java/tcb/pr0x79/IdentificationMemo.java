@@ -0,0 +1,85 @@
+package tcb.pr0x79;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Memoizes the results of a dynamic identifier per class loader and element, e.g. the internal
+ * name of a class. Positive and negative results are cached, so that an identifier is evaluated
+ * only once per element even if the hierarchy of that element is traversed repeatedly.
+ * A Bloom filter of the memoized keys is checked first so that lookups of elements that
+ * were never evaluated don't have to probe the result map.
+ * Safe to use from multiple threads. If two threads evaluate the same element at the
+ * same time the identifier may be evaluated by both, the first result is kept
+ */
+public final class IdentificationMemo {
+	private final ClassLoaderMap<Results> loaders = new ClassLoaderMap<>(Results::new);
+
+	/**
+	 * Returns whether the specified element is identified and evaluates and memoizes the identifier if
+	 * the element has not been evaluated yet
+	 *
+	 * @param loader     The class loader of the element, null for the bootstrap class loader
+	 * @param key        The key of the element
+	 * @param identifier Evaluates the identifier
+	 * @return
+	 */
+	public boolean isIdentified(ClassLoader loader, String key, BooleanSupplier identifier) {
+		Results results = this.loaders.getOrCreate(loader);
+		int hash = key.hashCode();
+
+		if (results.mightContain(hash)) {
+			Boolean identified = results.values.get(key);
+			if (identified != null) {
+				return identified;
+			}
+		}
+
+		boolean identified = identifier.getAsBoolean();
+		Boolean previous = results.values.putIfAbsent(key, identified);
+		results.add(hash);
+		return previous != null ? previous : identified;
+	}
+
+	private static final class Results {
+		//Number of bits of the Bloom filter, once it is saturated all lookups fall through to the map
+		private static final int BITS = 1 << 14;
+		private static final int MASK = BITS - 1;
+
+		private final ConcurrentHashMap<String, Boolean> values = new ConcurrentHashMap<>();
+		private final AtomicLongArray filter = new AtomicLongArray(BITS >>> 6);
+
+		private boolean mightContain(int hash) {
+			int h1 = mix(hash);
+			int h2 = mix(h1) | 1;
+			return this.isSet(h1 & MASK) && this.isSet((h1 + h2) & MASK) && this.isSet((h1 + 2 * h2) & MASK);
+		}
+
+		private void add(int hash) {
+			int h1 = mix(hash);
+			int h2 = mix(h1) | 1;
+			this.set(h1 & MASK);
+			this.set((h1 + h2) & MASK);
+			this.set((h1 + 2 * h2) & MASK);
+		}
+
+		private boolean isSet(int bit) {
+			return (this.filter.get(bit >>> 6) & (1L << bit)) != 0;
+		}
+
+		private void set(int bit) {
+			long mask = 1L << bit;
+			int word = bit >>> 6;
+			long value;
+			while (((value = this.filter.get(word)) & mask) == 0 && !this.filter.compareAndSet(word, value, value | mask)) {
+				//Retry until the bit is set
+			}
+		}
+
+		private static int mix(int hash) {
+			hash *= 0x9E3779B9;
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
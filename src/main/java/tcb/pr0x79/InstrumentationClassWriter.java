@@ -1,15 +1,14 @@
 package tcb.pr0x79;
 
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Opcodes;
-import tcb.pr0x79.ClassHierarchy.ClassData;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 public final class InstrumentationClassWriter extends ClassWriter {
 	private final ClassHierarchy hierarchy;
-	private final ClassRelationResolver resolver;
 	private final ClassLoader loader;
 
 	/**
@@ -23,58 +22,97 @@ public final class InstrumentationClassWriter extends ClassWriter {
 		super(flags);
 		this.hierarchy = hierarchy;
 		this.loader = loader;
-		this.resolver = new ClassRelationResolver(hierarchy, loader);
 	}
 
-	@Override
-	protected String getCommonSuperClass(String type1, String type2) {
-		ClassData cls1 = this.hierarchy.getClass(this.loader, type1, null);
-		ClassData cls2 = this.hierarchy.getClass(this.loader, type2, null);
-		if ((cls1.access & Opcodes.ACC_INTERFACE) != 0) {
-			if (this.checkImplements(cls2, cls1.name)) {
-				return cls2.name;
-			} else {
-				return "java/lang/Object";
-			}
+	/**
+	 * Creates a {@link ClassWriter} that does not load any classes and
+	 * reuses the constant pool of the specified {@link ClassReader}.
+	 *
+	 * @param reader    The reader of the original class
+	 * @param hierarchy The class hierarchy
+	 * @param loader    The classloader that is loading the class that is being writtern
+	 * @param flags     {@link ClassWriter} flags
+	 */
+	public InstrumentationClassWriter(ClassReader reader, ClassHierarchy hierarchy, ClassLoader loader, int flags) {
+		super(reader, flags);
+		this.hierarchy = hierarchy;
+		this.loader = loader;
+	}
+
+	/**
+	 * Writes an instrumented {@link ClassNode} that was read by the specified {@link ClassReader}.
+	 * The constant pool of the original class is reused and all methods that were neither added nor
+	 * modified are copied byte for byte from the original class, so their frames are not recomputed.
+	 * Only added and modified methods are written from the {@link ClassNode} with computed frames and maxs.
+	 *
+	 * @param reader          The reader of the original class
+	 * @param clsNode         The instrumented class node
+	 * @param modifiedMethods The methods of the original class that were modified
+	 * @param hierarchy       The class hierarchy
+	 * @param loader          The classloader that is loading the class that is being written
+	 * @return
+	 */
+	public static byte[] write(ClassReader reader, ClassNode clsNode, Set<MethodNode> modifiedMethods, ClassHierarchy hierarchy, ClassLoader loader) {
+		ClassWriter writer = new InstrumentationClassWriter(reader, hierarchy, loader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+
+		Map<String, MethodNode> methods = new HashMap<>();
+		for (MethodNode method : clsNode.methods) {
+			methods.put(method.name + method.desc, method);
 		}
-		if ((cls2.access & Opcodes.ACC_INTERFACE) != 0) {
-			if (this.checkImplements(cls1, cls2.name)) {
-				return cls1.name;
-			} else {
-				return "java/lang/Object";
+
+		Set<String> originalFields = new HashSet<>();
+
+		reader.accept(new ClassVisitor(Opcodes.ASM7, writer) {
+			@Override
+			public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+				super.visit(clsNode.version, clsNode.access, clsNode.name, clsNode.signature, clsNode.superName, clsNode.interfaces.toArray(new String[0]));
 			}
-		}
-		List<String> superclasses1 = this.getSuperclasses(cls1);
-		List<String> superclasses2 = this.getSuperclasses(cls2);
-		String commonSuperclass = "java/lang/Object";
-		for (int i = Math.min(superclasses1.size(), superclasses2.size()); i > 1; i--) {
-			String supercls1 = superclasses1.get(i);
-			String supercls2 = superclasses2.get(i);
-			if (!supercls1.equals(supercls2)) {
-				break;
+
+			@Override
+			public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+				originalFields.add(name + descriptor);
+				return super.visitField(access, name, descriptor, signature, value);
 			}
-			commonSuperclass = supercls1;
-		}
-		return commonSuperclass;
-	}
 
-	private List<String> getSuperclasses(ClassData cls) {
-		List<String> classes = new ArrayList<>();
-		this.resolver.traverseHierarchy(cls.name, (supercls, itf, clsNode, flags) -> classes.add(supercls), false);
-		return classes;
-	}
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				MethodNode method = methods.remove(name + descriptor);
+				if (method == null) {
+					return null;
+				}
 
-	private boolean checkImplements(ClassData cls, String itf) {
-		for (String clsItf : cls.interfaces) {
-			if (itf.equals(clsItf)) {
-				return true;
+				if (modifiedMethods.contains(method)) {
+					method.accept(this.cv);
+					return null;
+				}
+
+				//Returning the writer's visitor unchanged lets the reader copy the method as is
+				return super.visitMethod(access, name, descriptor, signature, exceptions);
 			}
-		}
 
-		if (cls.superclass != null) {
-			return this.resolver.traverseHierarchy(cls.superclass, (clsItf, isItf, clsNode, flags) -> isItf && itf.equals(clsItf), true);
-		}
+			@Override
+			public void visitEnd() {
+				for (FieldNode field : clsNode.fields) {
+					if (!originalFields.contains(field.name + field.desc)) {
+						field.accept(this.cv);
+					}
+				}
+
+				for (MethodNode method : clsNode.methods) {
+					if (methods.containsKey(method.name + method.desc)) {
+						method.accept(this.cv);
+					}
+				}
+
+				super.visitEnd();
+			}
+		}, 0);
 
-		return false;
+		return writer.toByteArray();
+	}
+
+	@Override
+	protected String getCommonSuperClass(String type1, String type2) {
+		return this.hierarchy.getSupertypes().getCommonSuperClass(this.loader, type1, type2);
 	}
 }
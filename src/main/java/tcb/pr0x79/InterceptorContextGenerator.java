@@ -0,0 +1,169 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import tcb.pr0x79.accessor.InterceptorContext;
+import tcb.pr0x79.data.ClassAccessorData;
+import tcb.pr0x79.data.MethodInterceptorData;
+
+/**
+ * Generates a specialized {@link InterceptorContext} class per interceptor. The local variables of
+ * the interceptor are stored in typed public fields and the exit and return state in plain public fields,
+ * so the instrumented code reads and writes them directly. Neither an array nor boxed primitives are
+ * allocated per interception and the context itself can be scalar replaced once the interceptor is inlined.
+ * The generated class is defined in the class loader of the accessor
+ */
+final class InterceptorContextGenerator {
+	static final String FIELD_EXIT = "exit";
+	static final String FIELD_EXITING = "exiting";
+	static final String FIELD_RETURN = "returnValue";
+	static final String FIELD_RETURNING = "returning";
+	private static final String FIELD_LOCAL_PREFIX = "local";
+
+	private static final String CONTEXT_INTERFACE = Type.getInternalName(InterceptorContext.class);
+	private static final String OBJECT = "java/lang/Object";
+
+	private InterceptorContextGenerator() {
+	}
+
+	/**
+	 * Returns the internal name of the context class of the specified interceptor
+	 *
+	 * @param accessor    The accessor that declares the interceptor
+	 * @param interceptor The interceptor
+	 * @return
+	 */
+	static String getContextClass(ClassAccessorData accessor, MethodInterceptorData interceptor) {
+		return accessor.getAccessorClass().replace('.', '/') + "$$InterceptorContext" + accessor.getMethodInterceptors().indexOf(interceptor);
+	}
+
+	/**
+	 * Returns the name of the field that stores the specified local variable
+	 *
+	 * @param localVarIndex The index of the local variable, not counting the context parameter
+	 * @return
+	 */
+	static String getLocalField(int localVarIndex) {
+		return FIELD_LOCAL_PREFIX + localVarIndex;
+	}
+
+	/**
+	 * Returns the types of the local variables of the specified interceptor, i.e.
+	 * the interceptor parameter types without the context parameter
+	 *
+	 * @param interceptor The interceptor
+	 * @return
+	 */
+	static Type[] getLocalTypes(MethodInterceptorData interceptor) {
+		Type[] params = Type.getArgumentTypes(interceptor.getInterceptorMethodDesc());
+		Type[] locals = new Type[params.length - 1];
+		for (int i = 0, j = 0; i < params.length; i++) {
+			if (i != interceptor.getContextParameter()) {
+				locals[j++] = params[i];
+			}
+		}
+		return locals;
+	}
+
+	/**
+	 * Generates the context class of the specified interceptor
+	 *
+	 * @param name        The internal name of the context class
+	 * @param interceptor The interceptor
+	 * @return The class bytes
+	 */
+	static byte[] generate(String name, MethodInterceptorData interceptor) {
+		Type[] locals = getLocalTypes(interceptor);
+
+		ClassNode cls = new ClassNode();
+		cls.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC, name, null, OBJECT, new String[]{CONTEXT_INTERFACE});
+
+		for (int i = 0; i < locals.length; i++) {
+			cls.visitField(Opcodes.ACC_PUBLIC, getLocalField(i), locals[i].getDescriptor(), null, null);
+		}
+		cls.visitField(Opcodes.ACC_PUBLIC, FIELD_EXIT, "I", null, null);
+		cls.visitField(Opcodes.ACC_PUBLIC, FIELD_EXITING, "Z", null, null);
+		cls.visitField(Opcodes.ACC_PUBLIC, FIELD_RETURN, "Ljava/lang/Object;", null, null);
+		cls.visitField(Opcodes.ACC_PUBLIC, FIELD_RETURNING, "Z", null, null);
+
+		InsnList insns = new InsnList();
+		insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+		insns.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false));
+		insns.add(new InsnNode(Opcodes.RETURN));
+		addMethod(cls, "<init>", "()V", insns);
+
+		insns = new InsnList();
+		insns.add(setField(name, FIELD_EXIT, "I", new VarInsnNode(Opcodes.ILOAD, 1)));
+		insns.add(setField(name, FIELD_EXITING, "Z", new InsnNode(Opcodes.ICONST_1)));
+		insns.add(new InsnNode(Opcodes.RETURN));
+		addMethod(cls, "exitAt", "(I)V", insns);
+
+		insns = new InsnList();
+		insns.add(setField(name, FIELD_EXITING, "Z", new InsnNode(Opcodes.ICONST_0)));
+		insns.add(new InsnNode(Opcodes.RETURN));
+		addMethod(cls, "cancelExit", "()V", insns);
+
+		addMethod(cls, "getExit", "()I", getField(name, FIELD_EXIT, "I"));
+		addMethod(cls, "isExiting", "()Z", getField(name, FIELD_EXITING, "Z"));
+
+		insns = new InsnList();
+		insns.add(setField(name, FIELD_RETURN, "Ljava/lang/Object;", new VarInsnNode(Opcodes.ALOAD, 1)));
+		insns.add(setField(name, FIELD_RETURNING, "Z", new InsnNode(Opcodes.ICONST_1)));
+		insns.add(new InsnNode(Opcodes.RETURN));
+		addMethod(cls, "returnWith", "(Ljava/lang/Object;)V", insns);
+
+		insns = new InsnList();
+		insns.add(setField(name, FIELD_RETURNING, "Z", new InsnNode(Opcodes.ICONST_0)));
+		insns.add(new InsnNode(Opcodes.RETURN));
+		addMethod(cls, "cancelReturn", "()V", insns);
+
+		addMethod(cls, "getReturn", "()Ljava/lang/Object;", getField(name, FIELD_RETURN, "Ljava/lang/Object;"));
+		addMethod(cls, "isReturning", "()Z", getField(name, FIELD_RETURNING, "Z"));
+
+		//The local variables array is only created on demand
+		insns = new InsnList();
+		insns.add(BytecodeInstrumentation.instrumentOptimizedIntegerPush(locals.length));
+		insns.add(new TypeInsnNode(Opcodes.ANEWARRAY, OBJECT));
+		for (int i = 0; i < locals.length; i++) {
+			insns.add(new InsnNode(Opcodes.DUP));
+			insns.add(BytecodeInstrumentation.instrumentOptimizedIntegerPush(i));
+			insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+			insns.add(new FieldInsnNode(Opcodes.GETFIELD, name, getLocalField(i), locals[i].getDescriptor()));
+			if (locals[i].getSort() != Type.OBJECT && locals[i].getSort() != Type.ARRAY) {
+				insns.add(BytecodeInstrumentation.instrumentTypeBoxing(locals[i]));
+			}
+			insns.add(new InsnNode(Opcodes.AASTORE));
+		}
+		insns.add(new InsnNode(Opcodes.ARETURN));
+		addMethod(cls, "getLocalVariables", "()[Ljava/lang/Object;", insns);
+
+		//No merging branches, so the frames never need a common superclass
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		cls.accept(writer);
+		return writer.toByteArray();
+	}
+
+	private static InsnList getField(String owner, String field, String desc) {
+		InsnList insns = new InsnList();
+		insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+		insns.add(new FieldInsnNode(Opcodes.GETFIELD, owner, field, desc));
+		insns.add(new InsnNode(Type.getType(desc).getOpcode(Opcodes.IRETURN)));
+		return insns;
+	}
+
+	private static InsnList setField(String owner, String field, String desc, AbstractInsnNode value) {
+		InsnList insns = new InsnList();
+		insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+		insns.add(value);
+		insns.add(new FieldInsnNode(Opcodes.PUTFIELD, owner, field, desc));
+		return insns;
+	}
+
+	private static void addMethod(ClassNode cls, String name, String desc, InsnList insns) {
+		MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC, name, desc, null, null);
+		method.instructions.add(insns);
+		cls.methods.add(method);
+	}
+}
@@ -0,0 +1,229 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import tcb.pr0x79.accessor.InterceptorContext;
+import tcb.pr0x79.data.MethodInterceptorData;
+import tcb.pr0x79.exception.InstrumentorException;
+
+import java.util.*;
+
+/**
+ * Copies the body of an interceptor into the intercepted method, see {@link tcb.pr0x79.accessor.Interceptor#inline()}.
+ * The local variables of the interceptor are moved behind the local variables of the intercepted method,
+ * returns become jumps to the end of the body and the {@link InterceptorContext} calls become loads and stores
+ * of local variables that replace the fields of the generated context class
+ */
+final class InterceptorInliner {
+	private static final String CONTEXT_CLASS = Type.getInternalName(InterceptorContext.class);
+
+	private final MethodInterceptorData interceptor;
+	private final MethodNode method;
+	//Slot of each interceptor parameter in the intercepted method
+	private final int[] paramSlots;
+	private final int contextSlot;
+	//Slot of the interceptor local variable 1 in the intercepted method
+	private final int base;
+	private final Map<String, Integer> stateSlots = new HashMap<>();
+
+	/**
+	 * Reserves the local variables of the inlined interceptor in the specified target method.
+	 * The slots are taken from {@link MethodNode#maxLocals}, the same counter generated context variables are allocated from,
+	 * so that they never alias the local variables of the target method or of other interceptions
+	 *
+	 * @param interceptor The interceptor
+	 * @param target      The intercepted method
+	 */
+	InterceptorInliner(MethodInterceptorData interceptor, MethodNode target) {
+		this.interceptor = interceptor;
+		this.method = interceptor.getInlinedMethod();
+		this.base = target.maxLocals;
+
+		Type[] params = Type.getArgumentTypes(this.method.desc);
+		this.paramSlots = new int[params.length];
+		int slot = 1;
+		for (int i = 0; i < params.length; i++) {
+			this.paramSlots[i] = this.mapSlot(slot);
+			slot += params[i].getSize();
+		}
+		this.contextSlot = this.paramSlots[interceptor.getContextParameter()];
+
+		int stateSlot = this.base + Math.max(this.method.maxLocals - 1, slot - 1);
+		this.stateSlots.put(InterceptorContextGenerator.FIELD_EXIT, stateSlot++);
+		this.stateSlots.put(InterceptorContextGenerator.FIELD_EXITING, stateSlot++);
+		this.stateSlots.put(InterceptorContextGenerator.FIELD_RETURN, stateSlot++);
+		this.stateSlots.put(InterceptorContextGenerator.FIELD_RETURNING, stateSlot++);
+		for (int i = 0, localVarIndex = 0; i < params.length; i++) {
+			if (i != interceptor.getContextParameter()) {
+				this.stateSlots.put(InterceptorContextGenerator.getLocalField(localVarIndex++), this.paramSlots[i]);
+			}
+		}
+
+		target.maxLocals = stateSlot;
+	}
+
+	/**
+	 * Returns the instructions that load the specified context state
+	 *
+	 * @param field The field of the state in the generated context class, see {@link InterceptorContextGenerator}
+	 * @param desc  The descriptor of the field
+	 * @return
+	 */
+	AbstractInsnNode load(String field, String desc) {
+		return new VarInsnNode(Type.getType(desc).getOpcode(Opcodes.ILOAD), this.stateSlots.get(field));
+	}
+
+	/**
+	 * Returns the inlined interceptor body. The try catch blocks of the interceptor
+	 * are added to the target method
+	 *
+	 * @param target           The intercepted method
+	 * @param targetLocalSlots The slots of the local variables passed to the interceptor
+	 * @return
+	 */
+	InsnList inline(MethodNode target, int[] targetLocalSlots) {
+		InsnList insns = new InsnList();
+
+		//Initialize the context state
+		insns.add(new InsnNode(Opcodes.ICONST_0));
+		insns.add(new VarInsnNode(Opcodes.ISTORE, this.stateSlots.get(InterceptorContextGenerator.FIELD_EXIT)));
+		insns.add(new InsnNode(Opcodes.ICONST_0));
+		insns.add(new VarInsnNode(Opcodes.ISTORE, this.stateSlots.get(InterceptorContextGenerator.FIELD_EXITING)));
+		insns.add(new InsnNode(Opcodes.ACONST_NULL));
+		insns.add(new VarInsnNode(Opcodes.ASTORE, this.stateSlots.get(InterceptorContextGenerator.FIELD_RETURN)));
+		insns.add(new InsnNode(Opcodes.ICONST_0));
+		insns.add(new VarInsnNode(Opcodes.ISTORE, this.stateSlots.get(InterceptorContextGenerator.FIELD_RETURNING)));
+
+		//Pass the local variables
+		Type[] localTypes = InterceptorContextGenerator.getLocalTypes(this.interceptor);
+		for (int i = 0; i < localTypes.length; i++) {
+			insns.add(new VarInsnNode(localTypes[i].getOpcode(Opcodes.ILOAD), targetLocalSlots[i]));
+			insns.add(new VarInsnNode(localTypes[i].getOpcode(Opcodes.ISTORE), this.stateSlots.get(InterceptorContextGenerator.getLocalField(i))));
+		}
+
+		Map<LabelNode, LabelNode> labels = new HashMap<>();
+		Iterator<AbstractInsnNode> insnIT = this.method.instructions.iterator();
+		while (insnIT.hasNext()) {
+			AbstractInsnNode insn = insnIT.next();
+			if (insn instanceof LabelNode) {
+				labels.put((LabelNode) insn, new LabelNode());
+			}
+		}
+
+		LabelNode end = new LabelNode();
+
+		insnIT = this.method.instructions.iterator();
+		while (insnIT.hasNext()) {
+			AbstractInsnNode insn = insnIT.next();
+			switch (insn.getType()) {
+				case AbstractInsnNode.LINE:
+				case AbstractInsnNode.FRAME:
+					//Line numbers refer to the accessor source and frames are recomputed
+					break;
+				case AbstractInsnNode.VAR_INSN: {
+					VarInsnNode varInsn = (VarInsnNode) insn;
+					int slot = this.mapSlot(varInsn.var);
+					if (slot == this.contextSlot) {
+						//The context is only used as receiver of the context calls below, which pop it again
+						insns.add(new InsnNode(Opcodes.ACONST_NULL));
+					} else {
+						insns.add(new VarInsnNode(varInsn.getOpcode(), slot));
+					}
+					break;
+				}
+				case AbstractInsnNode.IINC_INSN: {
+					IincInsnNode iincInsn = (IincInsnNode) insn;
+					insns.add(new IincInsnNode(this.mapSlot(iincInsn.var), iincInsn.incr));
+					break;
+				}
+				case AbstractInsnNode.METHOD_INSN:
+					if (CONTEXT_CLASS.equals(((MethodInsnNode) insn).owner)) {
+						insns.add(this.inlineContextCall((MethodInsnNode) insn));
+					} else {
+						insns.add(insn.clone(labels));
+					}
+					break;
+				default:
+					if (insn.getOpcode() == Opcodes.RETURN) {
+						insns.add(new JumpInsnNode(Opcodes.GOTO, end));
+					} else {
+						insns.add(insn.clone(labels));
+					}
+					break;
+			}
+		}
+
+		insns.add(end);
+
+		//The interceptor handlers are nested in any handler of the target method that covers the insertion point
+		List<TryCatchBlockNode> tryCatchBlocks = new ArrayList<>();
+		for (TryCatchBlockNode tryCatchBlock : this.method.tryCatchBlocks) {
+			tryCatchBlocks.add(new TryCatchBlockNode(labels.get(tryCatchBlock.start), labels.get(tryCatchBlock.end), labels.get(tryCatchBlock.handler), tryCatchBlock.type));
+		}
+		target.tryCatchBlocks.addAll(0, tryCatchBlocks);
+
+		return insns;
+	}
+
+	private int mapSlot(int slot) {
+		return slot == 0 ? 0 : this.base + slot - 1;
+	}
+
+	/**
+	 * Replaces a call on the context by loads and stores of the context state.
+	 * The context itself is on the stack below the arguments and must be popped
+	 *
+	 * @param call The call
+	 * @return
+	 */
+	private InsnList inlineContextCall(MethodInsnNode call) {
+		InsnList insns = new InsnList();
+		switch (call.name) {
+			case "exitAt":
+				insns.add(new VarInsnNode(Opcodes.ISTORE, this.stateSlots.get(InterceptorContextGenerator.FIELD_EXIT)));
+				insns.add(new InsnNode(Opcodes.POP));
+				insns.add(this.store(InterceptorContextGenerator.FIELD_EXITING, true));
+				break;
+			case "cancelExit":
+				insns.add(new InsnNode(Opcodes.POP));
+				insns.add(this.store(InterceptorContextGenerator.FIELD_EXITING, false));
+				break;
+			case "getExit":
+				insns.add(new InsnNode(Opcodes.POP));
+				insns.add(this.load(InterceptorContextGenerator.FIELD_EXIT, "I"));
+				break;
+			case "isExiting":
+				insns.add(new InsnNode(Opcodes.POP));
+				insns.add(this.load(InterceptorContextGenerator.FIELD_EXITING, "Z"));
+				break;
+			case "returnWith":
+				insns.add(new VarInsnNode(Opcodes.ASTORE, this.stateSlots.get(InterceptorContextGenerator.FIELD_RETURN)));
+				insns.add(new InsnNode(Opcodes.POP));
+				insns.add(this.store(InterceptorContextGenerator.FIELD_RETURNING, true));
+				break;
+			case "cancelReturn":
+				insns.add(new InsnNode(Opcodes.POP));
+				insns.add(this.store(InterceptorContextGenerator.FIELD_RETURNING, false));
+				break;
+			case "getReturn":
+				insns.add(new InsnNode(Opcodes.POP));
+				insns.add(this.load(InterceptorContextGenerator.FIELD_RETURN, "Ljava/lang/Object;"));
+				break;
+			case "isReturning":
+				insns.add(new InsnNode(Opcodes.POP));
+				insns.add(this.load(InterceptorContextGenerator.FIELD_RETURNING, "Z"));
+				break;
+			default:
+				throw new InstrumentorException(String.format("Cannot inline InterceptorContext#%s in interceptor %s#%s", call.name + call.desc, this.interceptor.getAccessorClass(), this.interceptor.getInterceptorMethod() + this.interceptor.getInterceptorMethodDesc()));
+		}
+		return insns;
+	}
+
+	private InsnList store(String field, boolean value) {
+		InsnList insns = new InsnList();
+		insns.add(new InsnNode(value ? Opcodes.ICONST_1 : Opcodes.ICONST_0));
+		insns.add(new VarInsnNode(Opcodes.ISTORE, this.stateSlots.get(field)));
+		return insns;
+	}
+}
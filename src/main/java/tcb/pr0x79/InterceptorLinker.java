@@ -0,0 +1,133 @@
+package tcb.pr0x79;
+
+import java.lang.invoke.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Links the <code>invokedynamic</code> interception sites to their interceptors.
+ * Every site is a {@link MutableCallSite} whose target is either the interceptor method,
+ * a replacement {@link MethodHandle} or a no-op if the interceptor is disabled. Changing the
+ * state of an interceptor relinks all of its sites, so the JIT compiles a disabled site down to nothing
+ * <p><b>The bootstrap method is called by instrumented classes and must not be called directly</b>
+ */
+public final class InterceptorLinker {
+	private static final Map<String, InterceptorState> STATES = new ConcurrentHashMap<>();
+	private static final MethodHandle NOOP;
+
+	static {
+		try {
+			NOOP = MethodHandles.lookup().findStatic(InterceptorLinker.class, "noop", MethodType.methodType(void.class));
+		} catch (NoSuchMethodException | IllegalAccessException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	private InterceptorLinker() {
+	}
+
+	/**
+	 * Bootstrap method of the interception sites
+	 *
+	 * @param lookup        The lookup of the instrumented class
+	 * @param name          The name of the interceptor method
+	 * @param type          The type of the site, the accessor followed by the interceptor parameters
+	 * @param interceptorId The interceptor ID, see {@link tcb.pr0x79.data.MethodInterceptorData#getId()}
+	 * @return
+	 * @throws NoSuchMethodException
+	 * @throws IllegalAccessException
+	 */
+	public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, String interceptorId) throws NoSuchMethodException, IllegalAccessException {
+		MethodHandle interceptor = lookup.findVirtual(type.parameterType(0), name, type.dropParameterTypes(0, 1));
+		InterceptorState state = getState(interceptorId);
+		synchronized (state) {
+			InterceptionSite site = new InterceptionSite(type, interceptor);
+			site.relink(state);
+			state.sites.add(new WeakReference<>(site));
+			return site;
+		}
+	}
+
+	/**
+	 * Enables or disables the interceptor with the specified ID.
+	 * A disabled interceptor is not called, the intercepted method continues as if
+	 * the interceptor returned without changes
+	 *
+	 * @param interceptorId The interceptor ID
+	 * @param enabled       Whether the interceptor is enabled
+	 */
+	static void setEnabled(String interceptorId, boolean enabled) {
+		InterceptorState state = getState(interceptorId);
+		synchronized (state) {
+			state.enabled = enabled;
+			state.relink();
+		}
+	}
+
+	/**
+	 * Replaces the interceptor with the specified ID by the specified {@link MethodHandle}
+	 *
+	 * @param interceptorId The interceptor ID
+	 * @param replacement   The replacement with the accessor as first parameter followed by the
+	 *                      interceptor parameters, or null to restore the original interceptor
+	 */
+	static void setReplacement(String interceptorId, MethodHandle replacement) {
+		InterceptorState state = getState(interceptorId);
+		synchronized (state) {
+			state.replacement = replacement;
+			state.relink();
+		}
+	}
+
+	private static InterceptorState getState(String interceptorId) {
+		return STATES.computeIfAbsent(interceptorId, id -> new InterceptorState());
+	}
+
+	private static void noop() {
+	}
+
+	private static final class InterceptorState {
+		//Sites are only referenced weakly so that they can be unloaded with their class
+		private final List<WeakReference<InterceptionSite>> sites = new ArrayList<>();
+		private boolean enabled = true;
+		private MethodHandle replacement;
+
+		private void relink() {
+			List<MutableCallSite> relinked = new ArrayList<>();
+			Iterator<WeakReference<InterceptionSite>> it = this.sites.iterator();
+			while (it.hasNext()) {
+				InterceptionSite site = it.next().get();
+				if (site == null) {
+					it.remove();
+				} else {
+					site.relink(this);
+					relinked.add(site);
+				}
+			}
+			MutableCallSite.syncAll(relinked.toArray(new MutableCallSite[0]));
+		}
+	}
+
+	private static final class InterceptionSite extends MutableCallSite {
+		private final MethodHandle interceptor;
+
+		private InterceptionSite(MethodType type, MethodHandle interceptor) {
+			super(type);
+			this.interceptor = interceptor;
+		}
+
+		private void relink(InterceptorState state) {
+			if (!state.enabled) {
+				this.setTarget(MethodHandles.dropArguments(NOOP, 0, this.type().parameterList()));
+			} else if (state.replacement != null) {
+				this.setTarget(state.replacement.asType(this.type()));
+			} else {
+				this.setTarget(this.interceptor);
+			}
+		}
+	}
+}
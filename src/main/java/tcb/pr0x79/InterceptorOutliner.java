@@ -0,0 +1,267 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import tcb.pr0x79.data.MethodInterceptorData;
+
+import java.util.*;
+
+/**
+ * Moves the interceptor calls of an instrumented method into private synthetic helper methods
+ * if the interceptions make the method too large for the JIT. A helper creates the context,
+ * calls the interceptor and returns the context, so only the helper call and the epilogue remain in
+ * the instrumented method. The thresholds default to the HotSpot <code>FreqInlineSize</code> and
+ * <code>HugeMethodLimit</code>
+ */
+final class InterceptorOutliner {
+	static final int DEFAULT_INLINING_THRESHOLD = 325;
+	static final int DEFAULT_HUGE_METHOD_THRESHOLD = 8000;
+
+	private final MethodSizeReport report = new MethodSizeReport();
+	private volatile int inliningThreshold = DEFAULT_INLINING_THRESHOLD;
+	private volatile int hugeMethodThreshold = DEFAULT_HUGE_METHOD_THRESHOLD;
+
+	/**
+	 * Sets the bytecode sizes a method must not cross due to the instrumentation
+	 *
+	 * @param inliningThreshold   The maximum size of methods the JIT inlines
+	 * @param hugeMethodThreshold The maximum size of methods the JIT compiles
+	 */
+	void setThresholds(int inliningThreshold, int hugeMethodThreshold) {
+		this.inliningThreshold = inliningThreshold;
+		this.hugeMethodThreshold = hugeMethodThreshold;
+	}
+
+	/**
+	 * Returns a string that identifies the thresholds, see {@link ClassCache}
+	 *
+	 * @return
+	 */
+	String getFingerprint() {
+		return "outlining:" + this.inliningThreshold + ":" + this.hugeMethodThreshold;
+	}
+
+	MethodSizeReport getReport() {
+		return this.report;
+	}
+
+	/**
+	 * Outlines the interceptions of all methods that crossed a threshold and reports them.
+	 * The largest interceptions are outlined first, until the method is below the crossed thresholds again.
+	 * Methods that still exceed a threshold after all interceptions were outlined are reported as such, see {@link MethodSizeReport#getExceedingEntries()}
+	 *
+	 * @param clsNode         The instrumented class
+	 * @param interceptions   The interceptions of the class
+	 * @param modifiedMethods Collects all existing methods that were modified
+	 */
+	void outline(ClassNode clsNode, Interceptions interceptions, Set<MethodNode> modifiedMethods) {
+		int inliningThreshold = this.inliningThreshold;
+		int hugeMethodThreshold = this.hugeMethodThreshold;
+
+		for (Map.Entry<MethodNode, Integer> originalSize : interceptions.originalSizes.entrySet()) {
+			MethodNode method = originalSize.getKey();
+			int wovenSize = getCodeSize(method.instructions);
+
+			if (!crosses(originalSize.getValue(), wovenSize, inliningThreshold) && !crosses(originalSize.getValue(), wovenSize, hugeMethodThreshold)) {
+				continue;
+			}
+
+			int outlined = 0;
+			int size = wovenSize;
+			List<Site> sites = interceptions.sites.get(method);
+			//Private interface methods require Java 9
+			if (sites != null && (method.access & Opcodes.ACC_STATIC) == 0 && (clsNode.access & Opcodes.ACC_INTERFACE) == 0) {
+				Map<Site, Integer> siteSizes = new IdentityHashMap<>();
+				for (Site site : sites) {
+					siteSizes.put(site, getCodeSize(site.first, site.last));
+				}
+				List<Site> largestSites = new ArrayList<>(sites);
+				largestSites.sort(Comparator.comparing(siteSizes::get, Comparator.reverseOrder()));
+
+				for (Site site : largestSites) {
+					if (!crosses(originalSize.getValue(), size, inliningThreshold) && !crosses(originalSize.getValue(), size, hugeMethodThreshold)) {
+						break;
+					}
+					this.outline(clsNode, method, site);
+					outlined++;
+					size = getCodeSize(method.instructions);
+				}
+				modifiedMethods.add(method);
+			}
+
+			this.report.add(new MethodSizeReport.Entry(clsNode.name, method.name + method.desc, originalSize.getValue(), wovenSize, size, outlined, inliningThreshold, hugeMethodThreshold));
+		}
+	}
+
+	private void outline(ClassNode clsNode, MethodNode method, Site site) {
+		Type[] localTypes = InterceptorContextGenerator.getLocalTypes(site.interceptor);
+
+		StringBuilder desc = new StringBuilder("(");
+		int[] helperSlots = new int[localTypes.length];
+		int slot = 1;
+		for (int i = 0; i < localTypes.length; i++) {
+			desc.append(localTypes[i].getDescriptor());
+			helperSlots[i] = slot;
+			slot += localTypes[i].getSize();
+		}
+		desc.append(')').append(Type.getObjectType(site.contextClass).getDescriptor());
+
+		Set<String> methodNames = new HashSet<>();
+		for (MethodNode clsMethod : clsNode.methods) {
+			methodNames.add(clsMethod.name);
+		}
+		int index = 0;
+		while (methodNames.contains(site.interceptor.getInterceptorMethod() + "$interception" + index)) {
+			index++;
+		}
+		String name = site.interceptor.getInterceptorMethod() + "$interception" + index;
+
+		MethodNode helper = new MethodNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC, name, desc.toString(), null, null);
+		helper.instructions.add(BytecodeInstrumentation.instrumentInterceptorCall(site.interceptor, site.contextClass, site.linkDynamically, helperSlots, slot));
+		helper.instructions.add(new VarInsnNode(Opcodes.ALOAD, slot));
+		helper.instructions.add(new InsnNode(Opcodes.ARETURN));
+		clsNode.methods.add(helper);
+
+		//Replace the call sequence by the helper call
+		InsnList call = new InsnList();
+		call.add(new VarInsnNode(Opcodes.ALOAD, 0));
+		for (int i = 0; i < localTypes.length; i++) {
+			call.add(new VarInsnNode(localTypes[i].getOpcode(Opcodes.ILOAD), site.localSlots[i]));
+		}
+		call.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, clsNode.name, name, helper.desc, false));
+		call.add(new VarInsnNode(Opcodes.ASTORE, site.contextVar));
+
+		method.instructions.insertBefore(site.first, call);
+
+		AbstractInsnNode insn = site.first;
+		while (insn != site.last) {
+			AbstractInsnNode next = insn.getNext();
+			method.instructions.remove(insn);
+			insn = next;
+		}
+		method.instructions.remove(site.last);
+	}
+
+	private static boolean crosses(int originalSize, int wovenSize, int threshold) {
+		return originalSize <= threshold && wovenSize > threshold;
+	}
+
+	/**
+	 * Returns the size of the bytecode the specified instructions are written as.
+	 * Assumes that constants fit into <code>ldc</code> and jumps don't need to be widened
+	 *
+	 * @param insns The instructions
+	 * @return
+	 */
+	static int getCodeSize(InsnList insns) {
+		return insns.size() == 0 ? 0 : getCodeSize(insns.getFirst(), insns.getLast());
+	}
+
+	/**
+	 * Returns the size of the bytecode the specified range of instructions is written as, see {@link #getCodeSize(InsnList)}
+	 *
+	 * @param first The first instruction
+	 * @param last  The last instruction, inclusive
+	 * @return
+	 */
+	private static int getCodeSize(AbstractInsnNode first, AbstractInsnNode last) {
+		int size = 0;
+		for (AbstractInsnNode insn = first; insn != last.getNext(); insn = insn.getNext()) {
+			switch (insn.getType()) {
+				case AbstractInsnNode.LABEL:
+				case AbstractInsnNode.LINE:
+				case AbstractInsnNode.FRAME:
+					break;
+				case AbstractInsnNode.INT_INSN:
+					size += insn.getOpcode() == Opcodes.SIPUSH ? 3 : 2;
+					break;
+				case AbstractInsnNode.VAR_INSN: {
+					int var = ((VarInsnNode) insn).var;
+					size += var < 4 && insn.getOpcode() != Opcodes.RET ? 1 : var > 255 ? 4 : 2;
+					break;
+				}
+				case AbstractInsnNode.IINC_INSN: {
+					IincInsnNode iinc = (IincInsnNode) insn;
+					size += iinc.var > 255 || iinc.incr > Byte.MAX_VALUE || iinc.incr < Byte.MIN_VALUE ? 6 : 3;
+					break;
+				}
+				case AbstractInsnNode.LDC_INSN: {
+					Object cst = ((LdcInsnNode) insn).cst;
+					size += cst instanceof Long || cst instanceof Double ? 3 : 2;
+					break;
+				}
+				case AbstractInsnNode.METHOD_INSN:
+					size += insn.getOpcode() == Opcodes.INVOKEINTERFACE ? 5 : 3;
+					break;
+				case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+					size += 5;
+					break;
+				case AbstractInsnNode.MULTIANEWARRAY_INSN:
+					size += 4;
+					break;
+				case AbstractInsnNode.TABLESWITCH_INSN:
+					size += 1 + (3 - size % 4) + 12 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+					break;
+				case AbstractInsnNode.LOOKUPSWITCH_INSN:
+					size += 1 + (3 - size % 4) + 8 + 8 * ((LookupSwitchInsnNode) insn).labels.size();
+					break;
+				case AbstractInsnNode.TYPE_INSN:
+				case AbstractInsnNode.FIELD_INSN:
+				case AbstractInsnNode.JUMP_INSN:
+					size += 3;
+					break;
+				default:
+					size += 1;
+					break;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Collects the interceptions of a class while it is instrumented
+	 */
+	static final class Interceptions {
+		//Bytecode size of the intercepted methods before the first interception was inserted
+		private final Map<MethodNode, Integer> originalSizes = new IdentityHashMap<>();
+		//Interceptor calls that can be outlined by intercepted method
+		private final Map<MethodNode, List<Site>> sites = new IdentityHashMap<>();
+
+		/**
+		 * Must be called before the first interception is inserted into the specified method
+		 *
+		 * @param method The intercepted method
+		 */
+		void addMethod(MethodNode method) {
+			this.originalSizes.computeIfAbsent(method, m -> getCodeSize(m.instructions));
+		}
+
+		void addSite(MethodNode method, Site site) {
+			this.sites.computeIfAbsent(method, m -> new ArrayList<>()).add(site);
+		}
+	}
+
+	/**
+	 * An interceptor call in an intercepted method, see {@link BytecodeInstrumentation#instrumentInterceptorCall(MethodInterceptorData, String, boolean, int[], int)}
+	 */
+	static final class Site {
+		private final MethodInterceptorData interceptor;
+		private final String contextClass;
+		private final boolean linkDynamically;
+		private final int[] localSlots;
+		private final int contextVar;
+		//First and last instruction of the call sequence in the intercepted method
+		private final AbstractInsnNode first, last;
+
+		Site(MethodInterceptorData interceptor, String contextClass, boolean linkDynamically, int[] localSlots, int contextVar, InsnList call) {
+			this.interceptor = interceptor;
+			this.contextClass = contextClass;
+			this.linkDynamically = linkDynamically;
+			this.localSlots = localSlots;
+			this.contextVar = contextVar;
+			this.first = call.getFirst();
+			this.last = call.getLast();
+		}
+	}
+}
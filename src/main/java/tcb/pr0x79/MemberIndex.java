@@ -0,0 +1,127 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+import tcb.pr0x79.mapping.identification.AnnotatedElementDescription;
+import tcb.pr0x79.mapping.identification.BytecodeIdentifier;
+
+import java.util.*;
+
+/**
+ * Indexes the methods and fields of a class by name and descriptor while it is instrumented, so that
+ * static identifiers are matched by looking up their data instead of testing every member.
+ * Members that are added to the class are indexed on the next lookup. Members must not be removed
+ */
+final class MemberIndex {
+	private final ClassNode clsNode;
+	private final Map<AnnotatedElementDescription, MethodNode> methods = new HashMap<>();
+	private final Map<AnnotatedElementDescription, FieldNode> fields = new HashMap<>();
+	private final Set<String> methodNames = new HashSet<>();
+	private final Map<String, List<FieldNode>> fieldsByName = new HashMap<>();
+	//Number of members that are already indexed
+	private int indexedMethods, indexedFields;
+
+	MemberIndex(ClassNode clsNode) {
+		this.clsNode = clsNode;
+	}
+
+	/**
+	 * Returns the method with the specified name and descriptor
+	 *
+	 * @param name The method name
+	 * @param desc The method descriptor
+	 * @return The method or null if the class has no such method
+	 */
+	MethodNode getMethod(String name, String desc) {
+		this.update();
+		return this.methods.get(AnnotatedElementDescription.methodDescription(name, desc));
+	}
+
+	/**
+	 * Returns whether the class has a method with the specified name
+	 *
+	 * @param name The method name
+	 * @return
+	 */
+	boolean hasMethod(String name) {
+		this.update();
+		return this.methodNames.contains(name);
+	}
+
+	/**
+	 * Returns all fields with the specified name
+	 *
+	 * @param name The field name
+	 * @return
+	 */
+	List<FieldNode> getFields(String name) {
+		this.update();
+		return this.fieldsByName.getOrDefault(name, Collections.emptyList());
+	}
+
+	/**
+	 * Returns the methods the specified method identifier can identify, i.e. the methods
+	 * in its data if it is static, otherwise all methods in declaration order
+	 *
+	 * @param identifier The identifier
+	 * @return
+	 */
+	List<MethodNode> getMethodCandidates(BytecodeIdentifier<?, ?> identifier) {
+		this.update();
+		if (!identifier.isStatic()) {
+			return new ArrayList<>(this.clsNode.methods);
+		}
+		return getCandidates(identifier, this.methods, this.clsNode.methods);
+	}
+
+	/**
+	 * Returns the fields the specified field identifier can identify, i.e. the fields
+	 * in its data if it is static, otherwise all fields in declaration order
+	 *
+	 * @param identifier The identifier
+	 * @return
+	 */
+	List<FieldNode> getFieldCandidates(BytecodeIdentifier<?, ?> identifier) {
+		this.update();
+		if (!identifier.isStatic()) {
+			return new ArrayList<>(this.clsNode.fields);
+		}
+		return getCandidates(identifier, this.fields, this.clsNode.fields);
+	}
+
+	private static <T> List<T> getCandidates(BytecodeIdentifier<?, ?> identifier, Map<AnnotatedElementDescription, T> members, List<T> order) {
+		List<T> candidates = new ArrayList<>();
+		for (Object description : identifier.getData()) {
+			T member = members.get(description);
+			if (member != null) {
+				candidates.add(member);
+			}
+		}
+		if (candidates.size() > 1) {
+			//Keep the declaration order so that errors are reported for the same member as before
+			Map<T, Integer> positions = new IdentityHashMap<>();
+			for (T candidate : candidates) {
+				positions.put(candidate, order.indexOf(candidate));
+			}
+			candidates.sort(Comparator.comparingInt(positions::get));
+		}
+		return candidates;
+	}
+
+	private void update() {
+		List<MethodNode> clsMethods = this.clsNode.methods;
+		for (; this.indexedMethods < clsMethods.size(); this.indexedMethods++) {
+			MethodNode method = clsMethods.get(this.indexedMethods);
+			this.methods.putIfAbsent(AnnotatedElementDescription.methodDescription(method.name, method.desc), method);
+			this.methodNames.add(method.name);
+		}
+
+		List<FieldNode> clsFields = this.clsNode.fields;
+		for (; this.indexedFields < clsFields.size(); this.indexedFields++) {
+			FieldNode field = clsFields.get(this.indexedFields);
+			this.fields.putIfAbsent(AnnotatedElementDescription.fieldDescription(field.name, field.desc), field);
+			this.fieldsByName.computeIfAbsent(field.name, name -> new ArrayList<>()).add(field);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+import tcb.pr0x79.mapping.identification.type.InstructionIdentification;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Caches the dataflow analyses and instruction identifications of the methods of a class while it is
+ * instrumented, so that all interceptors and exits of a method share them. Both are indexed by
+ * instruction index and must be invalidated whenever instructions are inserted into a method
+ */
+final class MethodAnalysisCache {
+	private final String owner;
+	private final Map<MethodNode, int[]> stackHeights = new IdentityHashMap<>();
+	private final Map<MethodNode, Frame<BasicValue>[]> frames = new IdentityHashMap<>();
+	private final Map<MethodNode, InstructionIdentification> identifications = new IdentityHashMap<>();
+
+	/**
+	 * @param owner The internal name of the class
+	 */
+	MethodAnalysisCache(String owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Returns the stack height before the specified instruction, see {@link StackHeightAnalyzer}
+	 *
+	 * @param method The method
+	 * @param index  The instruction index
+	 * @return The stack height in slots, -1 if the instruction is unreachable
+	 * @throws AnalyzerException
+	 */
+	int getStackHeight(MethodNode method, int index) throws AnalyzerException {
+		int[] heights = this.stackHeights.get(method);
+		if (heights == null) {
+			this.stackHeights.put(method, heights = StackHeightAnalyzer.analyze(method));
+		}
+		return heights[index];
+	}
+
+	/**
+	 * Returns the frame with the types of the locals and stack values before the specified instruction.
+	 * Slower than {@link #getStackHeight(MethodNode, int)}
+	 *
+	 * @param method The method
+	 * @param index  The instruction index
+	 * @return The frame, null if the instruction is unreachable
+	 * @throws AnalyzerException
+	 */
+	Frame<BasicValue> getFrame(MethodNode method, int index) throws AnalyzerException {
+		Frame<BasicValue>[] methodFrames = this.frames.get(method);
+		if (methodFrames == null) {
+			this.frames.put(method, methodFrames = new Analyzer<>(new BasicInterpreter()).analyze(this.owner, method));
+		}
+		return methodFrames[index];
+	}
+
+	/**
+	 * Returns the memoized instruction identification of the specified method
+	 *
+	 * @param method The method
+	 * @return
+	 */
+	InstructionIdentification getIdentification(MethodNode method) {
+		return this.identifications.computeIfAbsent(method, InstructionIdentification::new);
+	}
+
+	/**
+	 * Discards the analyses of the specified method
+	 *
+	 * @param method The modified method
+	 */
+	void invalidate(MethodNode method) {
+		this.stackHeights.remove(method);
+		this.frames.remove(method);
+		this.identifications.remove(method);
+	}
+}
@@ -0,0 +1,159 @@
+package tcb.pr0x79;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Lists the instrumented methods whose bytecode size crossed the JIT inlining or compilation threshold
+ * due to the interceptors, and whether outlining the interceptions brought them back below the threshold.
+ * Classes that are served from the {@link ClassCache} are not instrumented and therefore not reported.
+ * See {@link Bootstrapper#setOutliningThresholds(int, int)}
+ */
+public final class MethodSizeReport {
+	private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+
+	MethodSizeReport() {
+	}
+
+	void add(Entry entry) {
+		this.entries.add(entry);
+	}
+
+	/**
+	 * Returns all reported methods
+	 *
+	 * @return
+	 */
+	public List<Entry> getEntries() {
+		return new ArrayList<>(this.entries);
+	}
+
+	/**
+	 * Returns the reported methods that still exceed a threshold after outlining
+	 *
+	 * @return
+	 */
+	public List<Entry> getExceedingEntries() {
+		List<Entry> exceeding = new ArrayList<>();
+		for (Entry entry : this.entries) {
+			if (entry.isInliningChanged() || entry.isCompilationChanged()) {
+				exceeding.add(entry);
+			}
+		}
+		return exceeding;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		for (Entry entry : this.entries) {
+			report.append(entry).append('\n');
+		}
+		return report.toString();
+	}
+
+	public static final class Entry {
+		private final String className, method;
+		private final int originalSize, wovenSize, finalSize;
+		private final int outlinedInterceptions;
+		private final int inliningThreshold, hugeMethodThreshold;
+
+		Entry(String className, String method, int originalSize, int wovenSize, int finalSize, int outlinedInterceptions, int inliningThreshold, int hugeMethodThreshold) {
+			this.className = className;
+			this.method = method;
+			this.originalSize = originalSize;
+			this.wovenSize = wovenSize;
+			this.finalSize = finalSize;
+			this.outlinedInterceptions = outlinedInterceptions;
+			this.inliningThreshold = inliningThreshold;
+			this.hugeMethodThreshold = hugeMethodThreshold;
+		}
+
+		/**
+		 * Returns the internal name of the class
+		 *
+		 * @return
+		 */
+		public String getClassName() {
+			return this.className;
+		}
+
+		/**
+		 * Returns the method name and descriptor
+		 *
+		 * @return
+		 */
+		public String getMethod() {
+			return this.method;
+		}
+
+		/**
+		 * Returns the bytecode size before the instrumentation
+		 *
+		 * @return
+		 */
+		public int getOriginalSize() {
+			return this.originalSize;
+		}
+
+		/**
+		 * Returns the bytecode size after the instrumentation without outlining
+		 *
+		 * @return
+		 */
+		public int getWovenSize() {
+			return this.wovenSize;
+		}
+
+		/**
+		 * Returns the final bytecode size after outlining
+		 *
+		 * @return
+		 */
+		public int getFinalSize() {
+			return this.finalSize;
+		}
+
+		/**
+		 * Returns the number of interceptions that were moved into helper methods
+		 *
+		 * @return
+		 */
+		public int getOutlinedInterceptions() {
+			return this.outlinedInterceptions;
+		}
+
+		/**
+		 * Returns whether the method could be inlined by the JIT before, but not after the instrumentation
+		 *
+		 * @return
+		 */
+		public boolean isInliningChanged() {
+			return this.originalSize <= this.inliningThreshold && this.finalSize > this.inliningThreshold;
+		}
+
+		/**
+		 * Returns whether the method could be compiled by the JIT before, but not after the instrumentation
+		 *
+		 * @return
+		 */
+		public boolean isCompilationChanged() {
+			return this.originalSize <= this.hugeMethodThreshold && this.finalSize > this.hugeMethodThreshold;
+		}
+
+		@Override
+		public String toString() {
+			String status;
+			if (this.isCompilationChanged()) {
+				status = "no longer compiled";
+			} else if (this.isInliningChanged()) {
+				status = "no longer inlined";
+			} else {
+				status = "unchanged";
+			}
+			return String.format("%s#%s: %d -> %d bytes, %d after outlining %d interceptions, %s", this.className, this.method, this.originalSize, this.wovenSize, this.finalSize, this.outlinedInterceptions, status);
+		}
+	}
+}
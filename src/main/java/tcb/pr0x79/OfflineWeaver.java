@@ -0,0 +1,420 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import tcb.pr0x79.mapping.locator.ClassLocator;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the registered {@link Instrumentor}s ahead of time to a set of jars and writes
+ * the pre-instrumented jars to an output directory. Each output jar contains a woven manifest
+ * that lists the fingerprint of the instrumentation and the internal name and hashes of every class that was processed,
+ * so that the {@link Bootstrapper} can skip those classes at runtime, see {@link Bootstrapper#skipWovenClasses()}.
+ * <p>
+ * Usage: <code>OfflineWeaver --instrumentor &lt;class&gt; [--instrumentor &lt;class&gt; ...] --output &lt;dir&gt; [--threads &lt;n&gt;] &lt;jar&gt; [&lt;jar&gt; ...]</code>
+ */
+public final class OfflineWeaver {
+	/**
+	 * Location of the woven manifest in a woven jar
+	 */
+	public static final String WOVEN_MANIFEST = "META-INF/pr0x79/woven.list";
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final String CLASS_SUFFIX = ".class";
+	//First line of the woven manifest, followed by the fingerprint of the instrumentation
+	private static final String FINGERPRINT_PREFIX = "#fingerprint ";
+	//Original hash of the generated classes, which have no original bytes
+	private static final String GENERATED_CLASS = "-";
+	//Written to the output directory if any intercepted method crossed an outlining threshold
+	private static final String SIZE_REPORT = "method-sizes.txt";
+
+	private final List<Path> jars;
+	private final Path output;
+	private final int parallelism;
+
+	//Class bytes of all classes in the jar set by internal name, the first jar that contains a class wins like on a class path.
+	//Only used to resolve the class hierarchy, every jar is woven from its own class bytes
+	private final Map<String, byte[]> classes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param jars        The input jars
+	 * @param output      The output directory
+	 * @param parallelism The number of classes that are woven in parallel
+	 */
+	public OfflineWeaver(List<Path> jars, Path output, int parallelism) {
+		this.jars = jars;
+		this.output = output;
+		this.parallelism = parallelism;
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> instrumentors = new ArrayList<>();
+		List<Path> jars = new ArrayList<>();
+		Path output = null;
+		int parallelism = Runtime.getRuntime().availableProcessors();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--instrumentor":
+					instrumentors.add(args[++i]);
+					break;
+				case "--output":
+					output = Paths.get(args[++i]);
+					break;
+				case "--threads":
+					parallelism = Integer.parseInt(args[++i]);
+					break;
+				default:
+					jars.add(Paths.get(args[i]));
+					break;
+			}
+		}
+
+		if (instrumentors.isEmpty() || output == null || jars.isEmpty()) {
+			System.err.println("Usage: OfflineWeaver --instrumentor <class> [--instrumentor <class> ...] --output <dir> [--threads <n>] <jar> [<jar> ...]");
+			System.exit(1);
+			return;
+		}
+
+		new OfflineWeaver(jars, output, parallelism).weave(instrumentors.toArray(new String[0]));
+	}
+
+	/**
+	 * Initializes the {@link Bootstrapper} with the specified instrumentors and weaves all jars.
+	 * The {@link Bootstrapper} can only be initialized once, so this can only be called once per JVM
+	 *
+	 * @param instrumentorClasses The instrumentor class names
+	 * @throws IOException
+	 */
+	public void weave(String[] instrumentorClasses) throws IOException {
+		for (Path jar : this.jars) {
+			this.readClasses(jar);
+		}
+
+		Bootstrapper.initializeOffline(instrumentorClasses, this.createLocator());
+
+		//The runtime only skips the woven classes if it uses the same instrumentation
+		String fingerprint = Bootstrapper.INSTANCE.getFingerprint((name, hash) -> {
+			byte[] bytes = this.classes.get(name);
+			return bytes != null ? hash(bytes) : hash;
+		});
+
+		URL[] urls = new URL[this.jars.size()];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = this.jars.get(i).toUri().toURL();
+		}
+
+		Files.createDirectories(this.output);
+
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+		try (URLClassLoader loader = new URLClassLoader(urls, OfflineWeaver.class.getClassLoader())) {
+			for (Path jar : this.jars) {
+				this.weaveJar(pool, loader, jar, fingerprint);
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		MethodSizeReport report = Bootstrapper.INSTANCE.getMethodSizeReport();
+		if (!report.getEntries().isEmpty()) {
+			Files.write(this.output.resolve(SIZE_REPORT), report.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		for (MethodSizeReport.Entry entry : report.getExceedingEntries()) {
+			System.err.println(String.format("Warning: %s", entry));
+		}
+	}
+
+	/**
+	 * Returns a {@link ClassLocator} that resolves the classes of the jar set
+	 *
+	 * @return
+	 */
+	private ClassLocator createLocator() {
+		return (loader, internalClassName, flags) -> {
+			byte[] bytes = this.classes.get(internalClassName);
+			if (bytes == null) {
+				return null;
+			}
+
+			ClassNode node = new ClassNode();
+			new ClassReader(bytes).accept(node, flags);
+			return node;
+		};
+	}
+
+	private void readClasses(Path jar) throws IOException {
+		try (JarFile file = new JarFile(jar.toFile())) {
+			Enumeration<JarEntry> entries = file.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				if (isClass(entry)) {
+					try (InputStream stream = file.getInputStream(entry)) {
+						this.classes.putIfAbsent(entry.getName().substring(0, entry.getName().length() - CLASS_SUFFIX.length()), readFully(stream));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Weaves the classes of a jar in parallel and writes the woven jar
+	 * and its manifest to the output directory
+	 *
+	 * @param pool        The pool the classes are woven on
+	 * @param loader      The class loader of the jar set
+	 * @param jar         The input jar
+	 * @param fingerprint The fingerprint of the instrumentation that is written to the woven manifest
+	 * @throws IOException
+	 */
+	private void weaveJar(ForkJoinPool pool, ClassLoader loader, Path jar, String fingerprint) throws IOException {
+		try (JarFile file = new JarFile(jar.toFile())) {
+			List<JarEntry> entries = Collections.list(file.entries());
+
+			//The bytes of the entries of this jar, a class may also be contained in another jar of the set
+			Map<String, byte[]> original = new HashMap<>();
+			for (JarEntry entry : entries) {
+				if (isClass(entry)) {
+					try (InputStream stream = file.getInputStream(entry)) {
+						original.put(entry.getName(), readFully(stream));
+					}
+				}
+			}
+
+			Map<String, byte[]> woven;
+			try {
+				woven = pool.submit(() -> original.entrySet().parallelStream()
+						.collect(Collectors.toConcurrentMap(Map.Entry::getKey, entry -> {
+							String className = entry.getKey().substring(0, entry.getKey().length() - CLASS_SUFFIX.length());
+							return Bootstrapper.INSTANCE.transform(loader, className, entry.getValue());
+						}))).get();
+			} catch (InterruptedException | ExecutionException ex) {
+				throw new IOException(String.format("Failed weaving jar %s", jar), ex);
+			}
+
+			//The runtime skips all classes of the woven manifest, so a class that could not be woven must not be written
+			Map<String, Exception> failedClasses = Bootstrapper.INSTANCE.takeFailedClasses();
+			if (!failedClasses.isEmpty()) {
+				IOException ex = new IOException(String.format("Failed weaving %d classes of jar %s: %s", failedClasses.size(), jar, String.join(", ", failedClasses.keySet())));
+				failedClasses.values().forEach(ex::addSuppressed);
+				throw ex;
+			}
+
+			try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(this.output.resolve(jar.getFileName()))))) {
+				StringBuilder manifest = new StringBuilder();
+				manifest.append(FINGERPRINT_PREFIX).append(fingerprint).append('\n');
+
+				for (JarEntry entry : entries) {
+					//The signatures no longer match the woven classes
+					if (entry.getName().equals(WOVEN_MANIFEST) || isSignature(entry.getName())) {
+						continue;
+					}
+
+					out.putNextEntry(new JarEntry(entry.getName()));
+
+					byte[] bytes = woven.get(entry.getName());
+					if (bytes != null) {
+						out.write(bytes);
+						String className = entry.getName().substring(0, entry.getName().length() - CLASS_SUFFIX.length());
+						manifest.append(className).append(' ').append(hash(bytes)).append(' ').append(hash(original.get(entry.getName()))).append('\n');
+					} else if (entry.getName().equalsIgnoreCase(JarFile.MANIFEST_NAME) && file.getManifest() != null) {
+						removeDigests(file.getManifest()).write(out);
+					} else if (!entry.isDirectory()) {
+						try (InputStream stream = file.getInputStream(entry)) {
+							out.write(readFully(stream));
+						}
+					}
+
+					out.closeEntry();
+				}
+
+				//Classes generated for the accessors of this jar
+				for (Map.Entry<String, byte[]> generatedClass : Bootstrapper.INSTANCE.takeGeneratedClasses().entrySet()) {
+					out.putNextEntry(new JarEntry(generatedClass.getKey() + CLASS_SUFFIX));
+					out.write(generatedClass.getValue());
+					out.closeEntry();
+					manifest.append(generatedClass.getKey()).append(' ').append(hash(generatedClass.getValue())).append(' ').append(GENERATED_CLASS).append('\n');
+				}
+
+				out.putNextEntry(new JarEntry(WOVEN_MANIFEST));
+				out.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+				out.closeEntry();
+			}
+		}
+	}
+
+	/**
+	 * Reads the woven manifests of all jars that are visible to the specified class loader
+	 *
+	 * @param loader The class loader
+	 * @return
+	 * @throws IOException
+	 */
+	static List<WovenManifest> readWovenManifests(ClassLoader loader) throws IOException {
+		List<WovenManifest> woven = new ArrayList<>();
+
+		Enumeration<URL> manifests = loader != null ? loader.getResources(WOVEN_MANIFEST) : ClassLoader.getSystemResources(WOVEN_MANIFEST);
+		while (manifests.hasMoreElements()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(manifests.nextElement().openStream(), StandardCharsets.UTF_8))) {
+				String fingerprint = null;
+				Map<String, String[]> hashes = new HashMap<>();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith(FINGERPRINT_PREFIX)) {
+						fingerprint = line.substring(FINGERPRINT_PREFIX.length());
+						continue;
+					}
+					String[] columns = line.split(" ");
+					if (columns.length == 3) {
+						hashes.putIfAbsent(columns[0], new String[]{columns[1], columns[2]});
+					}
+				}
+				woven.add(new WovenManifest(fingerprint, hashes));
+			}
+		}
+
+		return woven;
+	}
+
+	/**
+	 * Returns the hash of the original bytes of a class that may have been woven
+	 *
+	 * @param manifests The woven manifests
+	 * @param name      The internal name of the class
+	 * @param hash      The hash of the class bytes that are visible at runtime
+	 * @return The hash of the original class bytes, the specified hash if the class was not woven
+	 * or null if the class was generated while weaving
+	 */
+	static String getOriginalHash(List<WovenManifest> manifests, String name, String hash) {
+		for (WovenManifest manifest : manifests) {
+			String[] hashes = manifest.hashes.get(name);
+			if (hashes != null && hashes[0].equals(hash)) {
+				return hashes[1].equals(GENERATED_CLASS) ? null : hashes[1];
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the woven classes of all manifests that were woven with the specified fingerprint.
+	 * Manifests of a different instrumentation are ignored, so their classes are transformed again
+	 *
+	 * @param manifests   The woven manifests
+	 * @param fingerprint The fingerprint of the runtime instrumentation
+	 * @return The hashes of the woven classes by internal name
+	 */
+	static Map<String, String> getWovenClasses(List<WovenManifest> manifests, String fingerprint) {
+		Map<String, String> woven = new HashMap<>();
+		for (WovenManifest manifest : manifests) {
+			if (fingerprint.equals(manifest.fingerprint)) {
+				for (Map.Entry<String, String[]> cls : manifest.hashes.entrySet()) {
+					woven.putIfAbsent(cls.getKey(), cls.getValue()[0]);
+				}
+			}
+		}
+		return woven;
+	}
+
+	/**
+	 * Returns the hash of the class bytes that is stored in the woven manifest
+	 *
+	 * @param bytes The class bytes
+	 * @return
+	 */
+	static String hash(byte[] bytes) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM).digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		char[] chars = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns whether the specified entry is a class file that is woven. Versioned class files of
+	 * multi-release jars in <code>META-INF/versions/</code> are copied unchanged and transformed at runtime
+	 * instead, because their hashes don't match the woven manifest
+	 */
+	private static boolean isClass(JarEntry entry) {
+		return !entry.isDirectory() && entry.getName().endsWith(CLASS_SUFFIX) && !entry.getName().endsWith("module-info.class") && !entry.getName().startsWith("META-INF/");
+	}
+
+	/**
+	 * Returns whether the specified entry is a signature file of a signed jar
+	 */
+	private static boolean isSignature(String name) {
+		if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+			return false;
+		}
+		String upperName = name.toUpperCase(Locale.ROOT);
+		return upperName.endsWith(".SF") || upperName.endsWith(".RSA") || upperName.endsWith(".DSA") || upperName.endsWith(".EC") || upperName.startsWith("META-INF/SIG-");
+	}
+
+	/**
+	 * Returns a copy of the specified jar manifest without the digests of the signed entries.
+	 * Entries that only contained digests are removed
+	 */
+	private static Manifest removeDigests(Manifest manifest) {
+		Manifest copy = new Manifest();
+		copy.getMainAttributes().putAll(manifest.getMainAttributes());
+		for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+			Attributes attributes = new Attributes(entry.getValue());
+			attributes.keySet().removeIf(key -> key.toString().toUpperCase(Locale.ROOT).endsWith("-DIGEST"));
+			if (!attributes.isEmpty()) {
+				copy.getEntries().put(entry.getKey(), attributes);
+			}
+		}
+		return copy;
+	}
+
+	private static byte[] readFully(InputStream stream) throws IOException {
+		byte[] buffer = new byte[4096];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int read;
+		while ((read = stream.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * The woven manifest of a woven jar
+	 */
+	static final class WovenManifest {
+		//The fingerprint of the instrumentation the jar was woven with, null for manifests of older versions
+		private final String fingerprint;
+		//The hashes of the woven and of the original class bytes by internal name
+		private final Map<String, String[]> hashes;
+
+		private WovenManifest(String fingerprint, Map<String, String[]> hashes) {
+			this.fingerprint = fingerprint;
+			this.hashes = hashes;
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the operand stack height before each instruction of a method, in slots.
+ * Unlike {@link org.objectweb.asm.tree.analysis.Analyzer} this neither tracks types nor
+ * allocates frames, so it is cheap enough to run on large methods
+ */
+final class StackHeightAnalyzer {
+	private final MethodNode method;
+	private final AbstractInsnNode[] insns;
+	private final int[] heights;
+	private final int[] queue;
+	private int queued;
+
+	private StackHeightAnalyzer(MethodNode method) {
+		this.method = method;
+		this.insns = method.instructions.toArray();
+		this.heights = new int[this.insns.length];
+		this.queue = new int[this.insns.length];
+		Arrays.fill(this.heights, -1);
+	}
+
+	/**
+	 * Returns the stack height before each instruction of the specified method
+	 *
+	 * @param method The method
+	 * @return The stack heights by instruction index, -1 if the instruction is unreachable
+	 * @throws AnalyzerException if the stack heights of the method are inconsistent
+	 */
+	static int[] analyze(MethodNode method) throws AnalyzerException {
+		StackHeightAnalyzer analyzer = new StackHeightAnalyzer(method);
+		if (analyzer.insns.length != 0) {
+			analyzer.run();
+		}
+		return analyzer.heights;
+	}
+
+	private void run() throws AnalyzerException {
+		InsnList instructions = this.method.instructions;
+
+		//Handlers by covered instruction
+		List<List<Integer>> handlers = new ArrayList<>(this.insns.length);
+		for (int i = 0; i < this.insns.length; i++) {
+			handlers.add(null);
+		}
+		if (this.method.tryCatchBlocks != null) {
+			for (TryCatchBlockNode tryCatchBlock : this.method.tryCatchBlocks) {
+				int handler = instructions.indexOf(tryCatchBlock.handler);
+				for (int i = instructions.indexOf(tryCatchBlock.start), end = instructions.indexOf(tryCatchBlock.end); i < end; i++) {
+					if (handlers.get(i) == null) {
+						handlers.set(i, new ArrayList<>());
+					}
+					handlers.get(i).add(handler);
+				}
+			}
+		}
+
+		this.merge(null, 0, 0);
+		while (this.queued > 0) {
+			int index = this.queue[--this.queued];
+			AbstractInsnNode insn = this.insns[index];
+			int height = this.heights[index];
+
+			if (handlers.get(index) != null) {
+				for (int handler : handlers.get(index)) {
+					//Handlers start with the exception on the stack
+					this.merge(insn, handler, 1);
+				}
+			}
+
+			int opcode = insn.getOpcode();
+			switch (insn.getType()) {
+				case AbstractInsnNode.JUMP_INSN: {
+					int target = instructions.indexOf(((JumpInsnNode) insn).label);
+					if (opcode == Opcodes.GOTO) {
+						this.merge(insn, target, height);
+					} else if (opcode == Opcodes.JSR) {
+						//The subroutine starts with the return address on the stack and returns to the next instruction
+						this.merge(insn, target, height + 1);
+						this.merge(insn, index + 1, height);
+					} else {
+						int next = height + getDelta(insn);
+						this.merge(insn, target, next);
+						this.merge(insn, index + 1, next);
+					}
+					break;
+				}
+				case AbstractInsnNode.TABLESWITCH_INSN: {
+					TableSwitchInsnNode switchInsn = (TableSwitchInsnNode) insn;
+					this.merge(insn, instructions.indexOf(switchInsn.dflt), height - 1);
+					for (LabelNode label : switchInsn.labels) {
+						this.merge(insn, instructions.indexOf(label), height - 1);
+					}
+					break;
+				}
+				case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+					LookupSwitchInsnNode switchInsn = (LookupSwitchInsnNode) insn;
+					this.merge(insn, instructions.indexOf(switchInsn.dflt), height - 1);
+					for (LabelNode label : switchInsn.labels) {
+						this.merge(insn, instructions.indexOf(label), height - 1);
+					}
+					break;
+				}
+				default:
+					if ((opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW || opcode == Opcodes.RET) {
+						//No successor, RET continues after the JSR
+						break;
+					}
+					this.merge(insn, index + 1, height + getDelta(insn));
+					break;
+			}
+		}
+	}
+
+	private void merge(AbstractInsnNode insn, int index, int height) throws AnalyzerException {
+		if (index >= this.insns.length) {
+			throw new AnalyzerException(insn, "Execution can fall off the end of the code");
+		}
+		if (height < 0) {
+			throw new AnalyzerException(insn, "Cannot pop operand off an empty stack");
+		}
+		if (this.heights[index] == -1) {
+			this.heights[index] = height;
+			this.queue[this.queued++] = index;
+		} else if (this.heights[index] != height) {
+			throw new AnalyzerException(this.insns[index], String.format("Incompatible stack heights %d and %d", this.heights[index], height));
+		}
+	}
+
+	/**
+	 * Returns by how many slots the specified instruction changes the stack height
+	 * if it continues with the next instruction or a jump target
+	 *
+	 * @param insn The instruction
+	 * @return
+	 */
+	private static int getDelta(AbstractInsnNode insn) {
+		int opcode = insn.getOpcode();
+		switch (opcode) {
+			case Opcodes.ACONST_NULL:
+			case Opcodes.ICONST_M1:
+			case Opcodes.ICONST_0:
+			case Opcodes.ICONST_1:
+			case Opcodes.ICONST_2:
+			case Opcodes.ICONST_3:
+			case Opcodes.ICONST_4:
+			case Opcodes.ICONST_5:
+			case Opcodes.FCONST_0:
+			case Opcodes.FCONST_1:
+			case Opcodes.FCONST_2:
+			case Opcodes.BIPUSH:
+			case Opcodes.SIPUSH:
+			case Opcodes.ILOAD:
+			case Opcodes.FLOAD:
+			case Opcodes.ALOAD:
+			case Opcodes.DUP:
+			case Opcodes.DUP_X1:
+			case Opcodes.DUP_X2:
+			case Opcodes.I2L:
+			case Opcodes.I2D:
+			case Opcodes.F2L:
+			case Opcodes.F2D:
+			case Opcodes.NEW:
+				return 1;
+			case Opcodes.LCONST_0:
+			case Opcodes.LCONST_1:
+			case Opcodes.DCONST_0:
+			case Opcodes.DCONST_1:
+			case Opcodes.LLOAD:
+			case Opcodes.DLOAD:
+			case Opcodes.DUP2:
+			case Opcodes.DUP2_X1:
+			case Opcodes.DUP2_X2:
+				return 2;
+			case Opcodes.IALOAD:
+			case Opcodes.FALOAD:
+			case Opcodes.AALOAD:
+			case Opcodes.BALOAD:
+			case Opcodes.CALOAD:
+			case Opcodes.SALOAD:
+			case Opcodes.ISTORE:
+			case Opcodes.FSTORE:
+			case Opcodes.ASTORE:
+			case Opcodes.POP:
+			case Opcodes.IADD:
+			case Opcodes.FADD:
+			case Opcodes.ISUB:
+			case Opcodes.FSUB:
+			case Opcodes.IMUL:
+			case Opcodes.FMUL:
+			case Opcodes.IDIV:
+			case Opcodes.FDIV:
+			case Opcodes.IREM:
+			case Opcodes.FREM:
+			case Opcodes.ISHL:
+			case Opcodes.LSHL:
+			case Opcodes.ISHR:
+			case Opcodes.LSHR:
+			case Opcodes.IUSHR:
+			case Opcodes.LUSHR:
+			case Opcodes.IAND:
+			case Opcodes.IOR:
+			case Opcodes.IXOR:
+			case Opcodes.L2I:
+			case Opcodes.L2F:
+			case Opcodes.D2I:
+			case Opcodes.D2F:
+			case Opcodes.FCMPL:
+			case Opcodes.FCMPG:
+			case Opcodes.IFEQ:
+			case Opcodes.IFNE:
+			case Opcodes.IFLT:
+			case Opcodes.IFGE:
+			case Opcodes.IFGT:
+			case Opcodes.IFLE:
+			case Opcodes.MONITORENTER:
+			case Opcodes.MONITOREXIT:
+			case Opcodes.IFNULL:
+			case Opcodes.IFNONNULL:
+				return -1;
+			case Opcodes.LSTORE:
+			case Opcodes.DSTORE:
+			case Opcodes.POP2:
+			case Opcodes.LADD:
+			case Opcodes.DADD:
+			case Opcodes.LSUB:
+			case Opcodes.DSUB:
+			case Opcodes.LMUL:
+			case Opcodes.DMUL:
+			case Opcodes.LDIV:
+			case Opcodes.DDIV:
+			case Opcodes.LREM:
+			case Opcodes.DREM:
+			case Opcodes.LAND:
+			case Opcodes.LOR:
+			case Opcodes.LXOR:
+			case Opcodes.IF_ICMPEQ:
+			case Opcodes.IF_ICMPNE:
+			case Opcodes.IF_ICMPLT:
+			case Opcodes.IF_ICMPGE:
+			case Opcodes.IF_ICMPGT:
+			case Opcodes.IF_ICMPLE:
+			case Opcodes.IF_ACMPEQ:
+			case Opcodes.IF_ACMPNE:
+				return -2;
+			case Opcodes.IASTORE:
+			case Opcodes.FASTORE:
+			case Opcodes.AASTORE:
+			case Opcodes.BASTORE:
+			case Opcodes.CASTORE:
+			case Opcodes.SASTORE:
+			case Opcodes.LCMP:
+			case Opcodes.DCMPL:
+			case Opcodes.DCMPG:
+				return -3;
+			case Opcodes.LASTORE:
+			case Opcodes.DASTORE:
+				return -4;
+			case Opcodes.LDC: {
+				Object cst = ((LdcInsnNode) insn).cst;
+				if (cst instanceof ConstantDynamic) {
+					return ((ConstantDynamic) cst).getSize();
+				}
+				return cst instanceof Long || cst instanceof Double ? 2 : 1;
+			}
+			case Opcodes.GETSTATIC:
+				return Type.getType(((FieldInsnNode) insn).desc).getSize();
+			case Opcodes.PUTSTATIC:
+				return -Type.getType(((FieldInsnNode) insn).desc).getSize();
+			case Opcodes.GETFIELD:
+				return Type.getType(((FieldInsnNode) insn).desc).getSize() - 1;
+			case Opcodes.PUTFIELD:
+				return -Type.getType(((FieldInsnNode) insn).desc).getSize() - 1;
+			case Opcodes.INVOKEVIRTUAL:
+			case Opcodes.INVOKESPECIAL:
+			case Opcodes.INVOKEINTERFACE: {
+				//The argument size includes the receiver
+				int sizes = Type.getArgumentsAndReturnSizes(((MethodInsnNode) insn).desc);
+				return (sizes & 0x03) - (sizes >> 2);
+			}
+			case Opcodes.INVOKESTATIC: {
+				int sizes = Type.getArgumentsAndReturnSizes(((MethodInsnNode) insn).desc);
+				return (sizes & 0x03) - (sizes >> 2) + 1;
+			}
+			case Opcodes.INVOKEDYNAMIC: {
+				int sizes = Type.getArgumentsAndReturnSizes(((InvokeDynamicInsnNode) insn).desc);
+				return (sizes & 0x03) - (sizes >> 2) + 1;
+			}
+			case Opcodes.MULTIANEWARRAY:
+				return 1 - ((MultiANewArrayInsnNode) insn).dims;
+			default:
+				//Labels, line numbers, frames, IINC, unary operations, conversions between types of the same size,
+				//SWAP, LALOAD, DALOAD, NEWARRAY, ANEWARRAY, ARRAYLENGTH, CHECKCAST, INSTANCEOF, GOTO
+				return 0;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package tcb.pr0x79;
+
+import org.objectweb.asm.Opcodes;
+import tcb.pr0x79.ClassHierarchy.ClassData;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the supertype closure of the classes in a {@link ClassHierarchy} per class loader.
+ * The superclass chain of a class is stored as an array of {@link ClassSymbols} IDs and all implemented
+ * interfaces as a bit set over those IDs, so assignability and common superclass queries don't need
+ * to walk the hierarchy again. Common superclass results are additionally memoized per pair of classes
+ */
+final class SupertypeClosures {
+	private static final String OBJECT = "java/lang/Object";
+	//Maximum number of memoized common superclasses per class loader
+	private static final int MAX_COMMON_SUPERCLASSES = 16384;
+
+	private final ClassHierarchy hierarchy;
+	private final ClassSymbols symbols;
+	private final ClassLoaderMap<LoaderClosures> loaders = new ClassLoaderMap<>(LoaderClosures::new);
+
+	SupertypeClosures(ClassHierarchy hierarchy, ClassSymbols symbols) {
+		this.hierarchy = hierarchy;
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Returns the internal name of the common superclass of the two specified classes,
+	 * or <code>java/lang/Object</code> if either class is an interface that is not
+	 * assignable from the other class
+	 *
+	 * @param loader The class loader that is loading the class that references the two classes
+	 * @param type1  The internal name of the first class
+	 * @param type2  The internal name of the second class
+	 * @return
+	 */
+	String getCommonSuperClass(ClassLoader loader, String type1, String type2) {
+		LoaderClosures closures = this.loaders.getOrCreate(loader);
+
+		long key = ((long) this.symbols.getId(type1) << 32) | (this.symbols.getId(type2) & 0xFFFFFFFFL);
+		Integer common = closures.commonSuperclasses.get(key);
+		if (common != null) {
+			return this.symbols.getName(common);
+		}
+
+		Closure closure1 = this.getClosure(loader, closures, type1);
+		Closure closure2 = this.getClosure(loader, closures, type2);
+
+		int result;
+		if (closure1.isAssignableFrom(closure2)) {
+			result = closure1.getId();
+		} else if (closure2.isAssignableFrom(closure1)) {
+			result = closure2.getId();
+		} else if (closure1.isInterface || closure2.isInterface) {
+			result = this.symbols.getId(OBJECT);
+		} else {
+			//Both chains end with java/lang/Object, so the common superclasses are a common suffix
+			int[] superclasses1 = closure1.superclasses;
+			int[] superclasses2 = closure2.superclasses;
+			result = this.symbols.getId(OBJECT);
+			for (int i = superclasses1.length - 1, j = superclasses2.length - 1; i >= 0 && j >= 0 && superclasses1[i] == superclasses2[j]; i--, j--) {
+				result = superclasses1[i];
+			}
+		}
+
+		if (closures.commonSuperclasses.size() < MAX_COMMON_SUPERCLASSES) {
+			closures.commonSuperclasses.put(key, result);
+		}
+
+		return this.symbols.getName(result);
+	}
+
+	/**
+	 * Returns whether a value of the specified subtype can be assigned to the specified type
+	 *
+	 * @param loader  The class loader that is loading the class that references the two classes
+	 * @param type    The internal name of the type
+	 * @param subtype The internal name of the potential subtype
+	 * @return
+	 */
+	boolean isAssignableFrom(ClassLoader loader, String type, String subtype) {
+		LoaderClosures closures = this.loaders.getOrCreate(loader);
+		return this.getClosure(loader, closures, type).isAssignableFrom(this.getClosure(loader, closures, subtype));
+	}
+
+	private Closure getClosure(ClassLoader loader, LoaderClosures closures, String type) {
+		Closure closure = closures.closures.get(type);
+		if (closure != null) {
+			return closure;
+		}
+
+		ClassData cls = this.hierarchy.getClass(loader, type, null);
+		if (cls == null) {
+			throw new RuntimeException(String.format("Class %s was not found in class hierarchy", type));
+		}
+
+		int id = this.symbols.getId(cls.name);
+		boolean isInterface = (cls.access & Opcodes.ACC_INTERFACE) != 0;
+
+		int[] superclasses;
+		BitSet interfaces = new BitSet();
+
+		if (cls.superclass != null) {
+			Closure superclass = this.getClosure(loader, closures, cls.superclass);
+			superclasses = new int[superclass.superclasses.length + 1];
+			System.arraycopy(superclass.superclasses, 0, superclasses, 1, superclass.superclasses.length);
+			interfaces.or(superclass.interfaces);
+		} else {
+			superclasses = new int[1];
+		}
+		superclasses[0] = id;
+
+		if (isInterface) {
+			interfaces.set(id);
+		}
+		for (String itf : cls.interfaces) {
+			interfaces.or(this.getClosure(loader, closures, itf).interfaces);
+		}
+
+		closure = new Closure(superclasses, interfaces, isInterface);
+
+		//Closures are computed recursively and therefore can't be computed inside ConcurrentHashMap#computeIfAbsent
+		Closure previous = closures.closures.putIfAbsent(this.symbols.getName(id), closure);
+		return previous != null ? previous : closure;
+	}
+
+	private static final class LoaderClosures {
+		private final Map<String, Closure> closures = new ConcurrentHashMap<>();
+		//Common superclass IDs by the IDs of both classes
+		private final Map<Long, Integer> commonSuperclasses = new ConcurrentHashMap<>();
+	}
+
+	private static final class Closure {
+		//The class itself followed by all its superclasses up to java/lang/Object
+		private final int[] superclasses;
+		//All implemented interfaces, including the class itself if it is an interface
+		private final BitSet interfaces;
+		private final boolean isInterface;
+
+		private Closure(int[] superclasses, BitSet interfaces, boolean isInterface) {
+			this.superclasses = superclasses;
+			this.interfaces = interfaces;
+			this.isInterface = isInterface;
+		}
+
+		private int getId() {
+			return this.superclasses[0];
+		}
+
+		private boolean isAssignableFrom(Closure subtype) {
+			if (this.isInterface) {
+				return subtype.interfaces.get(this.getId());
+			}
+
+			//The superclass chain of a subclass ends with the superclass chain of this class
+			int offset = subtype.superclasses.length - this.superclasses.length;
+			return offset >= 0 && subtype.superclasses[offset] == this.getId();
+		}
+	}
+}
@@ -42,4 +42,16 @@ public @interface Interceptor {
 	 * @return
 	 */
 	@Internal(id = "instruction_identifier") String instructionIdentifier();
+
+	/**
+	 * Whether the body of the interceptor should be copied into the intercepted method
+	 * instead of calling it. Removes the interface dispatch on the intercepted method, but the
+	 * interceptor can then neither be disabled nor swapped at runtime. The interceptor body must only reference
+	 * classes and members that are accessible from the intercepted class. Interceptors that are too large,
+	 * use lambdas, private or super methods, {@link InterceptorContext#getLocalVariables()} or pass
+	 * the {@link InterceptorContext} on are always called
+	 *
+	 * @return
+	 */
+	@Internal(id = "inline") boolean inline() default false;
 }
@@ -6,6 +6,7 @@ import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 import tcb.pr0x79.BytecodeInstrumentation;
+import tcb.pr0x79.IdentificationMemo;
 import tcb.pr0x79.exception.InstrumentorException;
 import tcb.pr0x79.exception.accessor.method.InvalidMethodModifierException;
 import tcb.pr0x79.exception.accessor.method.InvalidReturnTypeException;
@@ -42,7 +43,7 @@ public final class ClassAccessorData {
 	private final List<ElementAccessorData<MethodNode, Type>> fieldGenerators = new ArrayList<>();
 	private final List<MethodInterceptorData> methodInterceptors = new ArrayList<>();
 
-	private String identified;
+	private final IdentificationMemo classIdentification = new IdentificationMemo();
 
 	public ClassAccessorData(String identifierId, MapperRegistry mapperRegistry, String accessorClass, ClassNode clsNode, ClassIdentifier classIdentifier, BytecodeInstrumentation instrumentor) {
 		this.identifierId = identifierId;
@@ -55,7 +56,7 @@ public final class ClassAccessorData {
 			isAccessorOrInterceptor |= this.identifyMethodAccessor(method, mapperRegistry);
 			isAccessorOrInterceptor |= this.identifyFieldAccessor(method, mapperRegistry);
 			isAccessorOrInterceptor |= this.identifyFieldGenerator(method, mapperRegistry);
-			isAccessorOrInterceptor |= this.identifyMethodInterceptor(method, mapperRegistry, clsNode.name, identifierId);
+			isAccessorOrInterceptor |= this.identifyMethodInterceptor(method, mapperRegistry, clsNode, identifierId);
 
 			if (!isAccessorOrInterceptor && (method.access & Opcodes.ACC_ABSTRACT) != 0 && (method.access & Opcodes.ACC_STATIC) == 0) {
 				throw new InstrumentorException(String.format("Class accessor %s has an abstract method: %s", accessorClass, method.name + method.desc));
@@ -64,16 +65,12 @@ public final class ClassAccessorData {
 	}
 
 	/**
-	 * Returns the identified class
+	 * Returns the memoized results of the class identifier
 	 *
 	 * @return
 	 */
-	public String getIdentifiedClass() {
-		return this.identified;
-	}
-
-	public void setIdentifiedClass(String cls) {
-		this.identified = cls;
+	public IdentificationMemo getClassIdentification() {
+		return this.classIdentification;
 	}
 
 	/**
@@ -107,11 +104,12 @@ public final class ClassAccessorData {
 	 *
 	 * @param method
 	 * @param mapperRegistry
-	 * @param className
+	 * @param clsNode
 	 * @param classIdentifierId
 	 * @return
 	 */
-	private boolean identifyMethodInterceptor(MethodNode method, MapperRegistry mapperRegistry, String className, String classIdentifierId) {
+	private boolean identifyMethodInterceptor(MethodNode method, MapperRegistry mapperRegistry, ClassNode clsNode, String classIdentifierId) {
+		String className = clsNode.name;
 		AnnotationNode interceptorAnnotation = null;
 
 		if (method.visibleAnnotations != null) {
@@ -203,11 +201,13 @@ public final class ClassAccessorData {
 				checkReturnTypeSignature = BytecodeInstrumentation.getAnnotationValue(method.visibleParameterAnnotations[contextParam], UncheckedSignature.class, BytecodeInstrumentation.getInternal(UncheckedSignature.class, "out", Class::getDeclaredMethods).getName(), Boolean.class, true, false);
 			}
 
+			Boolean inline = BytecodeInstrumentation.getAnnotationValue(interceptorAnnotation, BytecodeInstrumentation.getInternal(Interceptor.class, "inline", Class::getDeclaredMethods).getName(), Boolean.class);
+
 			MethodInterceptorData methodInterceptor = new MethodInterceptorData(
 					classIdentifierId, methodIdentifierId, instructionIdentifierId,
 					exitInstructionIdentifierIds, Type.getObjectType(className).getClassName(),
-					method, methodLocalVars, contextParam,
-					contextSig, checkReturnTypeSignature);
+					method, clsNode.methods, methodLocalVars, contextParam,
+					contextSig, checkReturnTypeSignature, inline != null && inline);
 			methodInterceptor.initIdentifiers(mapperRegistry);
 			return this.methodInterceptors.add(methodInterceptor);
 		}
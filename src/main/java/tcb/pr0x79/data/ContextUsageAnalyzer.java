@@ -0,0 +1,277 @@
+package tcb.pr0x79.data;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.objectweb.asm.tree.analysis.SourceValue;
+import tcb.pr0x79.accessor.InterceptorContext;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Analyzes the bytecode of an interceptor method to find out which {@link InterceptorContext}
+ * operations it can reach and which of its {@link tcb.pr0x79.accessor.LocalVar} parameters it writes.
+ * If the context escapes the interceptor, e.g. it is passed to another method or stored in a field,
+ * all operations are assumed to be used. Also decides whether the interceptor body can be inlined,
+ * see {@link tcb.pr0x79.accessor.Interceptor#inline()}
+ */
+final class ContextUsageAnalyzer extends SourceInterpreter {
+	private static final String CONTEXT_CLASS = Type.getInternalName(InterceptorContext.class);
+	//Maximum number of instructions of an interceptor that is inlined, roughly the bytecode size up to which HotSpot inlines hot methods
+	private static final int MAX_INLINED_INSTRUCTIONS = 100;
+
+	private final int contextSlot;
+	//Instructions that produce the context, i.e. loads, copies and casts of the context parameter
+	private final Set<AbstractInsnNode> contextSources = new HashSet<>();
+	private final Set<String> usedMethods = new HashSet<>();
+	private boolean escapes;
+	//Whether the context is only loaded to invoke context methods on it
+	private boolean onlyInvoked = true;
+
+	private ContextUsageAnalyzer(int contextSlot) {
+		super(ASM7);
+		this.contextSlot = contextSlot;
+	}
+
+	/**
+	 * Analyzes the specified interceptor method
+	 *
+	 * @param owner        The internal name of the accessor
+	 * @param ownerMethods The methods declared by the accessor
+	 * @param method       The interceptor method
+	 * @param contextParam The index of the context parameter
+	 * @param localVars    The local variables of the interceptor
+	 * @return
+	 */
+	static Usage analyze(String owner, List<MethodNode> ownerMethods, MethodNode method, int contextParam, List<LocalVarData> localVars) {
+		Type[] params = Type.getArgumentTypes(method.desc);
+		int[] slots = new int[params.length];
+		int slot = 1;
+		for (int i = 0; i < params.length; i++) {
+			slots[i] = slot;
+			slot += params[i].getSize();
+		}
+
+		boolean[] localVarsWritten = new boolean[localVars.size()];
+
+		if (method.instructions.size() == 0) {
+			//Abstract interceptor, nothing can be proven
+			Arrays.fill(localVarsWritten, true);
+			return new Usage(true, true, true, localVarsWritten, false);
+		}
+
+		ContextUsageAnalyzer interpreter = new ContextUsageAnalyzer(slots[contextParam]);
+		try {
+			new Analyzer<>(interpreter).analyze(owner, method);
+		} catch (AnalyzerException ex) {
+			interpreter.escapes = true;
+		}
+
+		Set<Integer> writtenSlots = new HashSet<>();
+		Iterator<AbstractInsnNode> insnIT = method.instructions.iterator();
+		while (insnIT.hasNext()) {
+			AbstractInsnNode insn = insnIT.next();
+			if (insn instanceof VarInsnNode && insn.getOpcode() >= Opcodes.ISTORE && insn.getOpcode() <= Opcodes.ASTORE) {
+				writtenSlots.add(((VarInsnNode) insn).var);
+			} else if (insn instanceof IincInsnNode) {
+				writtenSlots.add(((IincInsnNode) insn).var);
+			}
+		}
+		if (writtenSlots.contains(slots[contextParam])) {
+			//The context parameter is overwritten, so its loads can't be tracked
+			interpreter.escapes = true;
+		}
+
+		for (int i = 0; i < localVarsWritten.length; i++) {
+			localVarsWritten[i] = writtenSlots.contains(slots[localVars.get(i).getParameterIndex()]);
+		}
+
+		boolean escapes = interpreter.escapes;
+		boolean inlinable = !escapes && interpreter.onlyInvoked && !interpreter.usedMethods.contains("getLocalVariables") &&
+				!writtenSlots.contains(0) && isInlinable(owner, ownerMethods, method);
+		return new Usage(escapes || interpreter.usedMethods.contains("returnWith"), escapes || interpreter.usedMethods.contains("exitAt"),
+				escapes || interpreter.usedMethods.contains("getLocalVariables"), localVarsWritten, inlinable);
+	}
+
+	/**
+	 * Returns whether the body of the specified interceptor method can be copied into
+	 * a class that implements the accessor
+	 *
+	 * @param owner        The internal name of the accessor
+	 * @param ownerMethods The methods declared by the accessor
+	 * @param method       The interceptor method
+	 * @return
+	 */
+	private static boolean isInlinable(String owner, List<MethodNode> ownerMethods, MethodNode method) {
+		int size = 0;
+		Iterator<AbstractInsnNode> insnIT = method.instructions.iterator();
+		while (insnIT.hasNext()) {
+			AbstractInsnNode insn = insnIT.next();
+			if (insn.getOpcode() < 0) {
+				continue;
+			}
+
+			if (++size > MAX_INLINED_INSTRUCTIONS) {
+				return false;
+			}
+
+			//Lambdas and private or super calls are resolved relative to the accessor
+			switch (insn.getOpcode()) {
+				case Opcodes.INVOKEDYNAMIC:
+					for (Object arg : ((InvokeDynamicInsnNode) insn).bsmArgs) {
+						if (arg instanceof Handle && owner.equals(((Handle) arg).getOwner())) {
+							return false;
+						}
+					}
+					break;
+				case Opcodes.INVOKESPECIAL:
+					if (!"<init>".equals(((MethodInsnNode) insn).name)) {
+						return false;
+					}
+					break;
+				case Opcodes.INVOKESTATIC:
+					if (owner.equals(((MethodInsnNode) insn).owner)) {
+						return false;
+					}
+					break;
+				default:
+					break;
+			}
+
+			//Private accessor methods are only accessible from the accessor and its nestmates, whatever the invoke opcode
+			if (insn instanceof MethodInsnNode && owner.equals(((MethodInsnNode) insn).owner) && isPrivate(ownerMethods, (MethodInsnNode) insn)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPrivate(List<MethodNode> methods, MethodInsnNode insn) {
+		for (MethodNode method : methods) {
+			if (method.name.equals(insn.name) && method.desc.equals(insn.desc)) {
+				return (method.access & Opcodes.ACC_PRIVATE) != 0;
+			}
+		}
+		return false;
+	}
+
+	private boolean isContext(SourceValue value) {
+		for (AbstractInsnNode insn : value.insns) {
+			if (this.contextSources.contains(insn)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public SourceValue copyOperation(AbstractInsnNode insn, SourceValue value) {
+		if (insn.getOpcode() == Opcodes.ALOAD && ((VarInsnNode) insn).var == this.contextSlot) {
+			this.contextSources.add(insn);
+		} else if (this.isContext(value)) {
+			this.onlyInvoked = false;
+			if (insn.getOpcode() == Opcodes.ASTORE) {
+				this.escapes = true;
+			} else {
+				this.contextSources.add(insn);
+			}
+		}
+		return super.copyOperation(insn, value);
+	}
+
+	@Override
+	public SourceValue unaryOperation(AbstractInsnNode insn, SourceValue value) {
+		if (this.isContext(value)) {
+			this.onlyInvoked = false;
+			switch (insn.getOpcode()) {
+				case Opcodes.CHECKCAST:
+					this.contextSources.add(insn);
+					break;
+				case Opcodes.IFNULL:
+				case Opcodes.IFNONNULL:
+				case Opcodes.INSTANCEOF:
+				case Opcodes.MONITORENTER:
+				case Opcodes.MONITOREXIT:
+					break;
+				default:
+					this.escapes = true;
+					break;
+			}
+		}
+		return super.unaryOperation(insn, value);
+	}
+
+	@Override
+	public SourceValue binaryOperation(AbstractInsnNode insn, SourceValue value1, SourceValue value2) {
+		if (this.isContext(value1) || this.isContext(value2)) {
+			this.onlyInvoked = false;
+			if (insn.getOpcode() != Opcodes.IF_ACMPEQ && insn.getOpcode() != Opcodes.IF_ACMPNE) {
+				this.escapes = true;
+			}
+		}
+		return super.binaryOperation(insn, value1, value2);
+	}
+
+	@Override
+	public SourceValue ternaryOperation(AbstractInsnNode insn, SourceValue value1, SourceValue value2, SourceValue value3) {
+		if (this.isContext(value1) || this.isContext(value2) || this.isContext(value3)) {
+			this.escapes = true;
+		}
+		return super.ternaryOperation(insn, value1, value2, value3);
+	}
+
+	@Override
+	public SourceValue naryOperation(AbstractInsnNode insn, List<? extends SourceValue> values) {
+		int firstArg = 0;
+		if (insn instanceof MethodInsnNode && insn.getOpcode() != Opcodes.INVOKESTATIC && this.isContext(values.get(0))) {
+			MethodInsnNode methodInsn = (MethodInsnNode) insn;
+			if (CONTEXT_CLASS.equals(methodInsn.owner)) {
+				this.usedMethods.add(methodInsn.name);
+			} else {
+				this.escapes = true;
+			}
+			firstArg = 1;
+		}
+		for (int i = firstArg; i < values.size(); i++) {
+			if (this.isContext(values.get(i))) {
+				this.escapes = true;
+			}
+		}
+		return super.naryOperation(insn, values);
+	}
+
+	@Override
+	public void returnOperation(AbstractInsnNode insn, SourceValue value, SourceValue expected) {
+		if (this.isContext(value)) {
+			this.escapes = true;
+		}
+		super.returnOperation(insn, value, expected);
+	}
+
+	/**
+	 * The context operations and local variable writes of an interceptor
+	 */
+	static final class Usage {
+		final boolean returns;
+		final boolean exits;
+		final boolean localVarsRead;
+		final boolean[] localVarsWritten;
+		final boolean inlinable;
+
+		private Usage(boolean returns, boolean exits, boolean localVarsRead, boolean[] localVarsWritten, boolean inlinable) {
+			this.returns = returns;
+			this.exits = exits;
+			this.localVarsRead = localVarsRead;
+			this.localVarsWritten = localVarsWritten;
+			this.inlinable = inlinable;
+		}
+	}
+}
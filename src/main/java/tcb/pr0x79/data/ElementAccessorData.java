@@ -1,6 +1,6 @@
 package tcb.pr0x79.data;
 
-import tcb.pr0x79.mapping.identification.AnnotatedElementDescription;
+import tcb.pr0x79.IdentificationMemo;
 
 /**
  * Used to store accessors and field generation data
@@ -11,8 +11,7 @@ public final class ElementAccessorData<N, I> {
 	private final boolean setter;
 	private final N accessorNode;
 	private final I identifier;
-
-	private AnnotatedElementDescription identified;
+	private final IdentificationMemo identification = new IdentificationMemo();
 
 	ElementAccessorData(String identifierId, N accessorNode, I identifier) {
 		this(identifierId, false, accessorNode, identifier);
@@ -53,17 +52,12 @@ public final class ElementAccessorData<N, I> {
 	}
 
 	/**
-	 * Returns the identified method
+	 * Returns the memoized results of the element identifier
 	 *
 	 * @return
 	 */
-	public AnnotatedElementDescription getIdentifiedDescription() {
-		return this.identified;
-	}
-
-	public boolean setIdentifiedDescription(AnnotatedElementDescription elementDescription) {
-		this.identified = elementDescription;
-		return true;
+	public IdentificationMemo getIdentification() {
+		return this.identification;
 	}
 
 	public String getIdentifierId() {
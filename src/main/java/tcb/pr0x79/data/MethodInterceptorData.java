@@ -1,12 +1,11 @@
 package tcb.pr0x79.data;
 
 import org.objectweb.asm.tree.MethodNode;
-import tcb.pr0x79.Internal;
+import tcb.pr0x79.IdentificationMemo;
 import tcb.pr0x79.mapping.Mapper;
 import tcb.pr0x79.mapping.MapperRegistry;
 import tcb.pr0x79.accessor.Accessor;
 import tcb.pr0x79.exception.InstrumentorException;
-import tcb.pr0x79.mapping.identification.AnnotatedElementDescription;
 import tcb.pr0x79.mapping.identification.type.ClassIdentifier;
 import tcb.pr0x79.mapping.identification.type.MethodIdentifier;
 import tcb.pr0x79.mapping.identification.type.InstructionTypeIdentifier;
@@ -23,16 +22,18 @@ public final class MethodInterceptorData {
 	private final int contextParam;
 	private final TypeClassSymbol contextSig;
 	private final boolean checkReturnTypeSignature;
+	private final ContextUsageAnalyzer.Usage contextUsage;
+	private final MethodNode inlinedMethod;
 	private MethodIdentifier methodIdentifier;
 	private InstructionTypeIdentifier instructionIdentifier;
 	private InstructionTypeIdentifier[] exitInstructionIdentifiers;
 	private ClassIdentifier classIdentifier;
-	private String identifiedClass;
-	private AnnotatedElementDescription identifiedMethod;
+	private final IdentificationMemo classIdentification = new IdentificationMemo();
+	private final IdentificationMemo methodIdentification = new IdentificationMemo();
 
 	MethodInterceptorData(String classIdentifierId, String methodIdentifierId, String instructionIdentifierId, String[] exitInstructionIdentifierIds,
-	                      String accessorClass, MethodNode interceptorMethodNode, List<LocalVarData> localVars, int contextParam,
-	                      TypeClassSymbol contextSig, boolean checkReturnTypeSignature) {
+	                      String accessorClass, MethodNode interceptorMethodNode, List<MethodNode> accessorMethods, List<LocalVarData> localVars, int contextParam,
+	                      TypeClassSymbol contextSig, boolean checkReturnTypeSignature, boolean inline) {
 		this.classIdentifierId = classIdentifierId;
 		this.methodIdentifierId = methodIdentifierId;
 		this.accessorClass = accessorClass;
@@ -45,19 +46,17 @@ public final class MethodInterceptorData {
 		this.contextParam = contextParam;
 		this.contextSig = contextSig;
 		this.checkReturnTypeSignature = checkReturnTypeSignature;
+		this.contextUsage = ContextUsageAnalyzer.analyze(accessorClass.replace('.', '/'), accessorMethods, interceptorMethodNode, contextParam, localVars);
+		this.inlinedMethod = inline && this.contextUsage.inlinable ? interceptorMethodNode : null;
 	}
 
 	/**
-	 * Returns the identified class
+	 * Returns the memoized results of the class identifier
 	 *
 	 * @return
 	 */
-	public String getIdentifiedClass() {
-		return this.identifiedClass;
-	}
-
-	public void setIdentifiedClass(String cls) {
-		this.identifiedClass = cls;
+	public IdentificationMemo getClassIdentification() {
+		return this.classIdentification;
 	}
 
 	/**
@@ -70,16 +69,12 @@ public final class MethodInterceptorData {
 	}
 
 	/**
-	 * Returns the identified method
+	 * Returns the memoized results of the method identifier
 	 *
 	 * @return
 	 */
-	public AnnotatedElementDescription getIdentifiedMethod() {
-		return this.identifiedMethod;
-	}
-
-	public void setIdentifiedMethod(AnnotatedElementDescription method) {
-		this.identifiedMethod = method;
+	public IdentificationMemo getMethodIdentification() {
+		return this.methodIdentification;
 	}
 
 	/**
@@ -217,6 +212,66 @@ public final class MethodInterceptorData {
 		return this.interceptorMethodSig;
 	}
 
+	/**
+	 * Returns whether the interceptor can call {@link tcb.pr0x79.accessor.InterceptorContext#returnWith(Object)}.
+	 * If not, the instrumented method does not need to check for an early return
+	 *
+	 * @return
+	 */
+	public boolean isReturnUsed() {
+		return this.contextUsage.returns;
+	}
+
+	/**
+	 * Returns whether the interceptor can call {@link tcb.pr0x79.accessor.InterceptorContext#exitAt(int)}.
+	 * If not, the instrumented method does not need to check for an exit
+	 *
+	 * @return
+	 */
+	public boolean isExitUsed() {
+		return this.contextUsage.exits;
+	}
+
+	/**
+	 * Returns whether the interceptor can call {@link tcb.pr0x79.accessor.InterceptorContext#getLocalVariables()}
+	 *
+	 * @return
+	 */
+	public boolean isLocalVariablesUsed() {
+		return this.contextUsage.localVarsRead;
+	}
+
+	/**
+	 * Returns whether the interceptor can write the specified local variable parameter.
+	 * If not, the local variable does not need to be stored back into the instrumented method
+	 *
+	 * @param localVarIndex The index of the local variable in {@link #getLocalVars()}
+	 * @return
+	 */
+	public boolean isLocalVarWritten(int localVarIndex) {
+		return this.contextUsage.localVarsWritten[localVarIndex];
+	}
+
+	/**
+	 * Returns the interceptor method if its body is copied into the intercepted method,
+	 * see {@link tcb.pr0x79.accessor.Interceptor#inline()}
+	 *
+	 * @return The interceptor method or null if the interceptor is called
+	 */
+	public MethodNode getInlinedMethod() {
+		return this.inlinedMethod;
+	}
+
+	/**
+	 * Returns the ID of this interceptor, i.e. <code>accessorClass#interceptorMethodinterceptorMethodDesc</code>.
+	 * Used to enable, disable or swap the interceptor at runtime, see {@link tcb.pr0x79.Bootstrapper#disableInterceptor(String)}
+	 *
+	 * @return
+	 */
+	public String getId() {
+		return this.accessorClass + "#" + this.interceptorMethod + this.interceptorMethodDesc;
+	}
+
 	/**
 	 * Initializes the identifiers
 	 *
@@ -259,64 +314,4 @@ public final class MethodInterceptorData {
 			localVar.initIdentifier(mapperRegistry);
 		}
 	}
-
-	public static final class InterceptorContext implements tcb.pr0x79.accessor.InterceptorContext<Object> {
-		private final Object[] params;
-		private int exit;
-		private Object returnVal;
-		private boolean returning;
-		private boolean exiting;
-
-		@Internal(id = "ctor")
-		public InterceptorContext(int params) {
-			this.params = new Object[params];
-		}
-
-		@Override
-		public void exitAt(int index) {
-			this.exit = index;
-			this.exiting = true;
-		}
-
-		@Override
-		public void cancelExit() {
-			this.exiting = false;
-		}
-
-		@Override
-		public int getExit() {
-			return this.exit;
-		}
-
-		@Override
-		public boolean isExiting() {
-			return this.exiting;
-		}
-
-		@Override
-		public void returnWith(Object obj) {
-			this.returnVal = obj;
-			this.returning = true;
-		}
-
-		@Override
-		public void cancelReturn() {
-			this.returning = false;
-		}
-
-		@Override
-		public Object getReturn() {
-			return this.returnVal;
-		}
-
-		@Override
-		public boolean isReturning() {
-			return this.returning;
-		}
-
-		@Override
-		public Object[] getLocalVariables() {
-			return this.params;
-		}
-	}
 }
@@ -1,15 +1,20 @@
 package tcb.pr0x79.mapping;
 
 import tcb.pr0x79.Bootstrapper;
+import tcb.pr0x79.mapping.identification.pattern.InstructionPatternMapper;
 import tcb.pr0x79.mapping.identification.type.ClassIdentifier;
 import tcb.pr0x79.mapping.identification.type.FieldIdentifier;
 import tcb.pr0x79.mapping.identification.type.InstructionTypeIdentifier;
 import tcb.pr0x79.mapping.identification.type.MethodIdentifier;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Registry for mappers
@@ -20,6 +25,8 @@ public final class MapperRegistry {
 	private final Map<String, Mapper<FieldIdentifier>> fieldIdentifierMappers = new HashMap<>();
 	private final Map<String, Mapper<MethodIdentifier>> methodIdentifierMappers = new HashMap<>();
 	private final Map<String, Mapper<InstructionTypeIdentifier>> instructionIdentifierMappers = new HashMap<>();
+	//Sorted so that the class cache fingerprint doesn't depend on the registration order
+	private final Map<String, String> mappingSources = new TreeMap<>();
 
 	public MapperRegistry(Bootstrapper bootstrapper) {
 		this.bootstrapper = bootstrapper;
@@ -187,6 +194,48 @@ public final class MapperRegistry {
 		this.instructionIdentifierMappers.put(id, mapper);
 	}
 
+	/**
+	 * Registers an instruction mapper that maps the IDs of a pattern file to
+	 * the patterns, see {@link InstructionPatternMapper} for the syntax
+	 *
+	 * @param id       The ID of the mapper
+	 * @param patterns The pattern file
+	 * @throws IOException
+	 */
+	public synchronized void registerInstructionPatterns(String id, Reader patterns) throws IOException {
+		StringBuilder source = new StringBuilder();
+		char[] buffer = new char[4096];
+		int read;
+		while ((read = patterns.read(buffer)) != -1) {
+			source.append(buffer, 0, read);
+		}
+
+		this.registerInstructionMapper(id, InstructionPatternMapper.parse(new StringReader(source.toString())));
+		this.registerMappingSource(id, source.toString());
+	}
+
+	/**
+	 * Registers the source of a mapper, e.g. the contents of a mapping file. The sources are part of the
+	 * fingerprint of the class cache, so the cached classes are transformed again once a source changes.
+	 * The sources of {@link #registerInstructionPatterns(String, Reader)} are registered automatically
+	 *
+	 * @param id     The ID of the mapper
+	 * @param source The source of the mapper
+	 */
+	public synchronized void registerMappingSource(String id, String source) {
+		this.checkBootstrapperState();
+		this.mappingSources.put(id, source);
+	}
+
+	/**
+	 * Returns all registered mapping sources by mapper ID
+	 *
+	 * @return
+	 */
+	public synchronized Map<String, String> getMappingSources() {
+		return new TreeMap<>(this.mappingSources);
+	}
+
 	/**
 	 * Unregisters an instruction mapper
 	 *
@@ -0,0 +1,137 @@
+package tcb.pr0x79.mapping.identification.pattern;
+
+import org.objectweb.asm.tree.*;
+
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * An element of a {@link SequencePattern} that matches a single instruction, or any number of instructions if it is a gap
+ */
+final class Element {
+	static final Element ANY = new Element(null, Operand.NONE, null, null, null, null, ".");
+	static final Element GAP = new Element(null, Operand.NONE, null, null, null, null, "..");
+
+	/**
+	 * The kinds of operands an instruction can be constrained by
+	 */
+	enum Operand {
+		NONE,
+		METHOD,
+		INVOKEDYNAMIC,
+		FIELD,
+		TYPE,
+		VARIABLE,
+		INT,
+		CONSTANT,
+		MULTIANEWARRAY
+	}
+
+	private final int[] opcodes;
+	private final Operand operand;
+	private final String owner, name, desc;
+	//Integer or string constant, or the local variable index or name
+	private final Object value;
+	//Canonical form of the element, equal elements are evaluated once per instruction
+	private final String key;
+
+	Element(int[] opcodes, Operand operand, String owner, String name, String desc, Object value, String key) {
+		this.opcodes = opcodes;
+		this.operand = operand;
+		this.owner = owner;
+		this.name = name;
+		this.desc = desc;
+		this.value = value;
+		this.key = key;
+	}
+
+	/**
+	 * Returns the opcodes this element matches, or null if it matches any instruction
+	 *
+	 * @return
+	 */
+	int[] getOpcodes() {
+		return this.opcodes;
+	}
+
+	boolean isGap() {
+		return this == GAP;
+	}
+
+	boolean isAny() {
+		return this == ANY;
+	}
+
+	/**
+	 * Returns whether the element constrains local variables by name
+	 *
+	 * @return
+	 */
+	boolean usesLocalNames() {
+		return this.operand == Operand.VARIABLE && this.value instanceof String;
+	}
+
+	/**
+	 * Returns whether the operands of the specified instruction match. The opcode must already match
+	 *
+	 * @param insn       The instruction
+	 * @param localNames The local variable indices of the method by name, or null if no element uses local names
+	 * @return
+	 */
+	boolean matches(AbstractInsnNode insn, Map<String, BitSet> localNames) {
+		switch (this.operand) {
+			case METHOD: {
+				MethodInsnNode methodInsn = (MethodInsnNode) insn;
+				return matches(this.owner, methodInsn.owner) && matches(this.name, methodInsn.name) && matches(this.desc, methodInsn.desc);
+			}
+			case INVOKEDYNAMIC: {
+				InvokeDynamicInsnNode indyInsn = (InvokeDynamicInsnNode) insn;
+				return matches(this.name, indyInsn.name) && matches(this.desc, indyInsn.desc);
+			}
+			case FIELD: {
+				FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+				return matches(this.owner, fieldInsn.owner) && matches(this.name, fieldInsn.name) && matches(this.desc, fieldInsn.desc);
+			}
+			case TYPE:
+				return matches(this.owner, ((TypeInsnNode) insn).desc);
+			case VARIABLE: {
+				if (this.value == null) {
+					return true;
+				}
+				int var = insn instanceof IincInsnNode ? ((IincInsnNode) insn).var : ((VarInsnNode) insn).var;
+				if (this.value instanceof String) {
+					BitSet slots = localNames.get(this.value);
+					return slots != null && slots.get(var);
+				}
+				return (Integer) this.value == var;
+			}
+			case INT:
+				return this.value == null || (Integer) this.value == ((IntInsnNode) insn).operand;
+			case CONSTANT:
+				return this.value == null || this.value.equals(((LdcInsnNode) insn).cst);
+			case MULTIANEWARRAY:
+				return matches(this.desc, ((MultiANewArrayInsnNode) insn).desc);
+			default:
+				return true;
+		}
+	}
+
+	private static boolean matches(String expected, String actual) {
+		return expected == null || expected.equals(actual);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Element && ((Element) obj).key.equals(this.key);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.key.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return this.key;
+	}
+}
@@ -0,0 +1,296 @@
+package tcb.pr0x79.mapping.identification.pattern;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Identifies the instructions of several {@link SequencePattern}s at once. The patterns are compiled into
+ * a nondeterministic automaton over instructions that is determinized on the fly: each state of the
+ * deterministic automaton is a set of pattern positions and its transitions are keyed by the set of elements
+ * an instruction matches. The transitions are cached and shared by all methods, so identification runs
+ * in a single pass over the instructions without backtracking, independent of the number of patterns
+ */
+public final class InstructionAutomaton {
+	//Upper bound of cached states, further states are computed but not cached
+	private static final int MAX_STATES = 10000;
+	//Codes of the positions that don't match an element
+	private static final int ANY = -1, GAP = -2, ACCEPT = -3;
+
+	private final SequencePattern[] patterns;
+	private final Element[] elements;
+	private final int[][] elementsByOpcode = new int[256][];
+	private final boolean localNames;
+
+	//Element code and pattern of each position
+	private final int[] positionCodes;
+	private final int[] positionPatterns;
+	private final BitSet startPositions = new BitSet();
+
+	private final Map<StateKey, State> states = new ConcurrentHashMap<>();
+	private final State start;
+
+	private InstructionAutomaton(List<SequencePattern> patterns) {
+		this.patterns = patterns.toArray(new SequencePattern[0]);
+
+		Map<Element, Integer> elementIds = new LinkedHashMap<>();
+		List<List<Integer>> elementsByOpcode = new ArrayList<>(this.elementsByOpcode.length);
+		for (int i = 0; i < this.elementsByOpcode.length; i++) {
+			elementsByOpcode.add(new ArrayList<>());
+		}
+
+		int positions = 0;
+		for (SequencePattern pattern : patterns) {
+			positions += pattern.getElements().size() + 1;
+		}
+		this.positionCodes = new int[positions];
+		this.positionPatterns = new int[positions];
+
+		boolean localNames = false;
+		int position = 0;
+		for (int p = 0; p < this.patterns.length; p++) {
+			int first = position;
+			for (Element element : this.patterns[p].getElements()) {
+				int code;
+				if (element.isGap()) {
+					code = GAP;
+				} else if (element.isAny()) {
+					code = ANY;
+				} else {
+					Integer id = elementIds.get(element);
+					if (id == null) {
+						elementIds.put(element, id = elementIds.size());
+						for (int opcode : element.getOpcodes()) {
+							elementsByOpcode.get(opcode).add(id);
+						}
+						localNames |= element.usesLocalNames();
+					}
+					code = id;
+				}
+				this.positionPatterns[position] = p;
+				this.positionCodes[position++] = code;
+			}
+			this.positionPatterns[position] = p;
+			this.positionCodes[position++] = ACCEPT;
+			this.closure(first, this.startPositions);
+		}
+
+		this.elements = elementIds.keySet().toArray(new Element[0]);
+		for (int opcode = 0; opcode < this.elementsByOpcode.length; opcode++) {
+			List<Integer> ids = elementsByOpcode.get(opcode);
+			if (!ids.isEmpty()) {
+				this.elementsByOpcode[opcode] = ids.stream().mapToInt(Integer::intValue).toArray();
+			}
+		}
+		this.localNames = localNames;
+		this.start = this.getState(this.startPositions);
+	}
+
+	/**
+	 * Compiles the specified patterns, see {@link InstructionPatternMapper} for the syntax
+	 *
+	 * @param patterns The patterns
+	 * @return
+	 */
+	public static InstructionAutomaton compile(List<String> patterns) {
+		List<SequencePattern> parsed = new ArrayList<>(patterns.size());
+		for (String pattern : patterns) {
+			parsed.add(SequencePattern.parse(pattern));
+		}
+		return new InstructionAutomaton(parsed);
+	}
+
+	/**
+	 * Returns the number of patterns
+	 *
+	 * @return
+	 */
+	public int getPatternCount() {
+		return this.patterns.length;
+	}
+
+	/**
+	 * Returns the source of the specified pattern
+	 *
+	 * @param pattern The index of the pattern
+	 * @return
+	 */
+	public String getPattern(int pattern) {
+		return this.patterns[pattern].getSource();
+	}
+
+	/**
+	 * Identifies the instructions of all patterns in the specified method
+	 *
+	 * @param method The method
+	 * @return The identified instruction index of each pattern, or -1 if the pattern was not found
+	 */
+	public int[] identify(MethodNode method) {
+		int[] results = new int[this.patterns.length];
+		Arrays.fill(results, -1);
+		int[] occurrences = new int[this.patterns.length];
+
+		int unresolved = 0;
+		boolean lastOccurrences = false;
+		for (SequencePattern pattern : this.patterns) {
+			if (pattern.getOccurrence() == 0) {
+				lastOccurrences = true;
+			} else {
+				unresolved++;
+			}
+		}
+
+		Map<String, BitSet> localNames = null;
+		if (this.localNames) {
+			localNames = new HashMap<>();
+			if (method.localVariables != null) {
+				for (LocalVariableNode localVariable : method.localVariables) {
+					localNames.computeIfAbsent(localVariable.name, name -> new BitSet()).set(localVariable.index);
+				}
+			}
+		}
+
+		//Instruction index of each matched instruction, pseudo instructions such as labels are skipped
+		int[] indices = new int[method.instructions.size()];
+		int matched = 0;
+		BitSet elements = new BitSet(this.elements.length);
+
+		State state = this.start;
+		int index = 0;
+		Iterator<AbstractInsnNode> insnIT = method.instructions.iterator();
+		while (insnIT.hasNext() && (unresolved > 0 || lastOccurrences)) {
+			AbstractInsnNode insn = insnIT.next();
+			int opcode = insn.getOpcode();
+			if (opcode >= 0) {
+				elements.clear();
+				int[] candidates = this.elementsByOpcode[opcode];
+				if (candidates != null) {
+					for (int element : candidates) {
+						if (this.elements[element].matches(insn, localNames)) {
+							elements.set(element);
+						}
+					}
+				}
+				state = this.next(state, elements);
+				indices[matched++] = index;
+
+				for (int p : state.accepted) {
+					SequencePattern pattern = this.patterns[p];
+					int occurrence = ++occurrences[p];
+					if (pattern.getOccurrence() == 0 || pattern.getOccurrence() == occurrence) {
+						int distance = pattern.getMarkerDistance();
+						results[p] = distance == 0 ? index + 1 : indices[matched - distance];
+						if (pattern.getOccurrence() != 0) {
+							unresolved--;
+						}
+					}
+				}
+			}
+			index++;
+		}
+
+		return results;
+	}
+
+	private State next(State state, BitSet elements) {
+		if (elements.isEmpty()) {
+			State next = state.noElementTransition;
+			if (next == null) {
+				state.noElementTransition = next = this.getState(this.step(state, elements));
+			}
+			return next;
+		}
+		State next = state.transitions.get(elements);
+		if (next == null) {
+			next = this.getState(this.step(state, elements));
+			if (this.states.size() < MAX_STATES) {
+				state.transitions.put((BitSet) elements.clone(), next);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Returns the positions after an instruction that matches the specified elements
+	 */
+	private BitSet step(State state, BitSet elements) {
+		BitSet positions = (BitSet) this.startPositions.clone();
+		for (int position : state.positions) {
+			int code = this.positionCodes[position];
+			if (code == GAP) {
+				this.closure(position, positions);
+			} else if (code == ANY || (code >= 0 && elements.get(code))) {
+				this.closure(position + 1, positions);
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * Adds the specified position and all positions after the gaps following it
+	 */
+	private void closure(int position, BitSet positions) {
+		positions.set(position);
+		while (this.positionCodes[position] == GAP) {
+			positions.set(++position);
+		}
+	}
+
+	private State getState(BitSet positions) {
+		StateKey key = new StateKey(positions.stream().toArray());
+		State state = this.states.get(key);
+		if (state == null) {
+			List<Integer> accepted = new ArrayList<>();
+			for (int position : key.positions) {
+				if (this.positionCodes[position] == ACCEPT) {
+					accepted.add(this.positionPatterns[position]);
+				}
+			}
+			state = new State(key.positions, accepted.stream().mapToInt(Integer::intValue).toArray());
+			if (this.states.size() < MAX_STATES) {
+				State existing = this.states.putIfAbsent(key, state);
+				if (existing != null) {
+					state = existing;
+				}
+			}
+		}
+		return state;
+	}
+
+	private static final class State {
+		private final int[] positions;
+		//Patterns that end in this state
+		private final int[] accepted;
+		private final Map<BitSet, State> transitions = new ConcurrentHashMap<>();
+		//Transition for instructions that match no element
+		private volatile State noElementTransition;
+
+		private State(int[] positions, int[] accepted) {
+			this.positions = positions;
+			this.accepted = accepted;
+		}
+	}
+
+	private static final class StateKey {
+		private final int[] positions;
+		private final int hash;
+
+		private StateKey(int[] positions) {
+			this.positions = positions;
+			this.hash = Arrays.hashCode(positions);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof StateKey && Arrays.equals(((StateKey) obj).positions, this.positions);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+}
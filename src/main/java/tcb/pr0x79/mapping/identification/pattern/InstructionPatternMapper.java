@@ -0,0 +1,103 @@
+package tcb.pr0x79.mapping.identification.pattern;
+
+import tcb.pr0x79.exception.InstrumentorException;
+import tcb.pr0x79.mapping.Mapper;
+import tcb.pr0x79.mapping.identification.type.InstructionTypeIdentifier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Maps instruction identifier IDs to instruction patterns. All patterns of a mapper are compiled into one
+ * {@link InstructionAutomaton}. A pattern is a whitespace separated sequence of the following elements:
+ * <ul>
+ * <li><code>OPCODE [operand]</code>: An instruction with the specified opcode, e.g. <code>ALOAD</code>, or any opcode of the
+ * groups <code>INVOKE</code>, <code>FIELD</code>, <code>LOAD</code>, <code>STORE</code>, <code>XRETURN</code> and <code>IF</code>.
+ * The optional operand constrains the instruction:
+ * <ul>
+ * <li>Method calls: <code>owner.name(desc)</code>, e.g. <code>INVOKEVIRTUAL java/io/PrintStream.println(Ljava/lang/String;)V</code></li>
+ * <li>invokedynamic: <code>name(desc)</code></li>
+ * <li>Field instructions: <code>owner.name:desc</code></li>
+ * <li>Type instructions and <code>MULTIANEWARRAY</code>: the internal name or descriptor</li>
+ * <li>Local variable instructions: the local variable index, or <code>$name</code> to match any local variable with that name</li>
+ * <li><code>BIPUSH</code>, <code>SIPUSH</code> and <code>LDC</code>: an integer, or a quoted string for <code>LDC</code></li>
+ * </ul>
+ * <code>*</code> matches any operand, owner, name or descriptor, and a missing descriptor matches any descriptor</li>
+ * <li><code>.</code>: Any instruction</li>
+ * <li><code>..</code>: Any number of instructions</li>
+ * <li><code>^</code>: Marks the identified position, i.e. the index of the next matched instruction or the index after the match
+ * if it is placed at the end. Defaults to the start of the pattern and must be placed after the last <code>..</code></li>
+ * <li><code>#n</code> or <code>#last</code>: The occurrence that is identified, must be at the end. Defaults to <code>#1</code></li>
+ * </ul>
+ * Labels, line numbers and frames are skipped. Occurrences are counted by the position of their last instruction.
+ * Example: <code>NEW java/lang/StringBuilder .. ^ INVOKEVIRTUAL java/lang/StringBuilder.toString #last</code>
+ * <p>
+ * A pattern file contains one <code>id = pattern</code> per line, lines starting with <code>//</code> are comments
+ */
+public final class InstructionPatternMapper implements Mapper<InstructionTypeIdentifier> {
+	private final Map<String, SequenceInstructionIdentifier> identifiers = new HashMap<>();
+
+	/**
+	 * Compiles the specified patterns
+	 *
+	 * @param patterns The patterns by identifier ID
+	 */
+	public InstructionPatternMapper(Map<String, String> patterns) {
+		List<String> ids = new ArrayList<>(patterns.keySet());
+		List<String> sources = new ArrayList<>(ids.size());
+		for (String id : ids) {
+			sources.add(patterns.get(id));
+		}
+		InstructionAutomaton automaton = InstructionAutomaton.compile(sources);
+		for (int i = 0; i < ids.size(); i++) {
+			this.identifiers.put(ids.get(i), new SequenceInstructionIdentifier(automaton, i));
+		}
+	}
+
+	/**
+	 * Reads and compiles a pattern file
+	 *
+	 * @param reader The pattern file
+	 * @return
+	 * @throws IOException
+	 */
+	public static InstructionPatternMapper parse(Reader reader) throws IOException {
+		Map<String, String> patterns = new LinkedHashMap<>();
+		BufferedReader lineReader = new BufferedReader(reader);
+		String line;
+		int lineNumber = 0;
+		while ((line = lineReader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("//")) {
+				continue;
+			}
+			int separator = line.indexOf('=');
+			if (separator == -1) {
+				throw new InstrumentorException(String.format("Invalid instruction pattern at line %d, expected id = pattern: %s", lineNumber, line));
+			}
+			String id = line.substring(0, separator).trim();
+			if (patterns.put(id, line.substring(separator + 1).trim()) != null) {
+				throw new InstrumentorException(String.format("Duplicate instruction pattern %s at line %d", id, lineNumber));
+			}
+		}
+		return new InstructionPatternMapper(patterns);
+	}
+
+	/**
+	 * Returns the IDs of all patterns
+	 *
+	 * @return
+	 */
+	public Set<String> getIds() {
+		return Collections.unmodifiableSet(this.identifiers.keySet());
+	}
+
+	@Override
+	public InstructionTypeIdentifier map(String identifier, SearchType search) {
+		//Patterns identify instructions, not local variables
+		return search == SearchType.LOCAL_VARIABLE ? null : this.identifiers.get(identifier);
+	}
+}
@@ -0,0 +1,52 @@
+package tcb.pr0x79.mapping.identification.pattern;
+
+import org.objectweb.asm.tree.MethodNode;
+import tcb.pr0x79.mapping.identification.type.InstructionTypeIdentifier;
+
+/**
+ * Identifies an instruction with a pattern of an {@link InstructionAutomaton}. All patterns of an automaton
+ * that are identified in the same method are evaluated together in a single pass, see
+ * {@link tcb.pr0x79.mapping.identification.type.InstructionIdentification}
+ */
+public final class SequenceInstructionIdentifier implements InstructionTypeIdentifier {
+	private final InstructionAutomaton automaton;
+	private final int pattern;
+
+	public SequenceInstructionIdentifier(InstructionAutomaton automaton, int pattern) {
+		this.automaton = automaton;
+		this.pattern = pattern;
+	}
+
+	/**
+	 * Returns the automaton the pattern was compiled into
+	 *
+	 * @return
+	 */
+	public InstructionAutomaton getAutomaton() {
+		return this.automaton;
+	}
+
+	/**
+	 * Returns the index of the pattern in the automaton
+	 *
+	 * @return
+	 */
+	public int getPattern() {
+		return this.pattern;
+	}
+
+	@Override
+	public InstructionType getType() {
+		return InstructionType.INSTRUCTION;
+	}
+
+	@Override
+	public int identify(MethodNode method) {
+		return this.automaton.identify(method)[this.pattern];
+	}
+
+	@Override
+	public String toString() {
+		return this.automaton.getPattern(this.pattern);
+	}
+}
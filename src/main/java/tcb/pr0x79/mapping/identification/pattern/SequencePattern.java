@@ -0,0 +1,327 @@
+package tcb.pr0x79.mapping.identification.pattern;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.util.Printer;
+import tcb.pr0x79.exception.InstrumentorException;
+
+import java.util.*;
+
+/**
+ * A parsed instruction pattern, see {@link InstructionPatternMapper} for the syntax
+ */
+final class SequencePattern {
+	private static final Map<String, int[]> MNEMONICS = new HashMap<>();
+
+	static {
+		for (int opcode = 0; opcode < Printer.OPCODES.length; opcode++) {
+			if (!Printer.OPCODES[opcode].isEmpty()) {
+				MNEMONICS.put(Printer.OPCODES[opcode], new int[]{opcode});
+			}
+		}
+		MNEMONICS.put("INVOKE", new int[]{Opcodes.INVOKEVIRTUAL, Opcodes.INVOKESPECIAL, Opcodes.INVOKESTATIC, Opcodes.INVOKEINTERFACE});
+		MNEMONICS.put("FIELD", new int[]{Opcodes.GETSTATIC, Opcodes.PUTSTATIC, Opcodes.GETFIELD, Opcodes.PUTFIELD});
+		MNEMONICS.put("LOAD", new int[]{Opcodes.ILOAD, Opcodes.LLOAD, Opcodes.FLOAD, Opcodes.DLOAD, Opcodes.ALOAD});
+		MNEMONICS.put("STORE", new int[]{Opcodes.ISTORE, Opcodes.LSTORE, Opcodes.FSTORE, Opcodes.DSTORE, Opcodes.ASTORE});
+		MNEMONICS.put("XRETURN", new int[]{Opcodes.IRETURN, Opcodes.LRETURN, Opcodes.FRETURN, Opcodes.DRETURN, Opcodes.ARETURN, Opcodes.RETURN});
+		MNEMONICS.put("IF", new int[]{Opcodes.IFEQ, Opcodes.IFNE, Opcodes.IFLT, Opcodes.IFGE, Opcodes.IFGT, Opcodes.IFLE, Opcodes.IF_ICMPEQ, Opcodes.IF_ICMPNE,
+				Opcodes.IF_ICMPLT, Opcodes.IF_ICMPGE, Opcodes.IF_ICMPGT, Opcodes.IF_ICMPLE, Opcodes.IF_ACMPEQ, Opcodes.IF_ACMPNE, Opcodes.IFNULL, Opcodes.IFNONNULL});
+	}
+
+	private final String source;
+	private final List<Element> elements;
+	//Number of elements between the marker and the end of the pattern
+	private final int markerDistance;
+	//1 based occurrence of the pattern that is identified, 0 for the last one
+	private final int occurrence;
+
+	private SequencePattern(String source, List<Element> elements, int markerDistance, int occurrence) {
+		this.source = source;
+		this.elements = elements;
+		this.markerDistance = markerDistance;
+		this.occurrence = occurrence;
+	}
+
+	String getSource() {
+		return this.source;
+	}
+
+	List<Element> getElements() {
+		return this.elements;
+	}
+
+	/**
+	 * Returns the number of elements between the marker and the end of the pattern.
+	 * The identified index is the index of the instruction matched by the element after the marker,
+	 * or the index after the last instruction of a match if the marker is at the end
+	 *
+	 * @return
+	 */
+	int getMarkerDistance() {
+		return this.markerDistance;
+	}
+
+	/**
+	 * Returns the 1 based occurrence of the pattern that is identified, or 0 for the last occurrence
+	 *
+	 * @return
+	 */
+	int getOccurrence() {
+		return this.occurrence;
+	}
+
+	/**
+	 * Parses an instruction pattern
+	 *
+	 * @param source The pattern
+	 * @return
+	 */
+	static SequencePattern parse(String source) {
+		List<Token> tokens = tokenize(source);
+		List<Element> elements = new ArrayList<>();
+		int marker = -1;
+		int occurrence = 1;
+
+		for (int i = 0; i < tokens.size(); i++) {
+			Token token = tokens.get(i);
+			if (token.quoted) {
+				throw error(source, "Unexpected constant %s", token);
+			}
+			switch (token.text) {
+				case "^":
+					if (marker != -1) {
+						throw error(source, "Only one marker is allowed");
+					}
+					marker = elements.size();
+					break;
+				case ".":
+					elements.add(Element.ANY);
+					break;
+				case "..":
+					elements.add(Element.GAP);
+					break;
+				default:
+					if (token.text.startsWith("#")) {
+						if (i != tokens.size() - 1) {
+							throw error(source, "The occurrence must be at the end");
+						}
+						String value = token.text.substring(1);
+						if (value.equalsIgnoreCase("last")) {
+							occurrence = 0;
+						} else {
+							try {
+								occurrence = Integer.parseInt(value);
+							} catch (NumberFormatException ex) {
+								occurrence = -1;
+							}
+							if (occurrence < 1) {
+								throw error(source, "Invalid occurrence %s", token);
+							}
+						}
+						break;
+					}
+
+					int[] opcodes = MNEMONICS.get(token.text.toUpperCase(Locale.ROOT));
+					if (opcodes == null) {
+						throw error(source, "Unknown instruction %s", token);
+					}
+					Token operand = null;
+					if (i + 1 < tokens.size() && isOperand(tokens.get(i + 1)) && getOperand(opcodes) != Element.Operand.NONE) {
+						operand = tokens.get(++i);
+					}
+					elements.add(parseElement(source, token.text.toUpperCase(Locale.ROOT), opcodes, operand));
+					break;
+			}
+		}
+
+		boolean matchesInstruction = false;
+		for (Element element : elements) {
+			matchesInstruction |= !element.isGap();
+		}
+		if (!matchesInstruction) {
+			throw error(source, "The pattern must match at least one instruction");
+		}
+
+		if (marker == -1) {
+			marker = 0;
+		}
+		for (int i = marker; i < elements.size(); i++) {
+			if (elements.get(i).isGap()) {
+				//The identified index is derived from the end of a match, which is only possible if the distance is fixed
+				throw error(source, "The marker must be placed after the last gap");
+			}
+		}
+
+		return new SequencePattern(source, Collections.unmodifiableList(elements), elements.size() - marker, occurrence);
+	}
+
+	private static boolean isOperand(Token token) {
+		if (token.quoted) {
+			return true;
+		}
+		return !token.text.equals("^") && !token.text.equals(".") && !token.text.equals("..") && !token.text.startsWith("#") &&
+				!MNEMONICS.containsKey(token.text.toUpperCase(Locale.ROOT));
+	}
+
+	private static Element.Operand getOperand(int[] opcodes) {
+		switch (opcodes[0]) {
+			case Opcodes.INVOKEVIRTUAL:
+			case Opcodes.INVOKESPECIAL:
+			case Opcodes.INVOKESTATIC:
+			case Opcodes.INVOKEINTERFACE:
+				return Element.Operand.METHOD;
+			case Opcodes.INVOKEDYNAMIC:
+				return Element.Operand.INVOKEDYNAMIC;
+			case Opcodes.GETSTATIC:
+			case Opcodes.PUTSTATIC:
+			case Opcodes.GETFIELD:
+			case Opcodes.PUTFIELD:
+				return Element.Operand.FIELD;
+			case Opcodes.NEW:
+			case Opcodes.ANEWARRAY:
+			case Opcodes.CHECKCAST:
+			case Opcodes.INSTANCEOF:
+				return Element.Operand.TYPE;
+			case Opcodes.ILOAD:
+			case Opcodes.LLOAD:
+			case Opcodes.FLOAD:
+			case Opcodes.DLOAD:
+			case Opcodes.ALOAD:
+			case Opcodes.ISTORE:
+			case Opcodes.LSTORE:
+			case Opcodes.FSTORE:
+			case Opcodes.DSTORE:
+			case Opcodes.ASTORE:
+			case Opcodes.IINC:
+			case Opcodes.RET:
+				return Element.Operand.VARIABLE;
+			case Opcodes.BIPUSH:
+			case Opcodes.SIPUSH:
+				return Element.Operand.INT;
+			case Opcodes.LDC:
+				return Element.Operand.CONSTANT;
+			case Opcodes.MULTIANEWARRAY:
+				return Element.Operand.MULTIANEWARRAY;
+			default:
+				return Element.Operand.NONE;
+		}
+	}
+
+	private static Element parseElement(String source, String mnemonic, int[] opcodes, Token token) {
+		Element.Operand operand = getOperand(opcodes);
+		if (token == null || operand == Element.Operand.NONE) {
+			return new Element(opcodes, operand, null, null, null, null, mnemonic);
+		}
+
+		String key = mnemonic + " " + token;
+		String text = token.text;
+		if (token.quoted && operand != Element.Operand.CONSTANT) {
+			throw error(source, "Unexpected constant %s", token);
+		}
+
+		switch (operand) {
+			case METHOD:
+			case INVOKEDYNAMIC: {
+				int descStart = text.indexOf('(');
+				String desc = descStart == -1 ? null : text.substring(descStart);
+				String member = descStart == -1 ? text : text.substring(0, descStart);
+				int nameStart = member.lastIndexOf('.');
+				if (operand == Element.Operand.INVOKEDYNAMIC && nameStart != -1) {
+					throw error(source, "invokedynamic instructions have no owner: %s", token);
+				}
+				return new Element(opcodes, operand, wildcard(nameStart == -1 ? "*" : member.substring(0, nameStart)), wildcard(member.substring(nameStart + 1)), desc, null, key);
+			}
+			case FIELD: {
+				int descStart = text.indexOf(':');
+				String desc = descStart == -1 ? null : wildcard(text.substring(descStart + 1));
+				String member = descStart == -1 ? text : text.substring(0, descStart);
+				int nameStart = member.lastIndexOf('.');
+				return new Element(opcodes, operand, wildcard(nameStart == -1 ? "*" : member.substring(0, nameStart)), wildcard(member.substring(nameStart + 1)), desc, null, key);
+			}
+			case TYPE:
+				return new Element(opcodes, operand, wildcard(text), null, null, null, key);
+			case MULTIANEWARRAY:
+				return new Element(opcodes, operand, null, null, wildcard(text), null, key);
+			case VARIABLE:
+				if (text.startsWith("$")) {
+					if (text.length() == 1) {
+						throw error(source, "Missing local variable name");
+					}
+					return new Element(opcodes, operand, null, null, null, text.substring(1), key);
+				}
+				return new Element(opcodes, operand, null, null, null, text.equals("*") ? null : parseInt(source, token), key);
+			case INT:
+				return new Element(opcodes, operand, null, null, null, text.equals("*") ? null : parseInt(source, token), key);
+			case CONSTANT:
+				return new Element(opcodes, operand, null, null, null, token.quoted ? text : text.equals("*") ? null : parseInt(source, token), key);
+			default:
+				throw error(source, "Unexpected operand %s", token);
+		}
+	}
+
+	private static String wildcard(String value) {
+		return value.equals("*") ? null : value;
+	}
+
+	private static Integer parseInt(String source, Token token) {
+		try {
+			return Integer.parseInt(token.text);
+		} catch (NumberFormatException ex) {
+			throw error(source, "Invalid integer %s", token);
+		}
+	}
+
+	private static List<Token> tokenize(String source) {
+		List<Token> tokens = new ArrayList<>();
+		int i = 0;
+		while (i < source.length()) {
+			char c = source.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '"') {
+				StringBuilder text = new StringBuilder();
+				i++;
+				while (true) {
+					if (i >= source.length()) {
+						throw error(source, "Unterminated string constant");
+					}
+					c = source.charAt(i++);
+					if (c == '"') {
+						break;
+					} else if (c == '\\' && i < source.length()) {
+						c = source.charAt(i++);
+						text.append(c == 'n' ? '\n' : c == 't' ? '\t' : c);
+					} else {
+						text.append(c);
+					}
+				}
+				tokens.add(new Token(text.toString(), true));
+			} else {
+				int start = i;
+				while (i < source.length() && !Character.isWhitespace(source.charAt(i))) {
+					i++;
+				}
+				tokens.add(new Token(source.substring(start, i), false));
+			}
+		}
+		return tokens;
+	}
+
+	private static InstrumentorException error(String source, String msg, Object... args) {
+		return new InstrumentorException(String.format("Invalid instruction pattern \"%s\": %s", source, String.format(msg, args)));
+	}
+
+	private static final class Token {
+		private final String text;
+		private final boolean quoted;
+
+		private Token(String text, boolean quoted) {
+			this.text = text;
+			this.quoted = quoted;
+		}
+
+		@Override
+		public String toString() {
+			return this.quoted ? "\"" + this.text + "\"" : this.text;
+		}
+	}
+}
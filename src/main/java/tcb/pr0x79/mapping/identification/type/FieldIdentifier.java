@@ -18,13 +18,7 @@ public interface FieldIdentifier extends BytecodeIdentifier<AnnotatedElementDesc
 	}
 
 	default boolean isInData(FieldNode fieldNode) {
-		for (AnnotatedElementDescription<Field> field : getData()) {
-			if (field.getName().equals(fieldNode.name) && field.getDescriptor().equals(fieldNode.desc)) {
-				return true;
-			}
-		}
-
-		return false;
+		return getData().contains(AnnotatedElementDescription.fieldDescription(fieldNode.name, fieldNode.desc));
 	}
 
 }
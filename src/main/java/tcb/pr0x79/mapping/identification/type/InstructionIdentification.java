@@ -0,0 +1,179 @@
+package tcb.pr0x79.mapping.identification.type;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import tcb.pr0x79.mapping.identification.pattern.InstructionAutomaton;
+import tcb.pr0x79.mapping.identification.pattern.SequenceInstructionIdentifier;
+
+import java.util.*;
+
+/**
+ * Identifies instructions of a method and memoizes the results. All {@link PatternInstructionIdentifier}s
+ * that were added are evaluated together in a single pass over the instructions, which looks up the
+ * candidate patterns of each instruction by opcode and member name. {@link SequenceInstructionIdentifier}s
+ * are evaluated with one pass per automaton. Other identifiers are evaluated once each.
+ * The results are only valid as long as the method is not modified
+ */
+public final class InstructionIdentification {
+	private final MethodNode method;
+	private final Map<InstructionTypeIdentifier, Integer> results = new IdentityHashMap<>();
+	private final Set<PatternInstructionIdentifier> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Set<SequenceInstructionIdentifier> pendingSequences = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	public InstructionIdentification(MethodNode method) {
+		this.method = method;
+	}
+
+	/**
+	 * Adds an identifier that is evaluated in the next pass
+	 *
+	 * @param identifier The identifier
+	 */
+	public void add(InstructionTypeIdentifier identifier) {
+		if (identifier instanceof PatternInstructionIdentifier && !this.results.containsKey(identifier)) {
+			this.pending.add((PatternInstructionIdentifier) identifier);
+		} else if (identifier instanceof SequenceInstructionIdentifier && !this.results.containsKey(identifier)) {
+			this.pendingSequences.add((SequenceInstructionIdentifier) identifier);
+		}
+	}
+
+	/**
+	 * Returns the index the specified identifier identifies, see {@link InstructionTypeIdentifier#identify(MethodNode)}.
+	 * Evaluates all added pattern identifiers if the identifier has not been evaluated yet
+	 *
+	 * @param identifier The identifier
+	 * @return
+	 */
+	public int identify(InstructionTypeIdentifier identifier) {
+		Integer result = this.results.get(identifier);
+		if (result == null) {
+			if (identifier instanceof PatternInstructionIdentifier) {
+				this.pending.add((PatternInstructionIdentifier) identifier);
+				this.match();
+				result = this.results.get(identifier);
+			} else if (identifier instanceof SequenceInstructionIdentifier) {
+				this.pendingSequences.add((SequenceInstructionIdentifier) identifier);
+				this.matchSequences();
+				result = this.results.get(identifier);
+			} else {
+				this.results.put(identifier, result = identifier.identify(this.method));
+			}
+		}
+		return result;
+	}
+
+	private void match() {
+		Candidates[] byOpcode = new Candidates[256];
+		List<Match> matches = new ArrayList<>(this.pending.size());
+		int unmatched = 0;
+		boolean lastMatches = false;
+		for (PatternInstructionIdentifier identifier : this.pending) {
+			Match match = new Match(identifier);
+			matches.add(match);
+			if (match.last) {
+				lastMatches = true;
+			} else {
+				unmatched++;
+			}
+			for (InstructionPattern pattern : identifier.getPatterns()) {
+				for (int opcode : pattern.getOpcodes()) {
+					if (byOpcode[opcode] == null) {
+						byOpcode[opcode] = new Candidates();
+					}
+					byOpcode[opcode].add(new Candidate(match, pattern));
+				}
+			}
+		}
+		this.pending.clear();
+
+		int index = 0;
+		Iterator<AbstractInsnNode> insnIT = this.method.instructions.iterator();
+		while (insnIT.hasNext() && (unmatched > 0 || lastMatches)) {
+			AbstractInsnNode insn = insnIT.next();
+			int opcode = insn.getOpcode();
+			if (opcode >= 0 && byOpcode[opcode] != null) {
+				Candidates candidates = byOpcode[opcode];
+				unmatched -= match(candidates.anyName, insn, index);
+				if (!candidates.byName.isEmpty()) {
+					String name = InstructionPattern.getMemberName(insn);
+					if (name != null) {
+						List<Candidate> named = candidates.byName.get(name);
+						if (named != null) {
+							unmatched -= match(named, insn, index);
+						}
+					}
+				}
+			}
+			index++;
+		}
+
+		for (Match match : matches) {
+			this.results.put(match.identifier, match.index == -1 ? -1 : match.index + match.identifier.getOffset());
+		}
+	}
+
+	private void matchSequences() {
+		Map<InstructionAutomaton, int[]> automatonResults = new IdentityHashMap<>();
+		for (SequenceInstructionIdentifier identifier : this.pendingSequences) {
+			int[] identified = automatonResults.computeIfAbsent(identifier.getAutomaton(), automaton -> automaton.identify(this.method));
+			this.results.put(identifier, identified[identifier.getPattern()]);
+		}
+		this.pendingSequences.clear();
+	}
+
+	/**
+	 * Matches the specified instruction against the candidates
+	 *
+	 * @return The number of first match identifiers that were matched
+	 */
+	private static int match(List<Candidate> candidates, AbstractInsnNode insn, int index) {
+		int matched = 0;
+		for (Candidate candidate : candidates) {
+			Match match = candidate.match;
+			if ((match.last || match.index == -1) && match.index != index && candidate.pattern.matchesOperands(insn)) {
+				if (!match.last) {
+					matched++;
+				}
+				match.index = index;
+			}
+		}
+		return matched;
+	}
+
+	private static final class Match {
+		private final PatternInstructionIdentifier identifier;
+		private final boolean last;
+		private int index = -1;
+
+		private Match(PatternInstructionIdentifier identifier) {
+			this.identifier = identifier;
+			this.last = identifier.isLastMatch();
+		}
+	}
+
+	private static final class Candidate {
+		private final Match match;
+		private final InstructionPattern pattern;
+
+		private Candidate(Match match, InstructionPattern pattern) {
+			this.match = match;
+			this.pattern = pattern;
+		}
+	}
+
+	/**
+	 * The candidate patterns of an opcode
+	 */
+	private static final class Candidates {
+		private final List<Candidate> anyName = new ArrayList<>();
+		private final Map<String, List<Candidate>> byName = new HashMap<>();
+
+		private void add(Candidate candidate) {
+			if (candidate.pattern.getName() == null) {
+				this.anyName.add(candidate);
+			} else {
+				this.byName.computeIfAbsent(candidate.pattern.getName(), name -> new ArrayList<>()).add(candidate);
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package tcb.pr0x79.mapping.identification.type;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.Arrays;
+
+/**
+ * Matches instructions by opcode and optionally by the owner, name and descriptor of the
+ * referenced member, see {@link PatternInstructionIdentifier}. A null owner, name or descriptor
+ * matches any value
+ */
+public final class InstructionPattern {
+	private static final int[] METHOD_CALL_OPCODES = {Opcodes.INVOKEVIRTUAL, Opcodes.INVOKESPECIAL, Opcodes.INVOKESTATIC, Opcodes.INVOKEINTERFACE};
+	private static final int[] FIELD_ACCESS_OPCODES = {Opcodes.GETSTATIC, Opcodes.PUTSTATIC, Opcodes.GETFIELD, Opcodes.PUTFIELD};
+	private static final int[] RETURN_OPCODES = {Opcodes.IRETURN, Opcodes.LRETURN, Opcodes.FRETURN, Opcodes.DRETURN, Opcodes.ARETURN, Opcodes.RETURN};
+
+	private final int[] opcodes;
+	private final String owner, name, desc;
+
+	private InstructionPattern(int[] opcodes, String owner, String name, String desc) {
+		this.opcodes = opcodes.clone();
+		//Interned so that patterns with equal strings share them
+		this.owner = owner == null ? null : owner.intern();
+		this.name = name == null ? null : name.intern();
+		this.desc = desc == null ? null : desc.intern();
+	}
+
+	/**
+	 * Matches any instruction with one of the specified opcodes
+	 *
+	 * @param opcodes The opcodes
+	 * @return
+	 */
+	public static InstructionPattern opcodes(int... opcodes) {
+		return new InstructionPattern(opcodes, null, null, null);
+	}
+
+	/**
+	 * Matches any return instruction
+	 *
+	 * @return
+	 */
+	public static InstructionPattern returns() {
+		return new InstructionPattern(RETURN_OPCODES, null, null, null);
+	}
+
+	/**
+	 * Matches method calls, except for invokedynamic
+	 *
+	 * @param owner The internal name of the method owner
+	 * @param name  The method name
+	 * @param desc  The method descriptor
+	 * @return
+	 */
+	public static InstructionPattern methodCall(String owner, String name, String desc) {
+		return new InstructionPattern(METHOD_CALL_OPCODES, owner, name, desc);
+	}
+
+	/**
+	 * Matches field reads and writes
+	 *
+	 * @param owner The internal name of the field owner
+	 * @param name  The field name
+	 * @param desc  The field descriptor
+	 * @return
+	 */
+	public static InstructionPattern fieldAccess(String owner, String name, String desc) {
+		return new InstructionPattern(FIELD_ACCESS_OPCODES, owner, name, desc);
+	}
+
+	/**
+	 * Matches instructions with the specified opcode that reference the specified member.
+	 * For invokedynamic the owner is ignored, for type instructions the owner is the type
+	 *
+	 * @param opcode The opcode
+	 * @param owner  The internal name of the member owner
+	 * @param name   The member name
+	 * @param desc   The member descriptor
+	 * @return
+	 */
+	public static InstructionPattern member(int opcode, String owner, String name, String desc) {
+		return new InstructionPattern(new int[]{opcode}, owner, name, desc);
+	}
+
+	/**
+	 * Returns the opcodes this pattern matches
+	 *
+	 * @return
+	 */
+	public int[] getOpcodes() {
+		return this.opcodes.clone();
+	}
+
+	/**
+	 * Returns the member name this pattern matches, or null if it matches any name
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Returns whether the specified instruction matches this pattern.
+	 * Does not check the opcode
+	 *
+	 * @param insn The instruction
+	 * @return
+	 */
+	public boolean matchesOperands(AbstractInsnNode insn) {
+		if (this.owner == null && this.name == null && this.desc == null) {
+			return true;
+		}
+		switch (insn.getType()) {
+			case AbstractInsnNode.METHOD_INSN: {
+				MethodInsnNode methodInsn = (MethodInsnNode) insn;
+				return matches(this.owner, methodInsn.owner) && matches(this.name, methodInsn.name) && matches(this.desc, methodInsn.desc);
+			}
+			case AbstractInsnNode.FIELD_INSN: {
+				FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+				return matches(this.owner, fieldInsn.owner) && matches(this.name, fieldInsn.name) && matches(this.desc, fieldInsn.desc);
+			}
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+				InvokeDynamicInsnNode indyInsn = (InvokeDynamicInsnNode) insn;
+				return matches(this.name, indyInsn.name) && matches(this.desc, indyInsn.desc);
+			}
+			case AbstractInsnNode.TYPE_INSN:
+				return matches(this.owner, ((TypeInsnNode) insn).desc) && this.name == null && this.desc == null;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns the name of the member the specified instruction references, or null if it doesn't reference a member
+	 *
+	 * @param insn The instruction
+	 * @return
+	 */
+	static String getMemberName(AbstractInsnNode insn) {
+		switch (insn.getType()) {
+			case AbstractInsnNode.METHOD_INSN:
+				return ((MethodInsnNode) insn).name;
+			case AbstractInsnNode.FIELD_INSN:
+				return ((FieldInsnNode) insn).name;
+			case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+				return ((InvokeDynamicInsnNode) insn).name;
+			default:
+				return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s.%s%s", Arrays.toString(this.opcodes), this.owner, this.name, this.desc);
+	}
+
+	private static boolean matches(String expected, String actual) {
+		return expected == null || expected.equals(actual);
+	}
+}
@@ -17,12 +17,6 @@ public interface MethodIdentifier extends BytecodeIdentifier<AnnotatedElementDes
 	}
 
 	default boolean isInData(MethodNode methodNode) {
-		for (AnnotatedElementDescription<Method> method : getData()) {
-			if (method.getName().equals(methodNode.name) && method.getDescriptor().equals(methodNode.desc)) {
-				return true;
-			}
-		}
-
-		return false;
+		return getData().contains(AnnotatedElementDescription.methodDescription(methodNode.name, methodNode.desc));
 	}
 }
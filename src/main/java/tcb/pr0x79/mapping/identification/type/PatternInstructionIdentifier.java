@@ -0,0 +1,47 @@
+package tcb.pr0x79.mapping.identification.type;
+
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.List;
+
+/**
+ * Identifies the index of the first or last instruction that matches any of the {@link InstructionPattern}s,
+ * plus an offset. Unlike other {@link InstructionTypeIdentifier}s, all pattern identifiers of a method
+ * are evaluated together in a single pass over its instructions, see {@link InstructionIdentification}
+ */
+public interface PatternInstructionIdentifier extends InstructionTypeIdentifier {
+	/**
+	 * Returns the patterns an instruction must match any of
+	 *
+	 * @return
+	 */
+	List<InstructionPattern> getPatterns();
+
+	/**
+	 * Returns whether the last instead of the first matching instruction is identified
+	 *
+	 * @return
+	 */
+	default boolean isLastMatch() {
+		return false;
+	}
+
+	/**
+	 * Returns the offset that is added to the index of the matching instruction
+	 *
+	 * @return
+	 */
+	default int getOffset() {
+		return 0;
+	}
+
+	@Override
+	default InstructionType getType() {
+		return InstructionType.INSTRUCTION;
+	}
+
+	@Override
+	default int identify(MethodNode method) {
+		return new InstructionIdentification(method).identify(this);
+	}
+}
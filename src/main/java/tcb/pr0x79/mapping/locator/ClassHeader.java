@@ -0,0 +1,32 @@
+package tcb.pr0x79.mapping.locator;
+
+import java.util.List;
+
+/**
+ * The header of a class, i.e. the data the class hierarchy needs about a class
+ */
+public final class ClassHeader {
+	public final String name;
+	public final String signature;
+	public final String superName;
+	public final List<String> interfaces;
+	public final String outerClass;
+	public final int access;
+
+	/**
+	 * @param name       The internal name of the class
+	 * @param signature  The generic signature of the class, may be null
+	 * @param superName  The internal name of the superclass, null for <code>java/lang/Object</code> and modules
+	 * @param interfaces The internal names of the interfaces
+	 * @param outerClass The internal name of the enclosing class of a local or anonymous class, may be null
+	 * @param access     The access flags of the class
+	 */
+	public ClassHeader(String name, String signature, String superName, List<String> interfaces, String outerClass, int access) {
+		this.name = name;
+		this.signature = signature;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.outerClass = outerClass;
+		this.access = access;
+	}
+}
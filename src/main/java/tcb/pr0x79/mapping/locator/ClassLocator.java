@@ -20,4 +20,18 @@ public interface ClassLocator {
 	 * @throws IOException
 	 */
 	ClassNode locate(ClassLoader loader, String internalClassName, int flags) throws IOException;
+
+	/**
+	 * Locates the header of a class without creating a {@link ClassNode}. Locators that know the headers of their
+	 * classes, e.g. from a snapshot, can override this so that the class hierarchy does not have to read the class file.
+	 * Returns null by default
+	 *
+	 * @param loader            The classloader of the class that needs to locate this class. May not be the same classloader as the one of the specified class
+	 * @param internalClassName The internal name of the class
+	 * @return The header, or null if it is not known to this locator
+	 * @throws IOException
+	 */
+	default ClassHeader locateHeader(ClassLoader loader, String internalClassName) throws IOException {
+		return null;
+	}
 }
@@ -4,37 +4,43 @@ import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
 import tcb.pr0x79.Bootstrapper;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
 import java.util.*;
 
 public class ClassLocatorRegistry {
+	//Maximum estimated weight of the class nodes cached by the default locator
+	private static final long DEFAULT_CACHE_WEIGHT = 64L << 20;
+
 	private final Bootstrapper bootstrapper;
 
 	private final Map<String, ClassLocator> classLocators = new TreeMap<>();
-	private final Map<String, Reference<ClassNode>> jreClassCache = new WeakHashMap<>();
+	//Snapshot of the registered locators so that lookups don't need to lock
+	private volatile ClassLocator[] classLocatorSnapshot = new ClassLocator[0];
+	private final ClassNodeCache classNodeCache = new ClassNodeCache(DEFAULT_CACHE_WEIGHT);
 
 	public ClassLocatorRegistry(Bootstrapper bootstrapper) {
 		this.bootstrapper = bootstrapper;
 
-		this.registerClassLocator("default", (loader, internalClassName, flags) -> {
+		this.registerClassLocator("default", (loader, internalClassName, flags) -> this.classNodeCache.get(loader, internalClassName, flags, () -> {
 			String clsName = internalClassName + ".class";
-			if (jreClassCache.containsKey(clsName)) {
-				return jreClassCache.get(clsName).get();
-			}
-
-			try (InputStream stream = loader.getResourceAsStream(clsName)) {
-				ClassNode cls = new ClassNode();
-				new ClassReader(stream).accept(cls, flags);
-				if (clsName.startsWith("java/")) {
-					jreClassCache.put(clsName, new SoftReference<>(cls));
+			try (InputStream stream = loader != null ? loader.getResourceAsStream(clsName) : ClassLoader.getSystemResourceAsStream(clsName)) {
+				if (stream == null) {
+					throw new IOException(String.format("Class file %s was not found", clsName));
 				}
-
-				return cls;
+				return readFully(stream);
 			}
-		});
+		}));
+	}
+
+	/**
+	 * Returns the cache of the default class locator
+	 *
+	 * @return
+	 */
+	public ClassNodeCache getClassNodeCache() {
+		return this.classNodeCache;
 	}
 
 	/**
@@ -48,6 +54,7 @@ public class ClassLocatorRegistry {
 		this.checkBootstrapperState();
 
 		this.classLocators.put(id, locator);
+		this.classLocatorSnapshot = this.classLocators.values().toArray(new ClassLocator[0]);
 	}
 
 	/**
@@ -59,7 +66,9 @@ public class ClassLocatorRegistry {
 	public synchronized ClassLocator unregisterClassLocator(String id) {
 		this.checkBootstrapperState();
 
-		return this.classLocators.remove(id);
+		ClassLocator locator = this.classLocators.remove(id);
+		this.classLocatorSnapshot = this.classLocators.values().toArray(new ClassLocator[0]);
+		return locator;
 	}
 
 	/**
@@ -79,8 +88,8 @@ public class ClassLocatorRegistry {
 	 * @param flags             The {@link ClassReader} flags
 	 * @return
 	 */
-	public synchronized ClassNode getClass(ClassLoader loader, String internalClassName, int flags) {
-		for (ClassLocator locator : this.classLocators.values()) {
+	public ClassNode getClass(ClassLoader loader, String internalClassName, int flags) {
+		for (ClassLocator locator : this.classLocatorSnapshot) {
 			try {
 				ClassNode node = locator.locate(loader, internalClassName, flags);
 				if (node != null) {
@@ -93,6 +102,28 @@ public class ClassLocatorRegistry {
 		return null;
 	}
 
+	/**
+	 * Returns the header of the specified class if a registered locator knows it without
+	 * reading the class file, see {@link ClassLocator#locateHeader(ClassLoader, String)}
+	 *
+	 * @param loader            The classloader
+	 * @param internalClassName The internal name of the class
+	 * @return The header or null if no locator knows it
+	 */
+	public ClassHeader getClassHeader(ClassLoader loader, String internalClassName) {
+		for (ClassLocator locator : this.classLocatorSnapshot) {
+			try {
+				ClassHeader header = locator.locateHeader(loader, internalClassName);
+				if (header != null) {
+					return header;
+				}
+			} catch (IOException ignored) {
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * Validates the boostrapper state and throws an exception if the bootstrapper is no longer initializing
 	 */
@@ -101,4 +132,14 @@ public class ClassLocatorRegistry {
 			throw new RuntimeException("Class locators must be (un-)registered during the bootstrap initialization");
 		}
 	}
+
+	private static byte[] readFully(InputStream stream) throws IOException {
+		byte[] buffer = new byte[4096];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int read;
+		while ((read = stream.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
 }
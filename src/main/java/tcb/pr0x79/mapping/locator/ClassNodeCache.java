@@ -0,0 +1,284 @@
+package tcb.pr0x79.mapping.locator;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the class files located by a {@link ClassLocator} per class loader and internal class name.
+ * Each entry keeps the class file bytes, which are read only once, and the {@link ClassNode}s that were
+ * parsed from them on demand: a structure node parsed with {@link ClassReader#SKIP_CODE} and full nodes
+ * parsed without any skip flags, with or without {@link ClassReader#EXPAND_FRAMES}.
+ * A request is answered with the node that skips the least flags that are allowed by the request,
+ * see {@link ClassLocator#locate(ClassLoader, String, int)}.
+ * <p>
+ * The cache is split into segments with separate locks, each segment evicts its least recently used
+ * entries once the estimated weight of its entries exceeds its share of the maximum weight.
+ * Class loaders are referenced weakly, entries of collected class loaders are evicted eventually.
+ * <p><b>Note: Nodes are shared, so they must not be modified</b>
+ */
+public final class ClassNodeCache {
+	private static final int SEGMENTS = 16;
+	//Estimated weight of a parsed node relative to the size of its class file
+	private static final int STRUCTURE_WEIGHT_FACTOR = 2;
+	private static final int FULL_WEIGHT_FACTOR = 6;
+
+	private static final int STRUCTURE = 0, FULL = 1, FULL_EXPANDED = 2;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final long maxSegmentWeight;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxWeight The maximum estimated weight of all entries in bytes
+	 */
+	public ClassNodeCache(long maxWeight) {
+		for (int i = 0; i < SEGMENTS; i++) {
+			this.segments[i] = new Segment();
+		}
+		this.maxSegmentWeight = Math.max(1, maxWeight / SEGMENTS);
+	}
+
+	/**
+	 * Reads the class file of a class
+	 */
+	@FunctionalInterface
+	public interface ClassFileReader {
+		/**
+		 * Reads the class file
+		 *
+		 * @return The class file bytes
+		 * @throws IOException if the class file could not be read
+		 */
+		byte[] read() throws IOException;
+	}
+
+	/**
+	 * Returns a {@link ClassNode} of the specified class that satisfies the specified flags. The class file is read
+	 * with the specified reader if it is not cached yet
+	 *
+	 * @param loader            The class loader, null for the bootstrap class loader
+	 * @param internalClassName The internal name of the class
+	 * @param flags             The {@link ClassReader} flags
+	 * @param reader            Reads the class file if it is not cached
+	 * @return
+	 * @throws IOException
+	 */
+	public ClassNode get(ClassLoader loader, String internalClassName, int flags, ClassFileReader reader) throws IOException {
+		Lookup lookup = new Lookup(loader, internalClassName);
+		Segment segment = this.segments[(lookup.hash ^ (lookup.hash >>> 16)) & (SEGMENTS - 1)];
+
+		int slot = (flags & ClassReader.SKIP_CODE) != 0 ? STRUCTURE : (flags & ClassReader.EXPAND_FRAMES) != 0 ? FULL_EXPANDED : FULL;
+
+		Entry entry;
+		ClassNode node = null;
+		synchronized (segment) {
+			entry = segment.entries.get(lookup);
+			if (entry != null) {
+				node = entry.getNode(slot);
+			}
+		}
+
+		if (entry == null) {
+			Entry created = new Entry(reader.read());
+			synchronized (segment) {
+				entry = segment.entries.get(lookup);
+				if (entry == null) {
+					entry = created;
+					segment.entries.put(new Key(loader, internalClassName, lookup.hash), entry);
+					segment.weight += entry.weight;
+					this.evict(segment);
+				} else {
+					node = entry.getNode(slot);
+				}
+			}
+		}
+
+		if (node != null) {
+			this.hits.increment();
+			return node;
+		}
+
+		this.misses.increment();
+		node = new ClassNode();
+		new ClassReader(entry.bytes).accept(node, slot == STRUCTURE ? ClassReader.SKIP_CODE : slot == FULL_EXPANDED ? ClassReader.EXPAND_FRAMES : 0);
+
+		synchronized (segment) {
+			if (entry.nodes[slot] != null) {
+				return entry.nodes[slot];
+			}
+			entry.nodes[slot] = node;
+			long weight = (long) entry.bytes.length * (slot == STRUCTURE ? STRUCTURE_WEIGHT_FACTOR : FULL_WEIGHT_FACTOR);
+			entry.weight += weight;
+			if (!entry.evicted) {
+				segment.weight += weight;
+				this.evict(segment);
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Evicts the least recently used entries of the segment until it is within its weight bound.
+	 * The most recently used entry is never evicted
+	 */
+	private void evict(Segment segment) {
+		Iterator<Entry> it = segment.entries.values().iterator();
+		while (segment.weight > this.maxSegmentWeight && segment.entries.size() > 1 && it.hasNext()) {
+			Entry entry = it.next();
+			it.remove();
+			entry.evicted = true;
+			segment.weight -= entry.weight;
+			this.evictions.increment();
+		}
+	}
+
+	/**
+	 * Returns the number of requests that were answered with a cached {@link ClassNode}
+	 *
+	 * @return
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Returns the number of requests that had to parse a {@link ClassNode}
+	 *
+	 * @return
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries that were evicted
+	 *
+	 * @return
+	 */
+	public long getEvictions() {
+		return this.evictions.sum();
+	}
+
+	/**
+	 * Returns the estimated weight of all cached entries in bytes
+	 *
+	 * @return
+	 */
+	public long getWeight() {
+		long weight = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				weight += segment.weight;
+			}
+		}
+		return weight;
+	}
+
+	private static final class Segment {
+		//Access ordered, so iteration starts at the least recently used entry
+		private final Map<Object, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+		private long weight;
+	}
+
+	private static final class Entry {
+		private final byte[] bytes;
+		//Guarded by the segment lock
+		private final ClassNode[] nodes = new ClassNode[3];
+		private long weight;
+		private boolean evicted;
+
+		private Entry(byte[] bytes) {
+			this.bytes = bytes;
+			this.weight = bytes.length;
+		}
+
+		/**
+		 * Returns the node of the specified slot or a node that skips less, if any
+		 */
+		private ClassNode getNode(int slot) {
+			ClassNode node = this.nodes[slot];
+			if (node == null && slot == STRUCTURE) {
+				node = this.nodes[FULL] != null ? this.nodes[FULL] : this.nodes[FULL_EXPANDED];
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * Stored key that references the class loader weakly
+	 */
+	private static final class Key {
+		private final WeakReference<ClassLoader> loader;
+		private final String name;
+		private final int hash;
+
+		private Key(ClassLoader loader, String name, int hash) {
+			this.loader = loader != null ? new WeakReference<>(loader) : null;
+			this.name = name;
+			this.hash = hash;
+		}
+
+		private boolean matches(ClassLoader loader, String name) {
+			if (this.loader == null) {
+				return loader == null && this.name.equals(name);
+			}
+			return loader != null && this.loader.get() == loader && this.name.equals(name);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (obj instanceof Lookup) {
+				return this.matches(((Lookup) obj).loader, ((Lookup) obj).name);
+			}
+			if (obj instanceof Key) {
+				Key other = (Key) obj;
+				ClassLoader loader = other.loader != null ? other.loader.get() : null;
+				return (other.loader == null || loader != null) && this.matches(loader, other.name);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Strong key used for lookups so that no {@link WeakReference} has to be allocated
+	 */
+	private static final class Lookup {
+		private final ClassLoader loader;
+		private final String name;
+		private final int hash;
+
+		private Lookup(ClassLoader loader, String name) {
+			this.loader = loader;
+			this.name = name;
+			this.hash = 31 * System.identityHashCode(loader) + name.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).matches(this.loader, this.name);
+		}
+	}
+}
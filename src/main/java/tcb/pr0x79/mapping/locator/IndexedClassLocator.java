@@ -0,0 +1,512 @@
+package tcb.pr0x79.mapping.locator;
+
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Locates classes in a fixed list of jars and class directories that are indexed once when the locator is created.
+ * The central directories of the jars are read from memory mapped files into an open addressing hash table
+ * that maps the class file names to their central directory records, so a lookup neither walks the class loader
+ * delegation chain nor opens a stream. Classes that occur more than once are located in the first jar or directory
+ * that contains them, like on a class path.
+ * <p>
+ * The locator ignores the class loader and answers every lookup of an indexed class. It should only be registered
+ * if the indexed classes are visible to all class loaders that are instrumented, e.g. for the application class path
+ * with {@link #ofClassPath()}. Classes that are added to the jars or directories after the locator was created are not found.
+ * Registered IDs are ordered alphabetically, so an ID that is ordered before <code>default</code> makes the registry
+ * query this locator before the default locator
+ */
+public final class IndexedClassLocator implements ClassLocator {
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+	private static final int STORED = 0, DEFLATED = 8;
+	private static final long NOT_FOUND = Long.MIN_VALUE;
+	private static final String CLASS_SUFFIX = ".class";
+
+	//Maximum estimated weight of the cached class nodes
+	private static final long DEFAULT_CACHE_WEIGHT = 32L << 20;
+
+	private static final ThreadLocal<ReadBuffers> BUFFERS = ThreadLocal.withInitial(ReadBuffers::new);
+
+	//Memory mapped jars
+	private final List<ByteBuffer> archives = new ArrayList<>();
+	//Class file names and files of the indexed directories
+	private final List<byte[]> fileNames = new ArrayList<>();
+	private final List<Path> files = new ArrayList<>();
+
+	//Open addressing hash table of the class file names. An entry is either the archive index in
+	//the upper and the central directory record offset in the lower 32 bits, or the negated index + 1 of a file
+	private final int[] hashes;
+	private final long[] entries;
+	private final int mask;
+	private int size;
+
+	private final ClassNodeCache cache;
+
+	/**
+	 * Indexes the specified jars and class directories. Paths that don't exist are skipped
+	 *
+	 * @param classPath The jars and class directories in lookup order
+	 * @throws IOException if a jar or directory could not be read
+	 */
+	public IndexedClassLocator(List<Path> classPath) throws IOException {
+		this(classPath, DEFAULT_CACHE_WEIGHT);
+	}
+
+	/**
+	 * Indexes the specified jars and class directories. Paths that don't exist are skipped
+	 *
+	 * @param classPath   The jars and class directories in lookup order
+	 * @param cacheWeight The maximum estimated weight of the cached class nodes in bytes, see {@link ClassNodeCache}
+	 * @throws IOException if a jar or directory could not be read
+	 */
+	public IndexedClassLocator(List<Path> classPath, long cacheWeight) throws IOException {
+		this.cache = new ClassNodeCache(cacheWeight);
+
+		//Map all archives and list all directories first so that the table can be sized once
+		List<Path> sourcePaths = new ArrayList<>();
+		List<List<Path>> sourceFiles = new ArrayList<>();
+		List<long[]> sourceEnds = new ArrayList<>();
+		long count = 0;
+		for (Path path : classPath) {
+			if (Files.isDirectory(path)) {
+				List<Path> classFiles;
+				try (Stream<Path> stream = Files.walk(path)) {
+					classFiles = stream.filter(file -> file.getFileName().toString().endsWith(CLASS_SUFFIX) && Files.isRegularFile(file)).collect(Collectors.toList());
+				}
+				sourcePaths.add(path);
+				sourceFiles.add(classFiles);
+				sourceEnds.add(null);
+				count += classFiles.size();
+			} else if (Files.isRegularFile(path)) {
+				ByteBuffer archive = map(path);
+				long[] end = readEnd(path, archive);
+				this.archives.add(archive);
+				sourcePaths.add(path);
+				sourceFiles.add(null);
+				sourceEnds.add(end);
+				count += end[0];
+			}
+		}
+		if (count > 1 << 28) {
+			throw new IOException(String.format("Too many classes to index: %d", count));
+		}
+
+		int capacity = Integer.highestOneBit((int) Math.max(16, count * 2 - 1)) << 1;
+		this.hashes = new int[capacity];
+		this.entries = new long[capacity];
+		this.mask = capacity - 1;
+
+		int archiveIndex = 0;
+		for (int i = 0; i < sourcePaths.size(); i++) {
+			if (sourceEnds.get(i) != null) {
+				this.indexArchive(sourcePaths.get(i), archiveIndex, this.archives.get(archiveIndex), sourceEnds.get(i));
+				archiveIndex++;
+			} else {
+				Path dir = sourcePaths.get(i);
+				for (Path file : sourceFiles.get(i)) {
+					StringBuilder name = new StringBuilder();
+					for (Path element : dir.relativize(file)) {
+						if (name.length() > 0) {
+							name.append('/');
+						}
+						name.append(element.toString());
+					}
+					byte[] nameBytes = name.toString().getBytes(StandardCharsets.UTF_8);
+					this.fileNames.add(nameBytes);
+					this.files.add(file);
+					this.insert(nameBytes, -this.files.size());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a locator that indexes the jars and class directories of the <code>java.class.path</code> system property.
+	 * The jars and directories of the <code>Class-Path</code> manifest attributes of the jars are indexed as well
+	 *
+	 * @return
+	 * @throws IOException if a jar or directory could not be read
+	 */
+	public static IndexedClassLocator ofClassPath() throws IOException {
+		List<Path> classPath = new ArrayList<>();
+		Set<Path> visited = new HashSet<>();
+		for (String element : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+			if (!element.isEmpty()) {
+				addClassPath(Paths.get(element), classPath, visited);
+			}
+		}
+		return new IndexedClassLocator(classPath);
+	}
+
+	/**
+	 * Adds the specified jar or class directory to the class path. Like the application class loader, the entries
+	 * of the <code>Class-Path</code> manifest attribute of a jar are added right after the jar. Entries are
+	 * relative URLs to the directory of the jar, invalid entries and entries that are not files are skipped
+	 */
+	private static void addClassPath(Path path, List<Path> classPath, Set<Path> visited) throws IOException {
+		if (!visited.add(path.toAbsolutePath().normalize())) {
+			return;
+		}
+		classPath.add(path);
+
+		if (!Files.isRegularFile(path)) {
+			return;
+		}
+		Manifest manifest;
+		try (JarFile jar = new JarFile(path.toFile(), false)) {
+			manifest = jar.getManifest();
+		}
+		String value = manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) : null;
+		if (value == null) {
+			return;
+		}
+
+		URL base = path.toUri().toURL();
+		for (String entry : value.trim().split("\\s+")) {
+			if (entry.isEmpty()) {
+				continue;
+			}
+			try {
+				URL url = new URL(base, entry);
+				if ("file".equals(url.getProtocol())) {
+					addClassPath(Paths.get(url.toURI()), classPath, visited);
+				}
+			} catch (MalformedURLException | URISyntaxException | IllegalArgumentException ignored) {
+				//Skipped like by the application class loader
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of indexed classes
+	 *
+	 * @return
+	 */
+	public int getClassCount() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the cache of the located class nodes
+	 *
+	 * @return
+	 */
+	public ClassNodeCache getClassNodeCache() {
+		return this.cache;
+	}
+
+	@Override
+	public ClassNode locate(ClassLoader loader, String internalClassName, int flags) throws IOException {
+		byte[] name = (internalClassName + CLASS_SUFFIX).getBytes(StandardCharsets.UTF_8);
+		long entry = this.find(name);
+		if (entry == NOT_FOUND) {
+			return null;
+		}
+
+		//The indexed classes don't depend on the class loader
+		return this.cache.get(null, internalClassName, flags, () -> this.read(entry, internalClassName));
+	}
+
+	/**
+	 * Returns the class file bytes of the specified class or null if it is not indexed
+	 *
+	 * @param internalClassName The internal name of the class
+	 * @return
+	 * @throws IOException if the class file could not be read
+	 */
+	public byte[] getClassFile(String internalClassName) throws IOException {
+		long entry = this.find((internalClassName + CLASS_SUFFIX).getBytes(StandardCharsets.UTF_8));
+		return entry != NOT_FOUND ? this.read(entry, internalClassName) : null;
+	}
+
+	private long find(byte[] name) {
+		int hash = hash(name);
+		for (int slot = hash & this.mask; this.hashes[slot] != 0; slot = (slot + 1) & this.mask) {
+			if (this.hashes[slot] == hash && this.nameEquals(this.entries[slot], name)) {
+				return this.entries[slot];
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	private void insert(byte[] name, long entry) {
+		int hash = hash(name);
+		int slot = hash & this.mask;
+		for (; this.hashes[slot] != 0; slot = (slot + 1) & this.mask) {
+			if (this.hashes[slot] == hash && this.nameEquals(this.entries[slot], name)) {
+				//The first occurrence on the class path wins
+				return;
+			}
+		}
+		this.hashes[slot] = hash;
+		this.entries[slot] = entry;
+		this.size++;
+	}
+
+	private boolean nameEquals(long entry, byte[] name) {
+		if (entry < 0) {
+			byte[] fileName = this.fileNames.get((int) -entry - 1);
+			return Arrays.equals(fileName, name);
+		}
+
+		ByteBuffer archive = this.archives.get((int) (entry >>> 32));
+		int record = (int) entry;
+		int nameLength = archive.getShort(record + 28) & 0xFFFF;
+		if (nameLength != name.length) {
+			return false;
+		}
+		for (int i = 0; i < nameLength; i++) {
+			if (archive.get(record + 46 + i) != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void indexArchive(Path path, int archiveIndex, ByteBuffer archive, long[] end) throws IOException {
+		long entryCount = end[0];
+		long position = end[1];
+		for (long i = 0; i < entryCount; i++) {
+			if (position + 46 > archive.limit() || archive.getInt((int) position) != CENTRAL_HEADER_SIGNATURE) {
+				throw new IOException(String.format("Invalid central directory record at offset %d in %s", position, path));
+			}
+			int record = (int) position;
+			int nameLength = archive.getShort(record + 28) & 0xFFFF;
+			int extraLength = archive.getShort(record + 30) & 0xFFFF;
+			int commentLength = archive.getShort(record + 32) & 0xFFFF;
+			boolean encrypted = (archive.getShort(record + 8) & 1) != 0;
+			int method = archive.getShort(record + 10) & 0xFFFF;
+
+			if (!encrypted && (method == STORED || method == DEFLATED) && isIndexedClass(archive, record + 46, nameLength)) {
+				byte[] name = new byte[nameLength];
+				for (int j = 0; j < nameLength; j++) {
+					name[j] = archive.get(record + 46 + j);
+				}
+				this.insert(name, ((long) archiveIndex << 32) | record);
+			}
+
+			position += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * Returns whether the specified entry name is a class file that is not in <code>META-INF/</code>, e.g.
+	 * versioned class files of multi-release jars, and not a module descriptor
+	 */
+	private static boolean isIndexedClass(ByteBuffer archive, int offset, int length) {
+		if (length <= CLASS_SUFFIX.length() || !endsWith(archive, offset, length, CLASS_SUFFIX) || endsWith(archive, offset, length, "module-info.class")) {
+			return false;
+		}
+		String prefix = "META-INF/";
+		if (length >= prefix.length()) {
+			boolean metaInf = true;
+			for (int i = 0; i < prefix.length() && metaInf; i++) {
+				metaInf = archive.get(offset + i) == prefix.charAt(i);
+			}
+			return !metaInf;
+		}
+		return true;
+	}
+
+	private static boolean endsWith(ByteBuffer archive, int offset, int length, String suffix) {
+		if (length < suffix.length()) {
+			return false;
+		}
+		int start = offset + length - suffix.length();
+		for (int i = 0; i < suffix.length(); i++) {
+			if (archive.get(start + i) != suffix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte[] read(long entry, String internalClassName) throws IOException {
+		if (entry < 0) {
+			return Files.readAllBytes(this.files.get((int) -entry - 1));
+		}
+
+		ByteBuffer archive = this.archives.get((int) (entry >>> 32));
+		int record = (int) entry;
+		int method = archive.getShort(record + 10) & 0xFFFF;
+		long compressedSize = archive.getInt(record + 20) & 0xFFFFFFFFL;
+		long size = archive.getInt(record + 24) & 0xFFFFFFFFL;
+		long localHeader = archive.getInt(record + 42) & 0xFFFFFFFFL;
+		if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeader == 0xFFFFFFFFL) {
+			long[] zip64 = readZip64Extra(archive, record, size, compressedSize, localHeader);
+			size = zip64[0];
+			compressedSize = zip64[1];
+			localHeader = zip64[2];
+		}
+		if (size > Integer.MAX_VALUE - 8 || localHeader + 30 > archive.limit() || archive.getInt((int) localHeader) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException(String.format("Invalid jar entry of class %s", internalClassName));
+		}
+
+		int data = (int) localHeader + 30 + (archive.getShort((int) localHeader + 26) & 0xFFFF) + (archive.getShort((int) localHeader + 28) & 0xFFFF);
+		if (data + compressedSize > archive.limit()) {
+			throw new IOException(String.format("Truncated jar entry of class %s", internalClassName));
+		}
+
+		byte[] bytes = new byte[(int) size];
+		ByteBuffer view = archive.duplicate();
+		view.position(data);
+		if (method == STORED) {
+			view.get(bytes);
+			return bytes;
+		}
+
+		ReadBuffers buffers = BUFFERS.get();
+		Inflater inflater = buffers.inflater;
+		inflater.reset();
+		int remaining = (int) compressedSize;
+		int inflated = 0;
+		try {
+			while (inflated < bytes.length) {
+				if (inflater.needsInput()) {
+					if (remaining == 0) {
+						break;
+					}
+					int chunk = Math.min(remaining, buffers.input.length);
+					view.get(buffers.input, 0, chunk);
+					remaining -= chunk;
+					inflater.setInput(buffers.input, 0, chunk);
+				}
+				int count = inflater.inflate(bytes, inflated, bytes.length - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += count;
+			}
+		} catch (DataFormatException ex) {
+			throw new IOException(String.format("Invalid compressed jar entry of class %s", internalClassName), ex);
+		}
+		if (inflated != bytes.length) {
+			throw new IOException(String.format("Truncated compressed jar entry of class %s", internalClassName));
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads the sizes and local header offset of a central directory record from its ZIP64 extra field
+	 *
+	 * @return The uncompressed size, compressed size and local header offset
+	 */
+	private static long[] readZip64Extra(ByteBuffer archive, int record, long size, long compressedSize, long localHeader) throws IOException {
+		int nameLength = archive.getShort(record + 28) & 0xFFFF;
+		int extraLength = archive.getShort(record + 30) & 0xFFFF;
+		int extra = record + 46 + nameLength;
+		int extraEnd = extra + extraLength;
+		while (extra + 4 <= extraEnd) {
+			int id = archive.getShort(extra) & 0xFFFF;
+			int length = archive.getShort(extra + 2) & 0xFFFF;
+			if (id == 0x0001) {
+				int value = extra + 4;
+				if (size == 0xFFFFFFFFL) {
+					size = archive.getLong(value);
+					value += 8;
+				}
+				if (compressedSize == 0xFFFFFFFFL) {
+					compressedSize = archive.getLong(value);
+					value += 8;
+				}
+				if (localHeader == 0xFFFFFFFFL) {
+					localHeader = archive.getLong(value);
+				}
+				return new long[]{size, compressedSize, localHeader};
+			}
+			extra += 4 + length;
+		}
+		throw new IOException("Missing ZIP64 extra field");
+	}
+
+	/**
+	 * Finds the end of central directory record
+	 *
+	 * @return The number of entries and the offset of the central directory
+	 */
+	private static long[] readEnd(Path path, ByteBuffer archive) throws IOException {
+		int limit = archive.limit();
+		for (int end = limit - END_SIZE; end >= Math.max(0, limit - END_SIZE - MAX_COMMENT_SIZE); end--) {
+			if (archive.getInt(end) != END_SIGNATURE || end + END_SIZE + (archive.getShort(end + 20) & 0xFFFF) != limit) {
+				continue;
+			}
+
+			long entryCount = archive.getShort(end + 10) & 0xFFFF;
+			long offset = archive.getInt(end + 16) & 0xFFFFFFFFL;
+			int locator = end - 20;
+			if ((entryCount == 0xFFFF || offset == 0xFFFFFFFFL) && locator >= 0 && archive.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+				long zip64End = archive.getLong(locator + 8);
+				if (zip64End + 56 > limit || archive.getInt((int) zip64End) != ZIP64_END_SIGNATURE) {
+					throw new IOException(String.format("Invalid ZIP64 end of central directory record in %s", path));
+				}
+				entryCount = archive.getLong((int) zip64End + 32);
+				offset = archive.getLong((int) zip64End + 48);
+			}
+			if (offset > limit) {
+				throw new IOException(String.format("Invalid central directory offset in %s", path));
+			}
+			return new long[]{entryCount, offset};
+		}
+		throw new IOException(String.format("%s is not a jar file", path));
+	}
+
+	private static ByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(String.format("Jar file %s is too large to be indexed", path));
+			}
+			//The mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	private static int hash(byte[] name) {
+		int hash = 0x811C9DC5;
+		for (byte b : name) {
+			hash = (hash ^ b) * 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		//0 marks empty slots
+		return hash != 0 ? hash : 1;
+	}
+
+	/**
+	 * Buffers that are reused by all reads of a thread
+	 */
+	private static final class ReadBuffers {
+		private final Inflater inflater = new Inflater(true);
+		private final byte[] input = new byte[16384];
+	}
+}
@@ -0,0 +1,257 @@
+package tcb.pr0x79.mapping.locator;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The headers of all classes of a JDK run-time image. The snapshot is stored in a compact binary file:
+ * a string table of all class names and signatures followed by the classes, which reference the string table
+ */
+final class JdkHierarchySnapshot {
+	private static final int MAGIC = 0x50373948;
+	private static final int FORMAT_VERSION = 1;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Map<String, ClassHeader> headers;
+
+	private JdkHierarchySnapshot(Map<String, ClassHeader> headers) {
+		this.headers = headers;
+	}
+
+	/**
+	 * Returns the header of the specified class or null if the class is not part of the run-time image
+	 *
+	 * @param internalClassName The internal name of the class
+	 * @return
+	 */
+	ClassHeader get(String internalClassName) {
+		return this.headers.get(internalClassName);
+	}
+
+	/**
+	 * Returns the number of classes in the snapshot
+	 *
+	 * @return
+	 */
+	int size() {
+		return this.headers.size();
+	}
+
+	/**
+	 * Returns the key that identifies the running JDK
+	 *
+	 * @return
+	 */
+	static String getJdkKey() {
+		return System.getProperty("java.home") + '\n' + System.getProperty("java.version") + '\n' + System.getProperty("java.vm.version");
+	}
+
+	/**
+	 * Returns the snapshot file of the specified JDK key in the specified directory
+	 *
+	 * @param directory The snapshot directory
+	 * @param key       The JDK key
+	 * @return
+	 */
+	static Path getFile(Path directory, String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			char[] chars = new char[32];
+			for (int i = 0; i < 16; i++) {
+				chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+				chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+			}
+			return directory.resolve("jdk-hierarchy-" + new String(chars) + ".bin");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Generates the snapshot of all classes in the <code>/modules</code> directory of a run-time image file system.
+	 * Classes that can't be read are skipped
+	 *
+	 * @param jrt The run-time image file system
+	 * @return
+	 * @throws IOException
+	 */
+	static JdkHierarchySnapshot generate(FileSystem jrt) throws IOException {
+		List<Path> classFiles;
+		try (Stream<Path> stream = Files.walk(jrt.getPath("/modules"))) {
+			classFiles = stream.filter(file -> {
+				String name = file.getFileName() != null ? file.getFileName().toString() : "";
+				return name.endsWith(".class") && !name.equals("module-info.class");
+			}).collect(Collectors.toList());
+		}
+
+		List<ClassHeader> headers = classFiles.parallelStream().map(file -> {
+			try {
+				HeaderVisitor visitor = new HeaderVisitor();
+				new ClassReader(Files.readAllBytes(file)).accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+				return visitor.header;
+			} catch (IOException | RuntimeException ex) {
+				//Unreadable or unsupported class file version
+				return null;
+			}
+		}).filter(Objects::nonNull).collect(Collectors.toList());
+
+		Map<String, ClassHeader> map = new HashMap<>(headers.size() * 2);
+		for (ClassHeader header : headers) {
+			map.putIfAbsent(header.name, header);
+		}
+		return new JdkHierarchySnapshot(map);
+	}
+
+	/**
+	 * Reads a snapshot file
+	 *
+	 * @param file The snapshot file
+	 * @param key  The JDK key the snapshot must have been created for
+	 * @return The snapshot or null if the file does not exist or was created for a different JDK or format
+	 */
+	static JdkHierarchySnapshot read(Path file, String key) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key)) {
+				return null;
+			}
+
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.readUTF();
+			}
+
+			int count = in.readInt();
+			Map<String, ClassHeader> headers = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				String name = strings[in.readInt()];
+				String signature = string(strings, in.readInt());
+				String superName = string(strings, in.readInt());
+				String outerClass = string(strings, in.readInt());
+				int access = in.readInt();
+				String[] interfaces = new String[in.readUnsignedShort()];
+				for (int j = 0; j < interfaces.length; j++) {
+					interfaces[j] = strings[in.readInt()];
+				}
+				headers.put(name, new ClassHeader(name, signature, superName, Collections.unmodifiableList(Arrays.asList(interfaces)), outerClass, access));
+			}
+			return new JdkHierarchySnapshot(headers);
+		} catch (IOException | RuntimeException ex) {
+			//Corrupt snapshot, it is generated again
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the snapshot file. The file is written to a temporary file first and then
+	 * atomically moved into place, so multiple JVMs can share the same directory.
+	 * Failures are ignored since the snapshot can always be generated again
+	 *
+	 * @param file The snapshot file
+	 * @param key  The JDK key of the snapshot
+	 */
+	void write(Path file, String key) {
+		Map<String, Integer> ids = new LinkedHashMap<>();
+		List<ClassHeader> headers = new ArrayList<>(this.headers.values());
+		for (ClassHeader header : headers) {
+			id(ids, header.name);
+			id(ids, header.signature);
+			id(ids, header.superName);
+			id(ids, header.outerClass);
+			for (String itf : header.interfaces) {
+				id(ids, itf);
+			}
+		}
+
+		Path temp = null;
+		try {
+			Files.createDirectories(file.getParent());
+			temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(key);
+
+				out.writeInt(ids.size());
+				for (String string : ids.keySet()) {
+					out.writeUTF(string);
+				}
+
+				out.writeInt(headers.size());
+				for (ClassHeader header : headers) {
+					out.writeInt(id(ids, header.name));
+					out.writeInt(id(ids, header.signature));
+					out.writeInt(id(ids, header.superName));
+					out.writeInt(id(ids, header.outerClass));
+					out.writeInt(header.access);
+					out.writeShort(header.interfaces.size());
+					for (String itf : header.interfaces) {
+						out.writeInt(id(ids, itf));
+					}
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException ignored) {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException ignored2) {
+				}
+			}
+		}
+	}
+
+	private static int id(Map<String, Integer> ids, String string) {
+		if (string == null) {
+			return -1;
+		}
+		Integer id = ids.get(string);
+		if (id == null) {
+			ids.put(string, id = ids.size());
+		}
+		return id;
+	}
+
+	private static String string(String[] strings, int id) {
+		return id == -1 ? null : strings[id];
+	}
+
+	private static final class HeaderVisitor extends ClassVisitor {
+		private ClassHeader header;
+		private String name, signature, superName;
+		private List<String> interfaces;
+		private int access;
+
+		private HeaderVisitor() {
+			super(Opcodes.ASM7);
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+			this.access = access;
+			this.name = name;
+			this.signature = signature;
+			this.superName = superName;
+			this.interfaces = interfaces == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(interfaces));
+			this.header = new ClassHeader(name, signature, superName, this.interfaces, null, access);
+		}
+
+		@Override
+		public void visitOuterClass(String owner, String name, String descriptor) {
+			this.header = new ClassHeader(this.name, this.signature, this.superName, this.interfaces, owner, this.access);
+		}
+	}
+}
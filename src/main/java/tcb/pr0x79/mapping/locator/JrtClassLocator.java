@@ -0,0 +1,160 @@
+package tcb.pr0x79.mapping.locator;
+
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Locates the classes of the JDK run-time image through the <code>jrt:/</code> file system, which is
+ * available on Java 9 and later. Classes are read directly from the module that contains their package,
+ * independent of the class loader.
+ * <p>
+ * If a snapshot directory is set, the headers of all classes of the run-time image are generated on a background thread
+ * when the locator is created and stored in a snapshot file in that directory that is specific to <code>java.home</code> and the JDK version.
+ * Later JVMs of the same JDK read the snapshot file instead, so the class hierarchy can answer all lookups
+ * of JDK classes without reading any class file, see {@link ClassLocator#locateHeader(ClassLoader, String)}.
+ * Header lookups never wait for the snapshot, until it is ready the classes are read one by one
+ */
+public final class JrtClassLocator implements ClassLocator {
+	//Maximum estimated weight of the cached class nodes
+	private static final long DEFAULT_CACHE_WEIGHT = 16L << 20;
+
+	private final FileSystem jrt;
+	//Modules by internal package name
+	private final Map<String, List<String>> packageModules = new HashMap<>();
+	private final Path snapshotDirectory;
+	private final ClassNodeCache cache = new ClassNodeCache(DEFAULT_CACHE_WEIGHT);
+
+	//Completes with null if the snapshot is disabled or could not be loaded or generated
+	private final CompletableFuture<JdkHierarchySnapshot> snapshot;
+
+	/**
+	 * Creates a locator without a hierarchy snapshot
+	 *
+	 * @throws IOException if the <code>jrt:/</code> file system is not available
+	 */
+	public JrtClassLocator() throws IOException {
+		this(null);
+	}
+
+	/**
+	 * @param snapshotDirectory The directory of the hierarchy snapshot files, or null to disable the snapshot. Can be shared by multiple JVMs and JDKs
+	 * @throws IOException if the <code>jrt:/</code> file system is not available
+	 */
+	public JrtClassLocator(Path snapshotDirectory) throws IOException {
+		try {
+			this.jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+		} catch (FileSystemNotFoundException | ProviderNotFoundException ex) {
+			throw new IOException("The jrt:/ file system is not available", ex);
+		}
+		this.snapshotDirectory = snapshotDirectory;
+
+		try (DirectoryStream<Path> packages = Files.newDirectoryStream(this.jrt.getPath("/packages"))) {
+			for (Path pkg : packages) {
+				List<String> modules = new ArrayList<>(1);
+				try (DirectoryStream<Path> pkgModules = Files.newDirectoryStream(pkg)) {
+					for (Path module : pkgModules) {
+						modules.add(module.getFileName().toString());
+					}
+				}
+				this.packageModules.put(pkg.getFileName().toString().replace('.', '/'), modules);
+			}
+		}
+
+		if (snapshotDirectory != null) {
+			//Loading or generating the snapshot takes seconds and must not block the class transformer
+			this.snapshot = CompletableFuture.supplyAsync(this::loadSnapshot, task -> {
+				Thread thread = new Thread(task, "pr0x79 JDK hierarchy snapshot");
+				thread.setDaemon(true);
+				thread.start();
+			}).exceptionally(ex -> null);
+		} else {
+			this.snapshot = CompletableFuture.completedFuture(null);
+		}
+	}
+
+	/**
+	 * Returns whether the <code>jrt:/</code> file system is available
+	 *
+	 * @return
+	 */
+	public static boolean isAvailable() {
+		try {
+			FileSystems.getFileSystem(URI.create("jrt:/"));
+			return true;
+		} catch (FileSystemNotFoundException | ProviderNotFoundException ex) {
+			return false;
+		}
+	}
+
+	@Override
+	public ClassNode locate(ClassLoader loader, String internalClassName, int flags) throws IOException {
+		Path file = this.find(internalClassName);
+		if (file == null) {
+			return null;
+		}
+
+		//The classes of the run-time image don't depend on the class loader
+		return this.cache.get(null, internalClassName, flags, () -> Files.readAllBytes(file));
+	}
+
+	@Override
+	public ClassHeader locateHeader(ClassLoader loader, String internalClassName) throws IOException {
+		JdkHierarchySnapshot snapshot = this.snapshot.getNow(null);
+		return snapshot != null ? snapshot.get(internalClassName) : null;
+	}
+
+	/**
+	 * Returns the number of classes in the hierarchy snapshot. Waits until the snapshot is loaded or generated
+	 *
+	 * @return The number of classes or 0 if the snapshot is disabled or could not be loaded or generated
+	 */
+	public int getSnapshotSize() {
+		JdkHierarchySnapshot snapshot = this.snapshot.join();
+		return snapshot != null ? snapshot.size() : 0;
+	}
+
+	/**
+	 * Returns the class file of the specified class or null if the run-time image does not contain the class
+	 */
+	private Path find(String internalClassName) {
+		int packageEnd = internalClassName.lastIndexOf('/');
+		List<String> modules = this.packageModules.get(packageEnd == -1 ? "" : internalClassName.substring(0, packageEnd));
+		if (modules != null) {
+			for (String module : modules) {
+				Path file = this.jrt.getPath("/modules", module, internalClassName + ".class");
+				if (Files.isRegularFile(file)) {
+					return file;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the snapshot file of the JDK or generates and writes it if it doesn't exist
+	 *
+	 * @return The snapshot or null if it could not be generated
+	 */
+	private JdkHierarchySnapshot loadSnapshot() {
+		String key = JdkHierarchySnapshot.getJdkKey();
+		Path file = JdkHierarchySnapshot.getFile(this.snapshotDirectory, key);
+		JdkHierarchySnapshot snapshot = JdkHierarchySnapshot.read(file, key);
+		if (snapshot == null) {
+			try {
+				snapshot = JdkHierarchySnapshot.generate(this.jrt);
+				snapshot.write(file, key);
+			} catch (IOException ignored) {
+				//Classes are read one by one instead
+			}
+		}
+		return snapshot;
+	}
+}
@@ -46,12 +46,12 @@ public final class AccessorAwareSignatureChecker extends SignatureChecker {
 			}
 
 			ClassAccessorData requirementAccessor = this.accessors.getAccessorByClassName(Type.getObjectType(requirementCls).getClassName());
-			if (requirementAccessor != null && BytecodeInstrumentation.isIdentifiedClass(requirementAccessor, symbolCls, flags -> this.locators.getClass(this.loader, symbolCls, flags))) {
+			if (requirementAccessor != null && BytecodeInstrumentation.isIdentifiedClass(requirementAccessor, this.loader, symbolCls, flags -> this.locators.getClass(this.loader, symbolCls, flags))) {
 				return true;
 			}
 
 			ClassAccessorData symbolAccessor = this.accessors.getAccessorByClassName(Type.getObjectType(symbolCls).getClassName());
-			return symbolAccessor != null && BytecodeInstrumentation.isIdentifiedClass(symbolAccessor, requirementCls, flags -> this.locators.getClass(this.loader, requirementCls, flags));
+			return symbolAccessor != null && BytecodeInstrumentation.isIdentifiedClass(symbolAccessor, this.loader, requirementCls, flags -> this.locators.getClass(this.loader, requirementCls, flags));
 		} else {
 			if (isSuper) {
 				if ("java/lang/Object".equals(symbolCls)) {
@@ -61,7 +61,7 @@ public final class AccessorAwareSignatureChecker extends SignatureChecker {
 				ClassAccessorData symbolAccessor = this.accessors.getAccessorByClassName(Type.getObjectType(symbolCls).getClassName());
 				return this.classRelationResolver.traverseHierarchy(requirementCls, (cls, itf, clsNode, clsFlags) -> {
 					if (symbolAccessor != null) {
-						if (BytecodeInstrumentation.isIdentifiedClass(symbolAccessor, cls, flags -> {
+						if (BytecodeInstrumentation.isIdentifiedClass(symbolAccessor, this.loader, cls, flags -> {
 							if (clsNode != null && flags == clsFlags) {
 								return clsNode;
 							}
@@ -75,7 +75,7 @@ public final class AccessorAwareSignatureChecker extends SignatureChecker {
 
 					//Check if (sub-)class/interface of requirement is an accessor of the symbolCls
 					if (requirementAccessor != null) {
-						if (BytecodeInstrumentation.isIdentifiedClass(requirementAccessor, symbolCls, flags -> {
+						if (BytecodeInstrumentation.isIdentifiedClass(requirementAccessor, this.loader, symbolCls, flags -> {
 							if (clsNode != null && symbolCls.equals(clsNode.name) && flags == clsFlags) {
 								return clsNode;
 							}
@@ -99,7 +99,7 @@ public final class AccessorAwareSignatureChecker extends SignatureChecker {
 					ClassAccessorData symbolAccessor = this.accessors.getAccessorByClassName(Type.getObjectType(cls).getClassName());
 
 					if (symbolAccessor != null) {
-						if (BytecodeInstrumentation.isIdentifiedClass(symbolAccessor, requirementCls, flags -> {
+						if (BytecodeInstrumentation.isIdentifiedClass(symbolAccessor, this.loader, requirementCls, flags -> {
 							if (clsNode != null && requirementCls.equals(clsNode.name) && flags == clsFlags) {
 								return clsNode;
 							}
@@ -111,7 +111,7 @@ public final class AccessorAwareSignatureChecker extends SignatureChecker {
 
 					//Check if accessor is an accessor of this (super-)class/interface
 					if (requirementAccessor != null) {
-						if (BytecodeInstrumentation.isIdentifiedClass(requirementAccessor, cls, flags -> {
+						if (BytecodeInstrumentation.isIdentifiedClass(requirementAccessor, this.loader, cls, flags -> {
 							if (clsNode != null && flags == clsFlags) {
 								return clsNode;
 							}
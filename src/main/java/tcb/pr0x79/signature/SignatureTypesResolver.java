@@ -66,8 +66,9 @@ public final class SignatureTypesResolver {
 
 		if (!variables.isEmpty()) {
 			ClassData ownerCls = this.hierarchy.getClass(this.loader, owner, null);
-			if (ownerCls.signature != null) {
-				Signature ownerSig = Signature.parse(ownerCls.signature);
+			String ownerSignature = ownerCls.getSignature();
+			if (ownerSignature != null) {
+				Signature ownerSig = Signature.parse(ownerSignature);
 				resolve(ownerCls, variables, resolved, ownerSig);
 			}
 		}
@@ -83,8 +84,9 @@ public final class SignatureTypesResolver {
 		if (!variables.isEmpty()) {
 			ClassData outerCls = this.hierarchy.getOuterClass(this.loader, cls.name, null);
 			if (outerCls != null) {
-				if (outerCls.signature != null) {
-					Signature outerSig = Signature.parse(outerCls.signature);
+				String outerSignature = outerCls.getSignature();
+				if (outerSignature != null) {
+					Signature outerSig = Signature.parse(outerSignature);
 					resolve(outerCls, variables, resolved, outerSig);
 				}
 			}
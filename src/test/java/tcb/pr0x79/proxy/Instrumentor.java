@@ -2,16 +2,22 @@ package tcb.pr0x79.proxy;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
-import com.google.gson.stream.JsonReader;
 
 import tcb.pr0x79.Bootstrapper;
 import tcb.pr0x79.mapping.identification.type.ClassIdentifier;
 import tcb.pr0x79.mapping.identification.type.FieldIdentifier;
 import tcb.pr0x79.mapping.identification.type.MethodIdentifier;
 import tcb.pr0x79.mapping.identification.type.InstructionTypeIdentifier;
+import tcb.pr0x79.mapping.locator.IndexedClassLocator;
+import tcb.pr0x79.mapping.locator.JrtClassLocator;
 import tcb.pr0x79.proxy.mappings.MappingsParser;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,30 +31,55 @@ public class Instrumentor implements tcb.pr0x79.Instrumentor {
 
 		System.out.println("Loading mappings");
 
-		//The class, method, field and instruction mappings can be loaded from .json files as demonstrated
+		//The class, method, field and instruction mappings can be loaded from .json files as demonstrated.
+		//Their contents are registered as mapping sources so that the class cache notices changes
 
 		JsonParser parser = new JsonParser();
 
-		JsonElement classMappingsJson = parser.parse(new JsonReader(new InputStreamReader(this.getClass().getResourceAsStream("/mappings/class_mappings.json"))));
+		JsonElement classMappingsJson = parser.parse(this.readMappings(bootstrapper, "class_mappings.json"));
 		Map<String, ClassIdentifier> classIdentifiers = new HashMap<>();
 		MappingsParser.parseClassIdentifiers(classMappingsJson.getAsJsonObject(), classIdentifiers);
 		bootstrapper.getMapperRegistry().registerClassMapper("json", (identifier, type) -> classIdentifiers.get(identifier));
 
-		JsonElement fieldMappingsJson = parser.parse(new JsonReader(new InputStreamReader(this.getClass().getResourceAsStream("/mappings/field_mappings.json"))));
+		JsonElement fieldMappingsJson = parser.parse(this.readMappings(bootstrapper, "field_mappings.json"));
 		Map<String, FieldIdentifier> fieldIdentifiers = new HashMap<>();
 		MappingsParser.parseFieldIdentifiers(fieldMappingsJson.getAsJsonObject(), fieldIdentifiers);
 		bootstrapper.getMapperRegistry().registerFieldMapper("json", (identifier, type) -> fieldIdentifiers.get(identifier));
 
-		JsonElement methodMappingsJson = parser.parse(new JsonReader(new InputStreamReader(this.getClass().getResourceAsStream("/mappings/method_mappings.json"))));
+		JsonElement methodMappingsJson = parser.parse(this.readMappings(bootstrapper, "method_mappings.json"));
 		Map<String, MethodIdentifier> methodIdentifiers = new HashMap<>();
 		MappingsParser.parseMethodIdentifiers(methodMappingsJson.getAsJsonObject(), methodIdentifiers);
 		bootstrapper.getMapperRegistry().registerMethodMapper("json", (identifier, type) -> methodIdentifiers.get(identifier));
 
-		JsonElement instructionMappingsJson = parser.parse(new JsonReader(new InputStreamReader(this.getClass().getResourceAsStream("/mappings/instruction_mappings.json"))));
+		JsonElement instructionMappingsJson = parser.parse(this.readMappings(bootstrapper, "instruction_mappings.json"));
 		Map<String, InstructionTypeIdentifier> instructionIdentifier = new HashMap<>();
 		MappingsParser.parseInstructionIdentifiers(instructionMappingsJson.getAsJsonObject(), instructionIdentifier);
 		bootstrapper.getMapperRegistry().registerInstructionMapper("json", (identifier, type) -> instructionIdentifier.get(identifier));
 
+		//Instructions can also be identified with instruction patterns, see InstructionPatternMapper
+		try {
+			bootstrapper.getMapperRegistry().registerInstructionPatterns("patterns", new InputStreamReader(this.getClass().getResourceAsStream("/mappings/instruction_patterns.txt")));
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed loading instruction patterns", ex);
+		}
+
+		//Classes of the application class path can be located from an index instead of through the class loaders
+		try {
+			bootstrapper.getClassLocatorRegistry().registerClassLocator("classpath", IndexedClassLocator.ofClassPath());
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed indexing the class path", ex);
+		}
+
+		//On Java 9+ the JDK classes can be located through the jrt:/ file system. The headers of all JDK classes
+		//are stored in a snapshot in the specified directory so that later runs don't have to read JDK class files
+		if (JrtClassLocator.isAvailable()) {
+			try {
+				bootstrapper.getClassLocatorRegistry().registerClassLocator("jrt", new JrtClassLocator(Paths.get(System.getProperty("java.io.tmpdir"), "pr0x79")));
+			} catch (IOException ex) {
+				throw new RuntimeException("Failed opening the jrt:/ file system", ex);
+			}
+		}
+
 		System.out.println("Registering accessors\n");
 
 		//The accessor interfaces are registered here. Their classes must _not_ be loaded before or during initBootstrapper
@@ -57,6 +88,22 @@ public class Instrumentor implements tcb.pr0x79.Instrumentor {
 		bootstrapper.getAccessors().registerAccessor("tcb.pr0x79.proxy.accessors.SomeClassAccessor");
 	}
 
+	private String readMappings(Bootstrapper bootstrapper, String file) {
+		try (InputStream stream = this.getClass().getResourceAsStream("/mappings/" + file)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			String source = new String(out.toByteArray(), StandardCharsets.UTF_8);
+			bootstrapper.getMapperRegistry().registerMappingSource(file, source);
+			return source;
+		} catch (IOException ex) {
+			throw new RuntimeException(String.format("Failed loading mappings %s", file), ex);
+		}
+	}
+
 	@Override
 	public void onBootstrapperException(Exception ex) {
 		//Any exceptions caused by the bootstrapper, bytecode modification or an identifier is redirected here
@@ -0,0 +1,32 @@
+package tcb.pr0x79.proxy.identifiers;
+
+import tcb.pr0x79.mapping.identification.type.InstructionPattern;
+import tcb.pr0x79.mapping.identification.type.PatternInstructionIdentifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class PatternMethodCallInstructionIdentifier implements PatternInstructionIdentifier {
+	private final List<InstructionPattern> patterns;
+	private final boolean before;
+
+	public PatternMethodCallInstructionIdentifier(List<String> owners, List<String> methodNames, List<String> methodDescriptors, boolean before) {
+		List<InstructionPattern> patterns = new ArrayList<>(owners.size());
+		for (int i = 0; i < owners.size(); i++) {
+			patterns.add(InstructionPattern.methodCall(owners.get(i), methodNames.get(i), methodDescriptors.get(i)));
+		}
+		this.patterns = Collections.unmodifiableList(patterns);
+		this.before = before;
+	}
+
+	@Override
+	public List<InstructionPattern> getPatterns() {
+		return this.patterns;
+	}
+
+	@Override
+	public int getOffset() {
+		return this.before ? 0 : 1;
+	}
+}
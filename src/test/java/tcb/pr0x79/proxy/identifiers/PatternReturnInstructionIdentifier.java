@@ -0,0 +1,39 @@
+package tcb.pr0x79.proxy.identifiers;
+
+import tcb.pr0x79.mapping.identification.type.InstructionPattern;
+import tcb.pr0x79.mapping.identification.type.PatternInstructionIdentifier;
+
+import java.util.Collections;
+import java.util.List;
+
+public class PatternReturnInstructionIdentifier implements PatternInstructionIdentifier {
+	private static final List<InstructionPattern> PATTERNS = Collections.singletonList(InstructionPattern.returns());
+
+	private final int offset;
+	private final boolean last;
+
+	public PatternReturnInstructionIdentifier() {
+		this.offset = 0;
+		this.last = true;
+	}
+
+	public PatternReturnInstructionIdentifier(int offset, boolean last) {
+		this.offset = offset;
+		this.last = last;
+	}
+
+	@Override
+	public List<InstructionPattern> getPatterns() {
+		return PATTERNS;
+	}
+
+	@Override
+	public boolean isLastMatch() {
+		return this.last;
+	}
+
+	@Override
+	public int getOffset() {
+		return this.offset;
+	}
+}
@@ -103,16 +103,19 @@ public class MappingsParser {
 							}
 							case "first_return": {
 								final int offset = entryJson.has("offset") ? entryJson.get("offset").getAsInt() : 0;
-								map.put(entry.getKey(), new ReturnInstructionIdentifier(offset, false));
+								final boolean pattern = entryJson.has("pattern") && entryJson.get("pattern").getAsBoolean();
+								map.put(entry.getKey(), pattern ? new PatternReturnInstructionIdentifier(offset, false) : new ReturnInstructionIdentifier(offset, false));
 								break;
 							}
 							case "last_return": {
 								final int offset = entryJson.has("offset") ? entryJson.get("offset").getAsInt() : 0;
-								map.put(entry.getKey(), new ReturnInstructionIdentifier(offset, true));
+								final boolean pattern = entryJson.has("pattern") && entryJson.get("pattern").getAsBoolean();
+								map.put(entry.getKey(), pattern ? new PatternReturnInstructionIdentifier(offset, true) : new ReturnInstructionIdentifier(offset, true));
 								break;
 							}
 							case "method_call": {
 								final boolean before = !entryJson.has("before") || entryJson.get("before").getAsBoolean();
+								final boolean pattern = entryJson.has("pattern") && entryJson.get("pattern").getAsBoolean();
 								JsonArray desc = entryJson.get("desc").getAsJsonArray();
 								List<String> mappedDescs = new ArrayList<>(desc.size());
 								for (JsonElement e : desc) {
@@ -128,7 +131,7 @@ public class MappingsParser {
 								for (JsonElement e : owners) {
 									mappedOwners.add(e.getAsString());
 								}
-								map.put(entry.getKey(), new MethodCallInstructionIdentifier(mappedOwners, mappedNames, mappedDescs, before));
+								map.put(entry.getKey(), pattern ? new PatternMethodCallInstructionIdentifier(mappedOwners, mappedNames, mappedDescs, before) : new MethodCallInstructionIdentifier(mappedOwners, mappedNames, mappedDescs, before));
 								break;
 							}
 							default: